@@ -17,10 +17,17 @@
 package com.android.phone;
 
 import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.util.Log;
+import android.util.LruCache;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Image effects used by the in-call UI.
@@ -41,8 +48,9 @@ public class BitmapUtils {
     // BackgroundUtils.java in the Music2 code (which itself was based on
     // code from the old Cooliris android Gallery app.)
     //
-    // TODO: possibly consider caching previously-generated blurred bitmaps;
-    // see getAdaptedBitmap() and mAdaptedBitmapCache in the music app code.
+    // Previously-generated blurred bitmaps are cached per contact photo (see
+    // createBlurredBitmap(Bitmap, Object, boolean)), similar to getAdaptedBitmap() and
+    // mAdaptedBitmapCache in the music app code.
     //
 
     private static final int RED_MASK = 0xff0000;
@@ -51,6 +59,50 @@ public class BitmapUtils {
     private static final int GREEN_MASK_SHIFT = 8;
     private static final int BLUE_MASK = 0x0000ff;
 
+    // Kernel used by gaussianBlurFilter(); hoisted so the filter doesn't allocate per call.
+    private static final int[] BLUR_WEIGHTS = { 13, 23, 32, 39, 42, 39, 32, 23, 13 };
+
+    // The bitmap we pass to the blur filter needs to have a width that's a power of 2.
+    private static final int BLUR_SIZE = 128;
+
+    /** Upper bound of the blurred bitmap cache; each entry is 64KB. */
+    private static final int MAX_BLUR_CACHE_BYTES = 1024 * 1024;
+
+    /** Below this many rows per band, handing work to other threads isn't worth it. */
+    private static final int MIN_ROWS_PER_BAND = 32;
+
+    private static final LruCache<Object, Bitmap> sBlurCache =
+            new LruCache<Object, Bitmap>(MAX_BLUR_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(Object key, Bitmap value) {
+            return value.getByteCount();
+        }
+    };
+
+    /**
+     * Per-thread scratch state, so that a blur only allocates its output bitmap.
+     */
+    private static final class BlurBuffers {
+        final int[] in = new int[BLUR_SIZE * BLUR_SIZE];
+        final int[] tmp = new int[BLUR_SIZE * BLUR_SIZE];
+        final Bitmap scaled = Bitmap.createBitmap(BLUR_SIZE, BLUR_SIZE, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(scaled);
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Rect src = new Rect();
+        final Rect dst = new Rect(0, 0, BLUR_SIZE, BLUR_SIZE);
+    }
+
+    private static final ThreadLocal<BlurBuffers> sBlurBuffers = new ThreadLocal<BlurBuffers>() {
+        @Override
+        protected BlurBuffers initialValue() {
+            return new BlurBuffers();
+        }
+    };
+
+    /** Helper threads for parallel blurs; the calling thread always takes one band itself. */
+    private static ExecutorService sBlurExecutor;
+    private static int sBlurBands;
+
     /**
      * Creates a blurred version of the given Bitmap.
      *
@@ -118,14 +170,126 @@ public class BitmapUtils {
         return filtered;
     }
 
-    private static void gaussianBlurFilter(int[] in, int[] out, int width, int height) {
+    /**
+     * Same as {@link #createBlurredBitmap(Bitmap)}, but remembers the result for the given key
+     * (typically the contact photo Uri) and uses per-thread buffers instead of allocating
+     * intermediate bitmaps and pixel arrays on every call.
+     *
+     * The returned bitmap is shared with the cache and must not be recycled or modified.
+     *
+     * @param key identifies the source photo; null disables caching.
+     * @param parallel run the filter in row bands on multiple cores when available.
+     */
+    public static Bitmap createBlurredBitmap(Bitmap bitmap, Object key, boolean parallel) {
+        if (bitmap == null) {
+            Log.w(TAG, "createBlurredBitmap: null bitmap");
+            return null;
+        }
+        if (key != null) {
+            final Bitmap cached = sBlurCache.get(key);
+            if (cached != null) {
+                if (DBG) log("createBlurredBitmap(): cache hit for " + key);
+                return cached;
+            }
+        }
+
+        long startTime = SystemClock.uptimeMillis();
+        final BlurBuffers buffers = sBlurBuffers.get();
+
+        // Scale into the reusable 128x128 bitmap, like createScaledBitmap() with filtering.
+        buffers.src.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        buffers.scaled.eraseColor(0);
+        buffers.canvas.drawBitmap(bitmap, buffers.src, buffers.dst, buffers.paint);
+        buffers.scaled.getPixels(buffers.in, 0, BLUR_SIZE, 0, 0, BLUR_SIZE, BLUR_SIZE);
+
+        if (parallel && getBlurBands() > 1) {
+            gaussianBlurFilterParallel(buffers.in, buffers.tmp, BLUR_SIZE, BLUR_SIZE);
+            gaussianBlurFilterParallel(buffers.tmp, buffers.in, BLUR_SIZE, BLUR_SIZE);
+        } else {
+            gaussianBlurFilter(buffers.in, buffers.tmp, BLUR_SIZE, BLUR_SIZE);
+            gaussianBlurFilter(buffers.tmp, buffers.in, BLUR_SIZE, BLUR_SIZE);
+        }
+
+        final Bitmap blurred = Bitmap.createBitmap(buffers.in, BLUR_SIZE, BLUR_SIZE,
+                Bitmap.Config.ARGB_8888);
+        if (key != null) {
+            sBlurCache.put(key, blurred);
+        }
+
+        long endTime = SystemClock.uptimeMillis();
+        if (DBG) log("createBlurredBitmap() done (elapsed = " + (endTime - startTime) + " msec)");
+        return blurred;
+    }
+
+    /**
+     * Drops every cached blurred bitmap.
+     */
+    public static void clearBlurCache() {
+        sBlurCache.evictAll();
+    }
+
+    private static synchronized int getBlurBands() {
+        if (sBlurExecutor == null) {
+            sBlurBands = Math.min(Runtime.getRuntime().availableProcessors(),
+                    BLUR_SIZE / MIN_ROWS_PER_BAND);
+            if (sBlurBands > 1) {
+                sBlurExecutor = Executors.newFixedThreadPool(sBlurBands - 1);
+            }
+        }
+        return sBlurBands;
+    }
+
+    /**
+     * Runs {@link #gaussianBlurFilter(int[], int[], int, int, int, int)} on disjoint row bands.
+     * Every input row writes a different output column, so bands never touch the same pixels.
+     */
+    private static void gaussianBlurFilterParallel(final int[] in, final int[] out,
+            final int width, final int height) {
+        final int bands = getBlurBands();
+        final int rowsPerBand = (height + bands - 1) / bands;
+        final CountDownLatch done = new CountDownLatch(bands - 1);
+        for (int band = 1; band < bands; band++) {
+            final int yStart = band * rowsPerBand;
+            final int yEnd = Math.min(height, yStart + rowsPerBand);
+            sBlurExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        gaussianBlurFilter(in, out, width, height, yStart, yEnd);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            });
+        }
+        gaussianBlurFilter(in, out, width, height, 0, Math.min(height, rowsPerBand));
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* package */ static void gaussianBlurFilter(int[] in, int[] out, int width, int height) {
+        gaussianBlurFilter(in, out, width, height, 0, height);
+    }
+
+    private static void gaussianBlurFilter(int[] in, int[] out, int width, int height,
+            int yStart, int yEnd) {
         // This function is currently hardcoded to blur with RADIUS = 4.
         // (If you change RADIUS, you'll have to change the weights[] too.)
         final int RADIUS = 4;
-        final int[] weights = { 13, 23, 32, 39, 42, 39, 32, 23, 13}; // Adds up to 256
-        int inPos = 0;
+        final int[] weights = BLUR_WEIGHTS; // Adds up to 256
+        int inPos = yStart * width;
         int widthMask = width - 1; // width must be a power of two.
-        for (int y = 0; y < height; ++y) {
+        for (int y = yStart; y < yEnd; ++y) {
             // Compute the alpha value.
             int alpha = 0xff;
             // Compute output values for the row.
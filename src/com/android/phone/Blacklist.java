@@ -1,16 +1,21 @@
 package com.android.phone;
 
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.net.Uri;
+import android.os.RemoteException;
 import android.provider.Telephony;
+import android.util.Log;
 
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.HashSet;
 
 /**
@@ -18,6 +23,8 @@ import java.util.HashSet;
  * only remaining purpose is legacy data migration
  */
 class Blacklist {
+    private static final String LOG_TAG = "Blacklist";
+
     private static class PhoneNumber implements Externalizable {
         static final long serialVersionUID = 32847013274L;
         String phone;
@@ -73,15 +80,34 @@ class Blacklist {
             }
         }
         if (data != null) {
-            ContentResolver cr = context.getContentResolver();
-            ContentValues cv = new ContentValues();
-            cv.put(Telephony.Blacklist.PHONE_MODE, 1);
-
+            // Migrate everything in a single batch, so the provider (and BlacklistEngine,
+            // which reloads on change) sees one transaction instead of one per number.
+            ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
             for (PhoneNumber number : data) {
+                if (number.phone == null) {
+                    continue;
+                }
+                ContentValues cv = new ContentValues();
+                cv.put(Telephony.Blacklist.PHONE_MODE, 1);
+                cv.put(Telephony.Blacklist.NUMBER, number.phone);
                 Uri uri = Uri.withAppendedPath(
                         Telephony.Blacklist.CONTENT_FILTER_BYNUMBER_URI, number.phone);
-                cv.put(Telephony.Blacklist.NUMBER, number.phone);
-                cr.update(uri, cv, null, null);
+                ops.add(ContentProviderOperation.newUpdate(uri).withValues(cv).build());
+            }
+            if (ops.isEmpty()) {
+                return;
+            }
+            ContentResolver cr = context.getContentResolver();
+            try {
+                cr.applyBatch(Telephony.Blacklist.CONTENT_URI.getAuthority(), ops);
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, "Failed to migrate blacklist", e);
+            } catch (OperationApplicationException e) {
+                Log.e(LOG_TAG, "Failed to migrate blacklist", e);
+            }
+            BlacklistEngine engine = BlacklistEngine.getInstance();
+            if (engine != null) {
+                engine.scheduleReload();
             }
         }
     }
@@ -0,0 +1,594 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.location.Country;
+import android.location.CountryDetector;
+import android.location.CountryListener;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemProperties;
+import android.provider.Telephony;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.util.BlacklistUtils;
+
+import java.io.PrintWriter;
+
+/**
+ * In-memory copy of the {@link Telephony.Blacklist} table, compiled so that incoming calls get
+ * a verdict without a provider round-trip.
+ *
+ * Exact numbers are kept in a digit trie, both as entered and in their E.164 normalized form,
+ * and incoming numbers are looked up as received and normalized against the current country,
+ * so that national and international formats of a number match each other. Wildcard ("regex")
+ * entries are merged into a single pattern trie which is matched as one NFA. Both are rebuilt
+ * off the main thread whenever the table changes, and swapped in as an immutable snapshot.
+ * Until the first snapshot is ready, for private numbers, and for numbers the table doesn't
+ * block while "block numbers not in contacts" is on (that needs a contact lookup), lookups fall
+ * back to {@link BlacklistUtils#isListed}.
+ */
+public class BlacklistEngine {
+    private static final String LOG_TAG = "BlacklistEngine";
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    /** Delay used to coalesce bursts of change notifications (e.g. a restore or migration). */
+    private static final int RELOAD_DELAY = 500; // msec
+
+    private static final String[] PROJECTION = new String[] {
+        Telephony.Blacklist.NUMBER,            // 0
+        Telephony.Blacklist.IS_REGEX,          // 1
+        Telephony.Blacklist.PHONE_MODE,        // 2
+        Telephony.Blacklist.MESSAGE_MODE,      // 3
+        Telephony.Blacklist.NORMALIZED_NUMBER  // 4
+    };
+
+    private static final int INDEX_NUMBER = 0;
+    private static final int INDEX_IS_REGEX = 1;
+    private static final int INDEX_PHONE_MODE = 2;
+    private static final int INDEX_MESSAGE_MODE = 3;
+    private static final int INDEX_NORMALIZED_NUMBER = 4;
+
+    // Per-node flags telling for which modes the entry ending at that node blocks.
+    private static final int FLAG_PHONE = 1;
+    private static final int FLAG_MESSAGE = 2;
+    // Marks pattern nodes reached through an "any sequence" symbol.
+    private static final int FLAG_SEQUENCE = 4;
+
+    // Trie alphabet: digits, '+', and for patterns "any one char" and "any sequence".
+    private static final int SYMBOL_PLUS = 10;
+    private static final int SYMBOL_ANY_ONE = 11;
+    private static final int SYMBOL_ANY_SEQUENCE = 12;
+    private static final int NUM_SYMBOLS = 13;
+
+    private static final int NO_NODE = 0; // node 0 is always the root, so never a child
+
+    /** Returned by {@link #match} when only a contact lookup can tell. */
+    /* package */ static final int MATCH_NEEDS_LOOKUP = -1;
+
+    /** The singleton instance. */
+    private static BlacklistEngine sInstance;
+
+    /**
+     * Immutable compiled form of the table. Both tries use a flat int array with
+     * {@link #NUM_SYMBOLS} slots per node.
+     */
+    /* package */ static final class Snapshot {
+        final int[] numberNext;
+        final byte[] numberFlags;
+        final int[] patternNext;
+        final byte[] patternFlags;
+        final int numberCount;
+        final int patternCount;
+
+        Snapshot(TrieBuilder numbers, TrieBuilder patterns) {
+            numberNext = numbers.next();
+            numberFlags = numbers.flags();
+            patternNext = patterns.next();
+            patternFlags = patterns.flags();
+            numberCount = numbers.entries;
+            patternCount = patterns.entries;
+        }
+    }
+
+    /**
+     * Scratch state for NFA simulation, one per thread so that lookups don't allocate once
+     * warmed up. Sized lazily to the current pattern trie.
+     */
+    private static final class Scratch {
+        int[] current = new int[0];
+        int[] next = new int[0];
+        int[] mark = new int[0];
+        int generation;
+
+        void ensureCapacity(int nodes) {
+            if (mark.length < nodes) {
+                current = new int[nodes];
+                next = new int[nodes];
+                mark = new int[nodes];
+                generation = 0;
+            }
+        }
+    }
+
+    private static final ThreadLocal<Scratch> sScratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final Context mContext;
+    private final Handler mHandler = new Handler();
+    private volatile Snapshot mSnapshot;
+    private ReloadTask mReloadTask;
+    private boolean mReloadPending;
+    private volatile String mCountryIso;
+    private volatile boolean mCountryValid;
+
+    // Counters, only for dump().
+    private volatile int mReloadCount;
+    private volatile int mLookupCount;
+    private volatile int mFallbackCount;
+
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            startReload();
+        }
+    };
+
+    private final ContentObserver mObserver = new ContentObserver(mHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (DBG) log("Blacklist changed");
+            scheduleReload();
+        }
+    };
+
+    private final CountryListener mCountryListener = new CountryListener() {
+        @Override
+        public void onCountryDetected(Country country) {
+            mCountryIso = country != null ? country.getCountryIso() : null;
+            mCountryValid = true;
+            if (DBG) log("onCountryDetected: " + country);
+        }
+    };
+
+    private class ReloadTask extends AsyncTask<Void, Void, Snapshot> {
+        @Override
+        protected Snapshot doInBackground(Void... params) {
+            return load();
+        }
+
+        @Override
+        protected void onPostExecute(Snapshot snapshot) {
+            if (snapshot != null) {
+                mSnapshot = snapshot;
+                mReloadCount++;
+                if (DBG) {
+                    log("Blacklist loaded: " + snapshot.numberCount + " numbers, "
+                            + snapshot.patternCount + " patterns");
+                }
+            }
+            mReloadTask = null;
+            if (mReloadPending) {
+                mReloadPending = false;
+                startReload();
+            }
+        }
+    }
+
+    /**
+     * Initialize the singleton BlacklistEngine instance.
+     * This is only done once, at startup, from PhoneApp.onCreate().
+     */
+    /* package */ static BlacklistEngine init(Context context) {
+        synchronized (BlacklistEngine.class) {
+            if (sInstance == null) {
+                sInstance = new BlacklistEngine(context);
+            } else {
+                Log.wtf(LOG_TAG, "init() called multiple times!  sInstance = " + sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    /* package */ static BlacklistEngine getInstance() {
+        return sInstance;
+    }
+
+    /** Private constructor; @see init() */
+    private BlacklistEngine(Context context) {
+        mContext = context;
+        context.getContentResolver().registerContentObserver(
+                Telephony.Blacklist.CONTENT_URI, true, mObserver);
+        final CountryDetector detector =
+                (CountryDetector) context.getSystemService(Context.COUNTRY_DETECTOR);
+        if (detector != null) {
+            detector.addCountryListener(mCountryListener, Looper.getMainLooper());
+        }
+        startReload();
+    }
+
+    /**
+     * Schedules a reload of the table, coalescing requests which arrive close together.
+     * Must be called from the main thread.
+     */
+    /* package */ void scheduleReload() {
+        mHandler.removeCallbacks(mReloadRunnable);
+        mHandler.postDelayed(mReloadRunnable, RELOAD_DELAY);
+    }
+
+    private void startReload() {
+        if (mReloadTask != null) {
+            // Load again once the running one is done, so we don't miss this change.
+            mReloadPending = true;
+            return;
+        }
+        mReloadTask = new ReloadTask();
+        mReloadTask.execute();
+    }
+
+    /**
+     * Same contract as {@link BlacklistUtils#isListed(Context, String, int)}.
+     *
+     * @return one of MATCH_NONE, MATCH_PRIVATE, MATCH_UNKNOWN, MATCH_LIST or MATCH_REGEX
+     */
+    public int isListed(String number, int mode) {
+        final Snapshot snapshot = mSnapshot;
+        if (snapshot == null || TextUtils.isEmpty(number) || !hasDigits(number)) {
+            // Not loaded yet, or a private/unknown number which depends on settings only.
+            mFallbackCount++;
+            return BlacklistUtils.isListed(mContext, number, mode);
+        }
+        mLookupCount++;
+        if (!BlacklistUtils.isBlacklistEnabled(mContext)) {
+            return BlacklistUtils.MATCH_NONE;
+        }
+
+        final int match = match(snapshot, number, normalize(number, getCountryIso()), mode,
+                BlacklistUtils.isBlacklistRegexEnabled(mContext),
+                BlacklistUtils.isBlacklistUnknownNumberEnabled(mContext, mode));
+        if (match == MATCH_NEEDS_LOOKUP) {
+            // Not in the table, but it is still blocked if it isn't a contact.
+            mFallbackCount++;
+            return BlacklistUtils.isListed(mContext, number, mode);
+        }
+        return match;
+    }
+
+    /**
+     * Matches a number against a snapshot.
+     *
+     * @param normalizedNumber the number in E.164 format (see {@link #normalize}), also
+     * looked up in the exact numbers; may be null
+     * @param unknownBlocked whether numbers not in contacts are blocked for this mode
+     * @return MATCH_LIST, MATCH_REGEX or MATCH_NONE, or {@link #MATCH_NEEDS_LOOKUP} if the
+     * table doesn't block the number but unknownBlocked is set
+     */
+    /* package */ static int match(Snapshot snapshot, String number, String normalizedNumber,
+            int mode, boolean regexEnabled, boolean unknownBlocked) {
+        final int flag = (mode == BlacklistUtils.BLOCK_MESSAGES) ? FLAG_MESSAGE : FLAG_PHONE;
+        if (matchNumber(snapshot, number, flag) || (normalizedNumber != null
+                && matchNumber(snapshot, normalizedNumber, flag))) {
+            return BlacklistUtils.MATCH_LIST;
+        }
+        if (snapshot.patternCount > 0 && regexEnabled
+                && matchPattern(snapshot, number, flag)) {
+            return BlacklistUtils.MATCH_REGEX;
+        }
+        return unknownBlocked ? MATCH_NEEDS_LOOKUP : BlacklistUtils.MATCH_NONE;
+    }
+
+    /**
+     * @return the number in E.164 format for the given country, or null if it can't be
+     * normalized (e.g. unknown country or not a valid number)
+     */
+    /* package */ static String normalize(String number, String countryIso) {
+        if (TextUtils.isEmpty(countryIso)) {
+            return null;
+        }
+        return PhoneNumberUtils.formatNumberToE164(number, countryIso.toUpperCase());
+    }
+
+    private String getCountryIso() {
+        if (!mCountryValid) {
+            final CountryDetector detector =
+                    (CountryDetector) mContext.getSystemService(Context.COUNTRY_DETECTOR);
+            final Country country = detector != null ? detector.detectCountry() : null;
+            mCountryIso = country != null ? country.getCountryIso() : null;
+            mCountryValid = true;
+        }
+        return mCountryIso;
+    }
+
+    private static boolean matchNumber(Snapshot snapshot, String number, int flag) {
+        final int[] next = snapshot.numberNext;
+        int node = 0;
+        final int length = number.length();
+        for (int i = 0; i < length; i++) {
+            final int symbol = numberSymbol(number.charAt(i), i == 0);
+            if (symbol < 0) {
+                continue;
+            }
+            node = next[node * NUM_SYMBOLS + symbol];
+            if (node == NO_NODE) {
+                return false;
+            }
+        }
+        return (snapshot.numberFlags[node] & flag) != 0;
+    }
+
+    private static boolean matchPattern(Snapshot snapshot, String number, int flag) {
+        final int[] next = snapshot.patternNext;
+        final Scratch scratch = sScratch.get();
+        scratch.ensureCapacity(snapshot.patternFlags.length);
+
+        int[] current = scratch.current;
+        int[] following = scratch.next;
+        scratch.generation++;
+        int currentSize = addState(scratch, next, current, 0, 0);
+
+        final int length = number.length();
+        for (int i = 0; i < length && currentSize > 0; i++) {
+            final int symbol = numberSymbol(number.charAt(i), i == 0);
+            if (symbol < 0) {
+                continue;
+            }
+            scratch.generation++;
+            int followingSize = 0;
+            for (int s = 0; s < currentSize; s++) {
+                final int base = current[s] * NUM_SYMBOLS;
+                final int literal = next[base + symbol];
+                if (literal != NO_NODE) {
+                    followingSize = addState(scratch, next, following, followingSize, literal);
+                }
+                final int anyOne = next[base + SYMBOL_ANY_ONE];
+                if (anyOne != NO_NODE) {
+                    followingSize = addState(scratch, next, following, followingSize, anyOne);
+                }
+                if (isSequenceNode(snapshot, current[s])) {
+                    // "any sequence" loops on itself.
+                    followingSize = addState(scratch, next, following, followingSize, current[s]);
+                }
+            }
+            final int[] swap = current;
+            current = following;
+            following = swap;
+            currentSize = followingSize;
+        }
+
+        for (int s = 0; s < currentSize; s++) {
+            if ((snapshot.patternFlags[current[s]] & flag) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a state and, since "any sequence" also matches nothing, its epsilon closure.
+     * States already added in the current generation are skipped.
+     */
+    private static int addState(Scratch scratch, int[] next, int[] states, int size, int node) {
+        while (scratch.mark[node] != scratch.generation) {
+            scratch.mark[node] = scratch.generation;
+            states[size++] = node;
+            node = next[node * NUM_SYMBOLS + SYMBOL_ANY_SEQUENCE];
+            if (node == NO_NODE) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    private static boolean isSequenceNode(Snapshot snapshot, int node) {
+        return (snapshot.patternFlags[node] & FLAG_SEQUENCE) != 0;
+    }
+
+    /**
+     * Maps a character of an incoming number to a trie symbol following
+     * PhoneNumberUtils.normalizeNumber() rules; returns -1 for characters which are ignored.
+     */
+    private static int numberSymbol(char c, boolean first) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c == '+' && first) {
+            return SYMBOL_PLUS;
+        }
+        if (c >= 'a' && c <= 'z') {
+            return keypadDigit(c - 'a');
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return keypadDigit(c - 'A');
+        }
+        return -1;
+    }
+
+    private static int patternSymbol(char c, boolean first) {
+        if (c == '*' || c == '%') {
+            return SYMBOL_ANY_SEQUENCE;
+        }
+        if (c == '.' || c == '_') {
+            return SYMBOL_ANY_ONE;
+        }
+        return numberSymbol(c, first);
+    }
+
+    private static int keypadDigit(int letter) {
+        // abc=2 def=3 ghi=4 jkl=5 mno=6 pqrs=7 tuv=8 wxyz=9
+        if (letter < 15) return 2 + letter / 3;
+        if (letter < 19) return 7;
+        if (letter < 22) return 8;
+        return 9;
+    }
+
+    private static boolean hasDigits(String number) {
+        for (int i = 0; i < number.length(); i++) {
+            final char c = number.charAt(i);
+            // Same digits as numberSymbol(), so that only numbers the tries can match get there.
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Growable trie used while loading; turned into flat arrays for the snapshot.
+     */
+    private static final class TrieBuilder {
+        private int[] mNext = new int[NUM_SYMBOLS * 64];
+        private byte[] mFlags = new byte[64];
+        private int mNodes = 1;
+        int entries;
+
+        void add(String entry, boolean pattern, int flags) {
+            int node = 0;
+            final int length = entry.length();
+            for (int i = 0; i < length; i++) {
+                final char c = entry.charAt(i);
+                final int symbol = pattern ? patternSymbol(c, i == 0) : numberSymbol(c, i == 0);
+                if (symbol < 0) {
+                    continue;
+                }
+                final int slot = node * NUM_SYMBOLS + symbol;
+                if (mNext[slot] == NO_NODE) {
+                    mNext[slot] = newNode(symbol == SYMBOL_ANY_SEQUENCE ? FLAG_SEQUENCE : 0);
+                }
+                node = mNext[slot];
+            }
+            if (node != 0) {
+                mFlags[node] |= flags;
+                entries++;
+            }
+        }
+
+        private int newNode(int flags) {
+            if (mNodes == mFlags.length) {
+                final int[] next = new int[mNext.length * 2];
+                System.arraycopy(mNext, 0, next, 0, mNext.length);
+                mNext = next;
+                final byte[] nodeFlags = new byte[mFlags.length * 2];
+                System.arraycopy(mFlags, 0, nodeFlags, 0, mFlags.length);
+                mFlags = nodeFlags;
+            }
+            mFlags[mNodes] = (byte) flags;
+            return mNodes++;
+        }
+
+        int[] next() {
+            final int[] result = new int[mNodes * NUM_SYMBOLS];
+            System.arraycopy(mNext, 0, result, 0, result.length);
+            return result;
+        }
+
+        byte[] flags() {
+            final byte[] result = new byte[mNodes];
+            System.arraycopy(mFlags, 0, result, 0, mNodes);
+            return result;
+        }
+    }
+
+    /**
+     * Compiles a snapshot from plain lists, with every entry blocking calls and messages.
+     */
+    /* package */ static Snapshot compile(String[] numbers, String[] patterns) {
+        final TrieBuilder numberTrie = new TrieBuilder();
+        for (String number : numbers) {
+            numberTrie.add(number, false, FLAG_PHONE | FLAG_MESSAGE);
+        }
+        final TrieBuilder patternTrie = new TrieBuilder();
+        for (String pattern : patterns) {
+            patternTrie.add(pattern, true, FLAG_PHONE | FLAG_MESSAGE);
+        }
+        return new Snapshot(numberTrie, patternTrie);
+    }
+
+    private Snapshot load() {
+        final TrieBuilder numbers = new TrieBuilder();
+        final TrieBuilder patterns = new TrieBuilder();
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Telephony.Blacklist.CONTENT_URI,
+                    PROJECTION, null, null, null);
+            if (cursor == null) {
+                Log.w(LOG_TAG, "cursor is null");
+                return null;
+            }
+            while (cursor.moveToNext()) {
+                final String number = cursor.getString(INDEX_NUMBER);
+                if (TextUtils.isEmpty(number)) {
+                    continue;
+                }
+                int flags = 0;
+                if (cursor.getInt(INDEX_PHONE_MODE) != 0) {
+                    flags |= FLAG_PHONE;
+                }
+                if (cursor.getInt(INDEX_MESSAGE_MODE) != 0) {
+                    flags |= FLAG_MESSAGE;
+                }
+                if (flags == 0) {
+                    continue;
+                }
+                if (cursor.getInt(INDEX_IS_REGEX) != 0) {
+                    patterns.add(number, true, flags);
+                } else {
+                    numbers.add(number, false, flags);
+                    final String normalizedNumber = cursor.getString(INDEX_NORMALIZED_NUMBER);
+                    if (!TextUtils.isEmpty(normalizedNumber)
+                            && !normalizedNumber.equals(number)) {
+                        numbers.add(normalizedNumber, false, flags);
+                    }
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return new Snapshot(numbers, patterns);
+    }
+
+    /* package */ void dump(PrintWriter pw) {
+        final Snapshot snapshot = mSnapshot;
+        pw.println("BlacklistEngine:");
+        if (snapshot == null) {
+            pw.println("  not loaded");
+        } else {
+            pw.println("  numbers: " + snapshot.numberCount + " incl. normalized forms"
+                    + " (" + snapshot.numberFlags.length + " trie nodes)");
+            pw.println("  patterns: " + snapshot.patternCount
+                    + " (" + snapshot.patternFlags.length + " trie nodes)");
+        }
+        pw.println("  reloads: " + mReloadCount + ", lookups: " + mLookupCount
+                + ", provider fallbacks: " + mFallbackCount);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.bluetooth.BluetoothHeadset;
+import android.telephony.PhoneNumberUtils;
+
+import com.android.internal.telephony.Call;
+import com.android.internal.telephony.Connection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The +CLCC view of the current calls, shared by {@link BluetoothPhoneService} and
+ * {@link BluetoothDsdaState}.
+ *
+ * {@link #assign} gives each connection a CLCC index that it keeps for as long as it lives
+ * (connections are told apart by their creation time). {@link #capture} then records what the
+ * +CLCC response for each index will be, so that polls from the headset can be answered by
+ * {@link #send} from the recorded values without walking the calls again. Nothing is
+ * allocated after construction.
+ */
+/* package */ final class BluetoothCallSnapshot {
+    /** Max connections allowed by GSM, and the size of the CLCC index space. */
+    public static final int MAX_CONNECTIONS = 6;
+
+    private final boolean[] mUsed = new boolean[MAX_CONNECTIONS];
+    private final boolean[] mWasUsed = new boolean[MAX_CONNECTIONS];
+    private final long[] mTimestamps = new long[MAX_CONNECTIONS];
+    private final Connection[] mConnections = new Connection[MAX_CONNECTIONS];
+    private final ArrayList<Connection> mNewConnections =
+            new ArrayList<Connection>(MAX_CONNECTIONS);
+
+    // Captured +CLCC responses, by index.
+    private final int[] mDirection = new int[MAX_CONNECTIONS];
+    private final int[] mState = new int[MAX_CONNECTIONS];
+    private final boolean[] mMpty = new boolean[MAX_CONNECTIONS];
+    private final String[] mNumber = new String[MAX_CONNECTIONS];
+    private final int[] mType = new int[MAX_CONNECTIONS];
+    private boolean mCaptured;
+
+    /**
+     * Assigns CLCC indices to the given connections. Connections seen by the previous call keep
+     * their index; new ones take the lowest free indices, earliest connection first.
+     */
+    public void assign(List<Connection> connections) {
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            mWasUsed[i] = mUsed[i];
+            mUsed[i] = false;
+            mConnections[i] = null;
+        }
+        mNewConnections.clear();
+        final int count = connections.size();
+        for (int c = 0; c < count; c++) {
+            final Connection connection = connections.get(c);
+            final long timestamp = connection.getCreateTime();
+            boolean found = false;
+            for (int i = 0; i < MAX_CONNECTIONS; i++) {
+                if (mWasUsed[i] && !mUsed[i] && timestamp == mTimestamps[i]) {
+                    mUsed[i] = true;
+                    mConnections[i] = connection;
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                mNewConnections.add(connection);
+            }
+        }
+
+        while (!mNewConnections.isEmpty()) {
+            // Find lowest empty index
+            int i = 0;
+            while (i < MAX_CONNECTIONS && mUsed[i]) i++;
+            if (i == MAX_CONNECTIONS) {
+                break;
+            }
+            // Find earliest connection
+            int earliest = 0;
+            for (int j = 1; j < mNewConnections.size(); j++) {
+                if (mNewConnections.get(j).getCreateTime()
+                        < mNewConnections.get(earliest).getCreateTime()) {
+                    earliest = j;
+                }
+            }
+            final Connection connection = mNewConnections.remove(earliest);
+            mUsed[i] = true;
+            mTimestamps[i] = connection.getCreateTime();
+            mConnections[i] = connection;
+        }
+        mNewConnections.clear();
+        mCaptured = false;
+    }
+
+    public boolean isUsed(int index) {
+        return mUsed[index];
+    }
+
+    public Connection getConnection(int index) {
+        return mConnections[index];
+    }
+
+    /**
+     * Records the +CLCC response of every assigned connection, GSM style: the state comes from
+     * the connection and mpty from its call.
+     */
+    public void capture() {
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            if (!mUsed[i]) {
+                continue;
+            }
+            final Connection connection = mConnections[i];
+            mState[i] = BluetoothPhoneService.convertCallState(connection.getState());
+            final Call call = connection.getCall();
+            mMpty[i] = call != null && call.isMultiparty();
+            mDirection[i] = connection.isIncoming() ? 1 : 0;
+            mNumber[i] = connection.getAddress();
+            mType[i] = mNumber[i] != null ? PhoneNumberUtils.toaFromString(mNumber[i]) : -1;
+        }
+        mCaptured = true;
+    }
+
+    /**
+     * @return true if {@link #capture} ran since the last {@link #assign} or
+     * {@link #invalidate}
+     */
+    public boolean isCaptured() {
+        return mCaptured;
+    }
+
+    /**
+     * Marks the captured responses as stale, e.g. when the call set changed and the snapshot
+     * will be rebuilt on the next poll.
+     */
+    public void invalidate() {
+        mCaptured = false;
+    }
+
+    /**
+     * Sends the captured responses, without the terminating empty response.
+     */
+    public void send(BluetoothHeadset headset) {
+        for (int i = 0; i < MAX_CONNECTIONS; i++) {
+            if (mUsed[i]) {
+                headset.clccResponse(i + 1, mDirection[i], mState[i], 0, mMpty[i], mNumber[i],
+                        mType[i]);
+            }
+        }
+    }
+}
@@ -52,7 +52,7 @@ import com.android.internal.telephony.CallManager;
 import android.telephony.MSimTelephonyManager;
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -94,10 +94,11 @@ class BluetoothDsdaState {
     private boolean mCdmaIsSecondCallActive = false;
     private boolean mCdmaCallsSwapped = false;
 
-    private long[] mClccTimestamps; // Timestamps associated with each clcc index
-    private boolean[] mClccUsed;     // Is this clcc index in use
+    // CLCC indices of the calls on both subscriptions
+    private final BluetoothCallSnapshot mClccSnapshot = new BluetoothCallSnapshot();
+    private final ArrayList<Connection> mClccConnections =
+            new ArrayList<Connection>(BluetoothCallSnapshot.MAX_CONNECTIONS);
 
-    private static final int GSM_MAX_CONNECTIONS = 6;  // Max connections allowed by GSM
     private static final int CDMA_MAX_CONNECTIONS = 2;  // Max connections allowed by CDMA
 
     /* At present the SUBs are valued as 0 and 1 for DSDA*/
@@ -133,12 +134,6 @@ class BluetoothDsdaState {
         mSubscriptionTwo = new BluetoothSub(SUB2);
         //Get the HeadsetService Profile proxy
         mAdapter.getProfileProxy(context, mProfileListener, BluetoothProfile.HEADSET);
-        //Initialize CLCC
-        mClccTimestamps = new long[GSM_MAX_CONNECTIONS];
-        mClccUsed = new boolean[GSM_MAX_CONNECTIONS];
-        for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-            mClccUsed[i] = false;
-        }
     }
 
     //This will also register for getting the Bluetooth Headset Profile proxy
@@ -523,15 +518,14 @@ class BluetoothDsdaState {
     }
 
     /* List CLCC on both the subscription. The max call list is driven by
-       GSM_MAX_CONNECTIONS, even in DSDA. */
+       BluetoothCallSnapshot.MAX_CONNECTIONS, even in DSDA. */
     private void listCurrentCallsOnBothSubs(boolean allowDsda) {
         // Collect all known connections
         // clccConnections isindexed by CLCC index
         log("listCurrentCallsOnBothSubs");
-        //In DSDA, call list is limited by GSM_MAX_CONNECTIONS.
-        Connection[] clccConnections = new Connection[GSM_MAX_CONNECTIONS];
-        LinkedList<Connection> newConnections = new LinkedList<Connection>();
-        LinkedList<Connection> connections = new LinkedList<Connection>();
+        //In DSDA, call list is limited by BluetoothCallSnapshot.MAX_CONNECTIONS.
+        final ArrayList<Connection> connections = mClccConnections;
+        connections.clear();
         //Get all calls on subscription one.
         Call foregroundCallSub1 = mCM.getActiveFgCall(SUB1);
         Call backgroundCallSub1 = mCM.getFirstActiveBgCall(SUB1);
@@ -637,56 +631,13 @@ class BluetoothDsdaState {
             handleCdmaSetSecondCallState(true);
         }
         log("calls added for both subscriptions");
-        // Mark connections that we already known about
-        boolean clccUsed[] = new boolean[GSM_MAX_CONNECTIONS];
-        for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-            clccUsed[i] = mClccUsed[i];
-            log("add clcc about: " + i + " mClcc[]: " + mClccUsed[i]);
-            mClccUsed[i] = false;
-        }
-        for (Connection c : connections) {
-            boolean found = false;
-            long timestamp = c.getCreateTime();
-            for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-                if (clccUsed[i] && timestamp == mClccTimestamps[i]) {
-                    log("mClccUsed is true for: " + i);
-                    mClccUsed[i] = true;
-                    found = true;
-                    clccConnections[i] = c;
-                    break;
-                }
-            }
-            if (!found) {
-                log("add new conns");
-                newConnections.add(c);
-            }
-        }
-        // Find a CLCC index for new connections
-        while (!newConnections.isEmpty()) {
-            // Find lowest empty index
-            int i = 0;
-            while (mClccUsed[i]) i++;
-            // Find earliest connection
-            long earliestTimestamp = newConnections.get(0).getCreateTime();
-            Connection earliestConnection = newConnections.get(0);
-            for (int j = 0; j < newConnections.size(); j++) {
-                long timestamp = newConnections.get(j).getCreateTime();
-                if (timestamp < earliestTimestamp) {
-                    earliestTimestamp = timestamp;
-                    earliestConnection = newConnections.get(j);
-                }
-            }
-            // update
-            mClccUsed[i] = true;
-            mClccTimestamps[i] = earliestTimestamp;
-            clccConnections[i] = earliestConnection;
-            newConnections.remove(earliestConnection);
-        }
+        mClccSnapshot.assign(connections);
+        connections.clear();
         // Send CLCC response to Bluetooth headset service
-        for (int i = 0; i < clccConnections.length; i++) {
-            if (mClccUsed[i]) {
+        for (int i = 0; i < BluetoothCallSnapshot.MAX_CONNECTIONS; i++) {
+            if (mClccSnapshot.isUsed(i)) {
                 log("Send CLCC for Connection index: " + i);
-                sendClccResponse(i, clccConnections[i], allowDsda);
+                sendClccResponse(i, mClccSnapshot.getConnection(i), allowDsda);
             }
         }
     }
@@ -50,7 +50,7 @@ import com.android.internal.telephony.PhoneBase;
 
 
 import java.io.IOException;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -100,12 +100,19 @@ public class BluetoothPhoneService extends Service {
     private boolean mCdmaIsSecondCallActive = false;
     private boolean mCdmaCallsSwapped = false;
 
-    private long[] mClccTimestamps; // Timestamps associated with each clcc index
-    private boolean[] mClccUsed;     // Is this clcc index in use
+    // GSM +CLCC responses, rebuilt on the first poll after a call state change.
+    private final BluetoothCallSnapshot mClccSnapshot = new BluetoothCallSnapshot();
+    private final ArrayList<Connection> mClccConnections =
+            new ArrayList<Connection>(BluetoothCallSnapshot.MAX_CONNECTIONS);
 
-    private static final int GSM_MAX_CONNECTIONS = 6;  // Max connections allowed by GSM
     private static final int CDMA_MAX_CONNECTIONS = 2;  // Max connections allowed by CDMA
 
+    // Precise call state changes arriving within this window of the first one are handled
+    // together, so e.g. a conference merge or split reaches the headset as a single
+    // phoneStateChanged() instead of one per intermediate state.
+    private static final int CALL_STATE_COALESCE_WINDOW = 80; // ms
+    private Connection mPendingConnection;
+
     @Override
     public void onCreate() {
         super.onCreate();
@@ -163,11 +170,6 @@ public class BluetoothPhoneService extends Service {
                       PHONE_ACTIVE_SUBSCRIPTION_CHANGE, null);
         // TODO(BT) registerForIncomingRing?
         // TODO(BT) registerdisconnection?
-        mClccTimestamps = new long[GSM_MAX_CONNECTIONS];
-        mClccUsed = new boolean[GSM_MAX_CONNECTIONS];
-        for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-            mClccUsed[i] = false;
-        }
     }
 
     @Override
@@ -198,6 +200,7 @@ public class BluetoothPhoneService extends Service {
     private static final int CDMA_SWAP_SECOND_CALL_STATE = 6;
     private static final int CDMA_SET_SECOND_CALL_STATE = 7;
     private static final int PHONE_ACTIVE_SUBSCRIPTION_CHANGE = 8;
+    private static final int UPDATE_CALL_STATE = 9;
 
     private Handler mHandler = new Handler() {
         @Override
@@ -221,8 +224,13 @@ public class BluetoothPhoneService extends Service {
                             log("SUB on which it happned: " + subscription);
                             mBluetoothDsda.setCurrentSub(subscription);
                         } else log("No PhoneBase object found");
+                        handlePreciseCallStateChange(connection);
+                    } else {
+                        scheduleCallStateUpdate(connection);
                     }
-                    handlePreciseCallStateChange(connection);
+                    break;
+                case UPDATE_CALL_STATE:
+                    flushCallStateUpdate();
                     break;
                 case PHONE_CDMA_CALL_WAITING:
                     Connection conn = null;
@@ -236,6 +244,8 @@ public class BluetoothPhoneService extends Service {
                         if (((AsyncResult) msg.obj).result instanceof Connection) {
                             conn = (Connection) ((AsyncResult) msg.obj).result;
                         }
+                        // Report the call waiting right away, after anything pending.
+                        flushCallStateUpdate();
                     }
                     handlePreciseCallStateChange(conn);
                     break;
@@ -297,6 +307,34 @@ public class BluetoothPhoneService extends Service {
         }
     }
 
+    /**
+     * Handles a precise call state change once the coalescing window closes. The connection of
+     * the latest event that carried one is used.
+     */
+    private void scheduleCallStateUpdate(Connection connection) {
+        if (connection != null) {
+            mPendingConnection = connection;
+        }
+        if (!mHandler.hasMessages(UPDATE_CALL_STATE)) {
+            mHandler.sendEmptyMessageDelayed(UPDATE_CALL_STATE, CALL_STATE_COALESCE_WINDOW);
+        } else if (VDBG) {
+            log("coalescing precise call state change");
+        }
+    }
+
+    /**
+     * Handles the pending precise call state change now, if there is one, so that the headset
+     * is never answered from state older than the latest event.
+     */
+    private void flushCallStateUpdate() {
+        if (mHandler.hasMessages(UPDATE_CALL_STATE) || mPendingConnection != null) {
+            mHandler.removeMessages(UPDATE_CALL_STATE);
+            final Connection connection = mPendingConnection;
+            mPendingConnection = null;
+            handlePreciseCallStateChange(connection);
+        }
+    }
+
     private void handlePreciseCallStateChange(Connection connection) {
 
         //Check whether we support DSDA or not
@@ -308,6 +346,8 @@ public class BluetoothPhoneService extends Service {
         }
 
         //Regular Single SUB call handling
+        mClccSnapshot.invalidate();
+
         // get foreground call state
         int oldNumActive = mNumActive;
         int oldNumHeld = mNumHeld;
@@ -425,6 +465,7 @@ public class BluetoothPhoneService extends Service {
             mBluetoothDsda.handleListCurrentCalls();
             return;
         }
+        flushCallStateUpdate();
         Phone phone = mCM.getDefaultPhone();
         int phoneType = phone.getPhoneType();
 
@@ -447,6 +488,7 @@ public class BluetoothPhoneService extends Service {
             mBluetoothDsda.processQueryPhoneState();
             return;
         }
+        flushCallStateUpdate();
         if (mBluetoothHeadset != null) {
             mBluetoothHeadset.phoneStateChanged(mNumActive, mNumHeld,
                 convertCallState(mRingingCallState, mForegroundCallState),
@@ -549,97 +591,31 @@ public class BluetoothPhoneService extends Service {
     };
 
     private void listCurrentCallsGsm() {
-        // Collect all known connections
-        // clccConnections isindexed by CLCC index
-        Connection[] clccConnections = new Connection[GSM_MAX_CONNECTIONS];
-        LinkedList<Connection> newConnections = new LinkedList<Connection>();
-        LinkedList<Connection> connections = new LinkedList<Connection>();
-
-        Call foregroundCall = mCM.getActiveFgCall();
-        Call backgroundCall = mCM.getFirstActiveBgCall();
-        Call ringingCall = mCM.getFirstActiveRingingCall();
-
-        if (ringingCall.getState().isAlive()) {
-            connections.addAll(ringingCall.getConnections());
-        }
-        if (foregroundCall.getState().isAlive()) {
-            connections.addAll(foregroundCall.getConnections());
-        }
-        if (backgroundCall.getState().isAlive()) {
-            connections.addAll(backgroundCall.getConnections());
-        }
+        if (!mClccSnapshot.isCaptured()) {
+            // Collect all known connections
+            mClccConnections.clear();
+            Call foregroundCall = mCM.getActiveFgCall();
+            Call backgroundCall = mCM.getFirstActiveBgCall();
+            Call ringingCall = mCM.getFirstActiveRingingCall();
 
-        // Mark connections that we already known about
-        boolean clccUsed[] = new boolean[GSM_MAX_CONNECTIONS];
-        for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-            clccUsed[i] = mClccUsed[i];
-            mClccUsed[i] = false;
-        }
-        for (Connection c : connections) {
-            boolean found = false;
-            long timestamp = c.getCreateTime();
-            for (int i = 0; i < GSM_MAX_CONNECTIONS; i++) {
-                if (clccUsed[i] && timestamp == mClccTimestamps[i]) {
-                    mClccUsed[i] = true;
-                    found = true;
-                    clccConnections[i] = c;
-                    break;
-                }
+            if (ringingCall.getState().isAlive()) {
+                mClccConnections.addAll(ringingCall.getConnections());
             }
-            if (!found) {
-                newConnections.add(c);
+            if (foregroundCall.getState().isAlive()) {
+                mClccConnections.addAll(foregroundCall.getConnections());
             }
-        }
-
-        // Find a CLCC index for new connections
-        while (!newConnections.isEmpty()) {
-            // Find lowest empty index
-            int i = 0;
-            while (mClccUsed[i]) i++;
-            // Find earliest connection
-            long earliestTimestamp = newConnections.get(0).getCreateTime();
-            Connection earliestConnection = newConnections.get(0);
-            for (int j = 0; j < newConnections.size(); j++) {
-                long timestamp = newConnections.get(j).getCreateTime();
-                if (timestamp < earliestTimestamp) {
-                    earliestTimestamp = timestamp;
-                    earliestConnection = newConnections.get(j);
-                }
+            if (backgroundCall.getState().isAlive()) {
+                mClccConnections.addAll(backgroundCall.getConnections());
             }
-
-            // update
-            mClccUsed[i] = true;
-            mClccTimestamps[i] = earliestTimestamp;
-            clccConnections[i] = earliestConnection;
-            newConnections.remove(earliestConnection);
+            mClccSnapshot.assign(mClccConnections);
+            mClccSnapshot.capture();
+            mClccConnections.clear();
+        } else if (VDBG) {
+            log("listCurrentCallsGsm: no call state change since the last poll");
         }
 
         // Send CLCC response to Bluetooth headset service
-        for (int i = 0; i < clccConnections.length; i++) {
-            if (mClccUsed[i]) {
-                sendClccResponseGsm(i, clccConnections[i]);
-            }
-        }
-    }
-
-    /** Convert a Connection object into a single +CLCC result */
-    private void sendClccResponseGsm(int index, Connection connection) {
-        int state = convertCallState(connection.getState());
-        boolean mpty = false;
-        Call call = connection.getCall();
-        if (call != null) {
-            mpty = call.isMultiparty();
-        }
-
-        int direction = connection.isIncoming() ? 1 : 0;
-
-        String number = connection.getAddress();
-        int type = -1;
-        if (number != null) {
-            type = PhoneNumberUtils.toaFromString(number);
-        }
-
-        mBluetoothHeadset.clccResponse(index + 1, direction, state, 0, mpty, number, type);
+        mClccSnapshot.send(mBluetoothHeadset);
     }
 
     /** Build the +CLCC result for CDMA
@@ -142,6 +142,9 @@ public class CallCard extends LinearLayout
      */
     private Uri mLoadingPersonUri;
 
+    /** Pending load for {@link #mLoadingPersonUri}, cancelled when another person shows up. */
+    private ContactsAsyncHelper.Request mLoadingPersonRequest;
+
     // Info about the "secondary" call, which is the "call on hold" when
     // two lines are in use.
     private TextView mSecondaryCallName;
@@ -951,6 +954,7 @@ public class CallCard extends LinearLayout
             Log.w(LOG_TAG, "Person Uri isn't available while Image is successfully loaded.");
         }
         mLoadingPersonUri = null;
+        mLoadingPersonRequest = null;
 
         AsyncLoadCookie asyncLoadCookie = (AsyncLoadCookie) cookie;
         CallerInfo callerInfo = asyncLoadCookie.callerInfo;
@@ -1593,10 +1597,16 @@ public class CallCard extends LinearLayout
                 mPhoto.setTag(null);
                 // Show empty screen for a moment.
                 mPhoto.setVisibility(View.INVISIBLE);
+                // The photo of the previous person (if still loading) isn't wanted anymore.
+                if (mLoadingPersonRequest != null) {
+                    mLoadingPersonRequest.cancel();
+                }
                 // Load the image with a callback to update the image state.
                 // When the load is finished, onImageLoadComplete() will be called.
-                ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_UPDATE_PHOTO_FOR_CALL_STATE,
-                        getContext(), personUri, this, new AsyncLoadCookie(mPhoto, info, call));
+                mLoadingPersonRequest = ContactsAsyncHelper.startObtainPhotoAsync(
+                        TOKEN_UPDATE_PHOTO_FOR_CALL_STATE, getContext(), personUri, this,
+                        new AsyncLoadCookie(mPhoto, info, call),
+                        ContactsAsyncHelper.PRIORITY_FOREGROUND);
 
                 // If the image load is too slow, we show a default avatar icon afterward.
                 // If it is fast enough, this message will be canceled on onImageLoadComplete().
@@ -1844,9 +1854,11 @@ public class CallCard extends LinearLayout
                                 mPhoto.setTag(null);
                                 // Make it invisible for a moment
                                 mPhoto.setVisibility(View.INVISIBLE);
-                                ContactsAsyncHelper.startObtainPhotoAsync(TOKEN_DO_NOTHING,
-                                        getContext(), photoUri, this,
-                                        new AsyncLoadCookie(mPhoto, ci, null));
+                                mPhotoTracker.setPendingRequest(
+                                        ContactsAsyncHelper.startObtainPhotoAsync(
+                                                TOKEN_DO_NOTHING, getContext(), photoUri, this,
+                                                new AsyncLoadCookie(mPhoto, ci, null),
+                                                ContactsAsyncHelper.PRIORITY_FOREGROUND));
                             }
                             mPhotoTracker.setPhotoState(
                                     ContactsAsyncHelper.ImageTracker.DISPLAY_IMAGE);
@@ -192,6 +192,7 @@ public class CallController extends Handler {
      */
     public void placeCall(Intent intent) {
         log("placeCall()...  intent = " + intent);
+        CallTracer.event(CallTracer.MO_CALL_CONTROLLER_PLACE_CALL);
         if (VDBG) log("                extras = " + intent.getExtras());
 
         final InCallUiState inCallUiState = mApp.inCallUiState;
@@ -413,9 +414,9 @@ public class CallController extends Handler {
         // (This is just a sanity-check; this policy *should* really be
         // enforced in OutgoingCallBroadcaster.onCreate(), which is the
         // main entry point for the CALL and CALL_* intents.)
-        boolean isEmergencyNumber = PhoneNumberUtils.isLocalEmergencyNumber(number, mApp);
-        boolean isPotentialEmergencyNumber =
-                PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, mApp);
+        final int emergency = mApp.emergencyNumberClassifier.classify(number);
+        boolean isEmergencyNumber = emergency == EmergencyNumberClassifier.EXACT;
+        boolean isPotentialEmergencyNumber = emergency != EmergencyNumberClassifier.NOT_EMERGENCY;
         boolean isEmergencyIntent = Intent.ACTION_CALL_EMERGENCY.equals(intent.getAction());
 
         if (isPotentialEmergencyNumber && !isEmergencyIntent) {
@@ -227,6 +227,7 @@ public class CallFeaturesSetting extends PreferenceActivity
     private static final int VOICEMAIL_PROVIDER_CFG_ID = 2;
 
     private Phone mPhone;
+    private SuppServiceCache mSuppServiceCache;
 
     private AudioManager mAudioManager;
     private SipManager mSipManager;
@@ -766,7 +767,7 @@ public class CallFeaturesSetting extends PreferenceActivity
                             AsyncResult result = results.get(fi.reason);
                             if (result != null && result.exception == null) {
                                 mExpectedChangeResultReasons.add(fi.reason);
-                                mPhone.setCallForwardingOption(
+                                mSuppServiceCache.setCallForwardingOption(mPhone,
                                         (fi.status == 1 ?
                                                 CommandsInterface.CF_ACTION_REGISTRATION :
                                                 CommandsInterface.CF_ACTION_DISABLE),
@@ -980,7 +981,8 @@ public class CallFeaturesSetting extends PreferenceActivity
             mForwardingReadResults = new CallForwardInfo[FORWARDING_SETTINGS_REASONS.length];
             for (int i = 0; i < FORWARDING_SETTINGS_REASONS.length; i++) {
                 mForwardingReadResults[i] = null;
-                mPhone.getCallForwardingOption(FORWARDING_SETTINGS_REASONS[i],
+                mSuppServiceCache.getCallForwardingOption(mPhone,
+                        FORWARDING_SETTINGS_REASONS[i],
                         mGetOptionComplete.obtainMessage(EVENT_FORWARDING_GET_COMPLETED, i, 0));
             }
             showDialogIfForeground(VOICEMAIL_FWD_READING_DIALOG);
@@ -1129,7 +1131,7 @@ public class CallFeaturesSetting extends PreferenceActivity
                     if (DBG) log("Setting fwd #: " + i + ": " + fi.toString());
                     mExpectedChangeResultReasons.add(i);
 
-                    mPhone.setCallForwardingOption(
+                    mSuppServiceCache.setCallForwardingOption(mPhone,
                             fi.status == 1 ?
                                     CommandsInterface.CF_ACTION_REGISTRATION :
                                     CommandsInterface.CF_ACTION_DISABLE,
@@ -1564,6 +1566,7 @@ public class CallFeaturesSetting extends PreferenceActivity
         super.onCreate(icicle);
         if (DBG) log("onCreate(). Intent: " + getIntent());
         mPhone = PhoneGlobals.getPhone();
+        mSuppServiceCache = PhoneGlobals.getInstance().suppServiceCache;
 
         addPreferencesFromResource(R.xml.call_feature_setting);
 
@@ -37,6 +37,7 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
     private MyHandler mHandler = new MyHandler();
     int reason;
     Phone phone;
+    private SuppServiceCache mSuppServiceCache;
     CallForwardInfo callForwardInfo;
     TimeConsumingPreferenceListener tcpListener;
 
@@ -66,10 +67,11 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
         // getting selected subscription
         if (DBG) Log.d(LOG_TAG, "Getting CallForwardEditPreference subscription =" + subscription);
         phone = PhoneGlobals.getInstance().getPhone(subscription);
+        mSuppServiceCache = PhoneGlobals.getInstance().suppServiceCache;
 
         tcpListener = listener;
         if (!skipReading) {
-            phone.getCallForwardingOption(reason,
+            mSuppServiceCache.getCallForwardingOption(phone, reason,
                     mHandler.obtainMessage(MyHandler.MESSAGE_GET_CF,
                             // unused in this case
                             CommandsInterface.CF_ACTION_DISABLE,
@@ -127,7 +129,7 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
 
                 // the interface of Phone.setCallForwardingOption has error:
                 // should be action, reason...
-                phone.setCallForwardingOption(action,
+                mSuppServiceCache.setCallForwardingOption(phone, action,
                         reason,
                         number,
                         time,
@@ -263,7 +265,7 @@ public class CallForwardEditPreference extends EditPhoneNumberPreference {
                 // setEnabled(false);
             }
             if (DBG) Log.d(LOG_TAG, "handleSetCFResponse: re get");
-            phone.getCallForwardingOption(reason,
+            mSuppServiceCache.getCallForwardingOption(phone, reason,
                     obtainMessage(MESSAGE_GET_CF, msg.arg1, MESSAGE_SET_CF, ar.exception));
         }
     }
@@ -0,0 +1,465 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.provider.CallLog.Calls;
+import android.provider.ContactsContract.CommonDataKinds.Callable;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.provider.ContactsContract.DataUsageFeedback;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.CallerInfo;
+import com.android.internal.telephony.PhoneConstants;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Write-behind queue for call log entries.
+ *
+ * Entries are collected for a short window (or until {@link #MAX_BATCH_SIZE} of them are
+ * pending) and then written with a single bulkInsert(), followed by one data usage update and
+ * one trim of expired entries, instead of one provider round trip each. Until it is committed,
+ * every entry is also kept in a small append-only journal that is replayed at startup, so
+ * entries survive the process being killed.
+ *
+ * Rows are built the way {@link Calls#addCall} builds them; the provider fills in the
+ * computed columns (country, geocoded location, normalized number).
+ */
+/* package */ final class CallLogWriter {
+    private static final String LOG_TAG = CallLogWriter.class.getSimpleName();
+    private static final boolean DBG = (PhoneGlobals.DBG_LEVEL >= 1) &&
+        (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    /** How long to wait for more entries before committing. */
+    private static final int COALESCE_WINDOW = 1000; // ms
+    /** Commit right away once this many entries are pending. */
+    private static final int MAX_BATCH_SIZE = 50;
+    /** Delay before retrying a failed commit. */
+    private static final int RETRY_DELAY = 5000; // ms
+
+    /** Same limit Calls.addCall() trims the call log to. */
+    private static final int MAX_CALL_LOG_SIZE = 500;
+
+    private static final String JOURNAL_NAME = "calllog_journal";
+    private static final int JOURNAL_VERSION = 1;
+
+    private static final int MSG_ENQUEUE = 1;
+    private static final int MSG_COMMIT = 2;
+    private static final int MSG_REPLAY = 3;
+
+    /** The singleton instance. */
+    private static CallLogWriter sInstance;
+
+    /**
+     * One call log row, reduced to what's needed to write it, so that it can be journaled.
+     */
+    /* package */ static final class Entry {
+        final String number;
+        final int presentation;
+        final int callType;
+        final long date;
+        final long durationSeconds;
+        final String cachedName;
+        final int cachedNumberType;
+        final String cachedNumberLabel;
+        final long contactId;
+        final String normalizedNumber;
+        final String contactNumber;
+
+        private Entry(String number, int presentation, int callType, long date,
+                long durationSeconds, String cachedName, int cachedNumberType,
+                String cachedNumberLabel, long contactId, String normalizedNumber,
+                String contactNumber) {
+            this.number = number;
+            this.presentation = presentation;
+            this.callType = callType;
+            this.date = date;
+            this.durationSeconds = durationSeconds;
+            this.cachedName = cachedName;
+            this.cachedNumberType = cachedNumberType;
+            this.cachedNumberLabel = cachedNumberLabel;
+            this.contactId = contactId;
+            this.normalizedNumber = normalizedNumber;
+            this.contactNumber = contactNumber;
+        }
+
+        /**
+         * Mirrors the presentation handling of {@link Calls#addCall}.
+         */
+        static Entry create(CallerInfo ci, String number, int presentation, int callType,
+                long start, long durationMillis) {
+            int numberPresentation = Calls.PRESENTATION_ALLOWED;
+            if (presentation == PhoneConstants.PRESENTATION_RESTRICTED) {
+                numberPresentation = Calls.PRESENTATION_RESTRICTED;
+            } else if (presentation == PhoneConstants.PRESENTATION_PAYPHONE) {
+                numberPresentation = Calls.PRESENTATION_PAYPHONE;
+            } else if (TextUtils.isEmpty(number)
+                    || presentation == PhoneConstants.PRESENTATION_UNKNOWN) {
+                numberPresentation = Calls.PRESENTATION_UNKNOWN;
+            }
+            if (numberPresentation != Calls.PRESENTATION_ALLOWED) {
+                number = "";
+                ci = null;
+            }
+            return new Entry(number, numberPresentation, callType, start, durationMillis / 1000,
+                    ci != null ? ci.name : null, ci != null ? ci.numberType : 0,
+                    ci != null ? ci.numberLabel : null, ci != null ? ci.person_id : 0,
+                    ci != null ? ci.normalizedNumber : null,
+                    ci != null && ci.phoneNumber != null ? ci.phoneNumber : number);
+        }
+
+        ContentValues toContentValues() {
+            final ContentValues values = new ContentValues(9);
+            values.put(Calls.NUMBER, number);
+            values.put(Calls.NUMBER_PRESENTATION, presentation);
+            values.put(Calls.TYPE, callType);
+            values.put(Calls.DATE, date);
+            values.put(Calls.DURATION, durationSeconds);
+            values.put(Calls.NEW, 1);
+            if (callType == Calls.MISSED_TYPE) {
+                values.put(Calls.IS_READ, 0);
+            }
+            if (cachedName != null || cachedNumberLabel != null || contactId > 0) {
+                values.put(Calls.CACHED_NAME, cachedName);
+                values.put(Calls.CACHED_NUMBER_TYPE, cachedNumberType);
+                values.put(Calls.CACHED_NUMBER_LABEL, cachedNumberLabel);
+            }
+            return values;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            writeString(out, number);
+            out.writeInt(presentation);
+            out.writeInt(callType);
+            out.writeLong(date);
+            out.writeLong(durationSeconds);
+            writeString(out, cachedName);
+            out.writeInt(cachedNumberType);
+            writeString(out, cachedNumberLabel);
+            out.writeLong(contactId);
+            writeString(out, normalizedNumber);
+            writeString(out, contactNumber);
+        }
+
+        static Entry readFrom(DataInputStream in) throws IOException {
+            return new Entry(readString(in), in.readInt(), in.readInt(), in.readLong(),
+                    in.readLong(), readString(in), in.readInt(), readString(in), in.readLong(),
+                    readString(in), readString(in));
+        }
+
+        private static void writeString(DataOutputStream out, String s) throws IOException {
+            out.writeBoolean(s != null);
+            if (s != null) {
+                out.writeUTF(s);
+            }
+        }
+
+        private static String readString(DataInputStream in) throws IOException {
+            return in.readBoolean() ? in.readUTF() : null;
+        }
+    }
+
+    private final Context mContext;
+    private final File mJournal;
+    private final Handler mHandler;
+
+    // Only touched on the writer thread.
+    private final ArrayList<Entry> mPending = new ArrayList<Entry>();
+
+    // Metrics. Written on the writer thread only, read by dump() on a binder thread.
+    private final LatencyHistogram mCommitLatency = new LatencyHistogram("commit latency");
+    private volatile int mCommits;
+    private volatile int mCommittedEntries;
+    private volatile int mMaxBatchSize;
+    private volatile int mFailedCommits;
+    private volatile int mReplayedEntries;
+
+    /* package */ static CallLogWriter init(Context context) {
+        synchronized (CallLogWriter.class) {
+            if (sInstance == null) {
+                sInstance = new CallLogWriter(context);
+            } else {
+                Log.wtf(LOG_TAG, "init() called multiple times!  sInstance = " + sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    private CallLogWriter(Context context) {
+        mContext = context;
+        mJournal = new File(context.getFilesDir(), JOURNAL_NAME);
+
+        final HandlerThread thread =
+                new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_ENQUEUE:
+                        onEnqueue((Entry) msg.obj);
+                        break;
+                    case MSG_COMMIT:
+                        commit();
+                        break;
+                    case MSG_REPLAY:
+                        replayJournal();
+                        break;
+                }
+            }
+        };
+        mHandler.sendEmptyMessage(MSG_REPLAY);
+    }
+
+    /**
+     * Queues an entry for the call log. Safe to call from any thread.
+     */
+    public void addCall(Entry entry) {
+        mHandler.obtainMessage(MSG_ENQUEUE, entry).sendToTarget();
+    }
+
+    private void onEnqueue(Entry entry) {
+        appendToJournal(entry);
+        mPending.add(entry);
+        if (mPending.size() >= MAX_BATCH_SIZE) {
+            mHandler.removeMessages(MSG_COMMIT);
+            commit();
+        } else if (!mHandler.hasMessages(MSG_COMMIT)) {
+            mHandler.sendEmptyMessageDelayed(MSG_COMMIT, COALESCE_WINDOW);
+        }
+    }
+
+    private void commit() {
+        if (mPending.isEmpty()) {
+            return;
+        }
+        final long start = SystemClock.elapsedRealtime();
+        final int size = mPending.size();
+        final ContentValues[] values = new ContentValues[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = mPending.get(i).toContentValues();
+        }
+
+        final ContentResolver resolver = mContext.getContentResolver();
+        try {
+            resolver.bulkInsert(Calls.CONTENT_URI, values);
+        } catch (RuntimeException e) {
+            // Provider not up yet or gone; keep the entries (and the journal) and try again.
+            Log.w(LOG_TAG, "Failed to write " + size + " call log entries, retrying", e);
+            mFailedCommits++;
+            mHandler.sendEmptyMessageDelayed(MSG_COMMIT, RETRY_DELAY);
+            return;
+        }
+
+        // Everything pending is in the journal and now also in the provider.
+        mJournal.delete();
+        final ArrayList<Entry> committed = new ArrayList<Entry>(mPending);
+        mPending.clear();
+
+        try {
+            updateDataUsage(resolver, committed);
+            removeExpiredEntries(resolver);
+        } catch (RuntimeException e) {
+            Log.w(LOG_TAG, "Failed to update data usage or trim the call log", e);
+        }
+
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        mCommitLatency.record(elapsed);
+        mCommits++;
+        mCommittedEntries += size;
+        mMaxBatchSize = Math.max(mMaxBatchSize, size);
+        if (DBG) log("committed " + size + " entries in " + elapsed + "ms");
+    }
+
+    /**
+     * Tells the contacts provider that the numbers of known contacts were called, like
+     * {@link Calls#addCall} does, with one feedback update for the whole batch.
+     */
+    private static void updateDataUsage(ContentResolver resolver, ArrayList<Entry> entries) {
+        final StringBuilder dataIds = new StringBuilder();
+        for (Entry entry : entries) {
+            if (entry.contactId <= 0) {
+                continue;
+            }
+            final Cursor cursor;
+            if (entry.normalizedNumber != null) {
+                cursor = resolver.query(Phone.CONTENT_URI, new String[] { Phone._ID },
+                        Phone.CONTACT_ID + " =? AND " + Phone.NORMALIZED_NUMBER + " =?",
+                        new String[] { String.valueOf(entry.contactId), entry.normalizedNumber },
+                        null);
+            } else if (!TextUtils.isEmpty(entry.contactNumber)) {
+                cursor = resolver.query(Uri.withAppendedPath(Callable.CONTENT_FILTER_URI,
+                        Uri.encode(entry.contactNumber)), new String[] { Phone._ID },
+                        Phone.CONTACT_ID + " =?", new String[] { String.valueOf(entry.contactId) },
+                        null);
+            } else {
+                continue;
+            }
+            if (cursor == null) {
+                continue;
+            }
+            try {
+                if (cursor.moveToFirst()) {
+                    if (dataIds.length() > 0) {
+                        dataIds.append(',');
+                    }
+                    dataIds.append(cursor.getLong(0));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (dataIds.length() == 0) {
+            return;
+        }
+        final Uri feedbackUri = DataUsageFeedback.FEEDBACK_URI.buildUpon()
+                .appendPath(dataIds.toString())
+                .appendQueryParameter(DataUsageFeedback.USAGE_TYPE,
+                        DataUsageFeedback.USAGE_TYPE_CALL)
+                .build();
+        resolver.update(feedbackUri, new ContentValues(), null, null);
+    }
+
+    private static void removeExpiredEntries(ContentResolver resolver) {
+        resolver.delete(Calls.CONTENT_URI, "_id IN "
+                + "(SELECT _id FROM calls ORDER BY " + Calls.DEFAULT_SORT_ORDER
+                + " LIMIT -1 OFFSET " + MAX_CALL_LOG_SIZE + ")", null);
+    }
+
+    private void appendToJournal(Entry entry) {
+        DataOutputStream out = null;
+        try {
+            final boolean isNew = !mJournal.exists();
+            out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mJournal, true)));
+            if (isNew) {
+                out.writeInt(JOURNAL_VERSION);
+            }
+            entry.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to journal call log entry", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-queues entries journaled by a previous process that never got committed. A crash
+     * between the commit and the journal removal would replay committed entries, so entries
+     * already in the call log are skipped.
+     */
+    private void replayJournal() {
+        if (!mJournal.exists()) {
+            return;
+        }
+        final ArrayList<Entry> entries = new ArrayList<Entry>();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mJournal)));
+            if (in.readInt() == JOURNAL_VERSION) {
+                while (true) {
+                    entries.add(Entry.readFrom(in));
+                }
+            }
+        } catch (EOFException e) {
+            // End of the journal, or a record cut short by the process dying.
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to read call log journal", e);
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        mJournal.delete();
+
+        final ContentResolver resolver = mContext.getContentResolver();
+        for (Entry entry : entries) {
+            if (!isLogged(resolver, entry)) {
+                onEnqueue(entry);
+                mReplayedEntries++;
+            }
+        }
+        if (DBG) log("replayed " + mReplayedEntries + " of " + entries.size() + " entries");
+    }
+
+    private static boolean isLogged(ContentResolver resolver, Entry entry) {
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(Calls.CONTENT_URI, new String[] { Calls._ID },
+                    Calls.DATE + " =? AND " + Calls.NUMBER + " =? AND " + Calls.TYPE + " =?",
+                    new String[] { String.valueOf(entry.date), entry.number,
+                            String.valueOf(entry.callType) },
+                    null);
+            return cursor != null && cursor.getCount() > 0;
+        } catch (RuntimeException e) {
+            // Can't tell; logging twice beats losing the entry.
+            return false;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /* package */ void dump(PrintWriter pw) {
+        pw.println("CallLogWriter:");
+        final int commits = mCommits;
+        final int entries = mCommittedEntries;
+        pw.println("  commits=" + commits + " entries=" + entries
+                + " avgBatch=" + (commits > 0 ? entries / commits : 0)
+                + " maxBatch=" + mMaxBatchSize + " failedCommits=" + mFailedCommits
+                + " replayed=" + mReplayedEntries);
+        mCommitLatency.dump(pw, "  ");
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
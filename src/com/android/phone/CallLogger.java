@@ -21,7 +21,6 @@ import com.android.internal.telephony.Connection;
 import com.android.internal.telephony.Phone;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.TelephonyCapabilities;
-import com.android.phone.common.CallLogAsync;
 
 import android.net.Uri;
 import android.os.SystemProperties;
@@ -40,11 +39,12 @@ class CallLogger {
     private static final boolean VDBG = (PhoneGlobals.DBG_LEVEL >= 2);
 
     private PhoneGlobals mApplication;
-    private CallLogAsync mCallLog;
+    // Write-behind queue which batches the inserts.
+    private CallLogWriter mCallLogWriter;
 
-    public CallLogger(PhoneGlobals application, CallLogAsync callLogAsync) {
+    public CallLogger(PhoneGlobals application) {
         mApplication = application;
-        mCallLog = callLogAsync;
+        mCallLogWriter = application.callLogWriter;
     }
 
     /**
@@ -116,8 +116,8 @@ class CallLogger {
      */
     public void logCall(CallerInfo ci, String number, int presentation, int callType, long start,
                         long duration) {
-        final boolean isEmergencyNumber = PhoneNumberUtils.isLocalEmergencyNumber(number,
-                mApplication);
+        final boolean isEmergencyNumber =
+                mApplication.emergencyNumberClassifier.isEmergencyNumber(number);
 
         // On some devices, to avoid accidental redialing of
         // emergency numbers, we *never* log emergency calls to
@@ -136,9 +136,8 @@ class CallLogger {
                     + "," + presentation + ", " + callType + ", " + start + ", " + duration);
             }
 
-            CallLogAsync.AddCallArgs args = new CallLogAsync.AddCallArgs(mApplication, ci, number,
-                    presentation, callType, start, duration);
-            mCallLog.addCall(args);
+            mCallLogWriter.addCall(CallLogWriter.Entry.create(ci, number, presentation,
+                    callType, start, duration));
         }
     }
 
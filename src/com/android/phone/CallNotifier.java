@@ -54,9 +54,8 @@ import android.os.AsyncResult;
 import android.os.Handler;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.SystemProperties;
-import android.os.SystemVibrator;
-import android.os.Vibrator;
 import android.provider.CallLog.Calls;
 import android.provider.Settings;
 import android.telephony.PhoneNumberUtils;
@@ -67,6 +66,7 @@ import android.util.EventLog;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.PrintWriter;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -139,6 +139,17 @@ public class CallNotifier extends Handler
     // Event used to indicate a query timeout.
     private static final int RINGER_CUSTOM_RINGTONE_QUERY_TIMEOUT = 100;
 
+    // Whether startIncomingCallQuery() starts preparing the custom ringtone found in
+    // CallerInfoCache while the CallerInfo query is running.
+    private static final boolean ENABLE_CALLER_INFO_CACHE_FAST_PATH = true;
+
+    // Time from the incoming connection to the first ringtone audio, for every call that
+    // went through startIncomingCallQuery().
+    protected final LatencyHistogram mRingLatency =
+            new LatencyHistogram("MT connection to first audio");
+    // Number of those calls whose custom ringtone was prepared from CallerInfoCache.
+    protected volatile int mCachePreparedRingtones;
+
     // Events from the Phone object:
     private static final int PHONE_STATE_CHANGED = 1;
     private static final int PHONE_NEW_RINGING_CONNECTION = 2;
@@ -203,7 +214,6 @@ public class CallNotifier extends Handler
 
     // Cached system services
     private AudioManager mAudioManager;
-    private Vibrator mVibrator;
 
     // Blacklist handling
     private static final String BLACKLIST = "Blacklist";
@@ -234,7 +244,6 @@ public class CallNotifier extends Handler
         mWaitingCalls = new HashSet<Connection>();
 
         mAudioManager = (AudioManager) mApplication.getSystemService(Context.AUDIO_SERVICE);
-        mVibrator = (Vibrator) mApplication.getSystemService(Context.VIBRATOR_SERVICE);
 
         registerForNotifications();
 
@@ -445,6 +454,7 @@ public class CallNotifier extends Handler
 
         @Override
         public void onCallForwardingIndicatorChanged(boolean cfi) {
+            mApplication.suppServiceCache.invalidate(mApplication.phone.getSubscription());
             onCfiChanged(cfi);
         }
     };
@@ -453,6 +463,7 @@ public class CallNotifier extends Handler
      * Handles a "new ringing connection" event from the telephony layer.
      */
     protected void onNewRingingConnection(AsyncResult r) {
+        CallTracer.beginIncomingCall();
         Connection c = (Connection) r.result;
         log("onNewRingingConnection(): state = " + mCM.getState() + ", conn = { " + c + " }");
         Call ringing = c.getCall();
@@ -484,7 +495,11 @@ public class CallNotifier extends Handler
         if (DBG) log("Incoming number is: " + number);
         // See if the number is in the blacklist
         // Result is one of: MATCH_NONE, MATCH_LIST or MATCH_REGEX
-        int listType = BlacklistUtils.isListed(mApplication, number, BlacklistUtils.BLOCK_CALLS);
+        final BlacklistEngine blacklist = mApplication.blacklistEngine;
+        int listType = blacklist != null
+                ? blacklist.isListed(number, BlacklistUtils.BLOCK_CALLS)
+                : BlacklistUtils.isListed(mApplication, number, BlacklistUtils.BLOCK_CALLS);
+        CallTracer.event(CallTracer.MT_BLACKLIST_CHECKED);
         if (listType != BlacklistUtils.MATCH_NONE) {
             // We have a match, set the user and hang up the call and notify
             if (DBG) log("Incoming call from " + number + " blocked.");
@@ -647,14 +662,9 @@ public class CallNotifier extends Handler
      * Helper method to manage the start of incoming call queries
      */
     protected void startIncomingCallQuery(Connection c) {
-        // TODO: cache the custom ringer object so that subsequent
-        // calls will not need to do this query work.  We can keep
-        // the MRU ringtones in memory.  We'll still need to hit
-        // the database to get the callerinfo to act as a key,
-        // but at least we can save the time required for the
-        // Media player setup.  The only issue with this is that
-        // we may need to keep an eye on the resources the Media
-        // player uses to keep these ringtones around.
+        // The Ringer keeps the MRU ringtones prepared (see Ringer#prepareRingtone()), and
+        // CallerInfoCache tells it which custom ringtones are worth preparing, so the
+        // Media player setup is usually done before the call arrives.
 
         // make sure we're in a state where we can be ready to
         // query a ringtone uri.
@@ -666,9 +676,15 @@ public class CallNotifier extends Handler
             }
         }
         if (shouldStartQuery) {
+            CallTracer.event(CallTracer.MT_CALLER_INFO_QUERY_START);
             // Reset the ringtone to the default first.
             mRinger.setCustomRingtoneUri(Settings.System.DEFAULT_RINGTONE_URI);
 
+            mRinger.markIncomingConnection(getConnectionElapsedTime(c), mRingLatency);
+            if (ENABLE_CALLER_INFO_CACHE_FAST_PATH) {
+                prepareRingtoneFromCache(c);
+            }
+
             // query the callerinfo to try to get the ringer.
             PhoneUtils.CallerInfoToken cit = PhoneUtils.startGetCallerInfo(
                     mApplication, c, this, this);
@@ -706,6 +722,45 @@ public class CallNotifier extends Handler
         }
     }
 
+    /**
+     * Looks up {@link CallerInfoCache} synchronously and, if the caller has a custom ringtone,
+     * starts preparing it so that the Media player setup overlaps the CallerInfo query.
+     *
+     * This doesn't decide anything: the cache is keyed by the last digits of the number and
+     * may be stale, so the ringtone actually used and "send to voicemail" are still up to
+     * the query result (or {@link #onCustomRingtoneQueryTimeout}).
+     */
+    private void prepareRingtoneFromCache(Connection c) {
+        final CallerInfoCache cache = mApplication.callerInfoCache;
+        final String number = c.getAddress();
+        if (cache == null || TextUtils.isEmpty(number)) {
+            return;
+        }
+        final CallerInfoCache.CacheEntry entry = cache.getCacheEntry(number);
+        if (entry == null || entry.sendToVoicemail || entry.customRingtone == null) {
+            return;
+        }
+
+        if (DBG) log("custom ringtone found (in cache), preparing it ahead of the query.");
+        // No-op if already prepared; otherwise starts the Media player setup on the ring
+        // thread right away.
+        mRinger.prepareRingtone(Uri.parse(entry.customRingtone));
+        mCachePreparedRingtones++;
+    }
+
+    /**
+     * @return the creation time of the connection on the elapsedRealtime() time base.
+     */
+    private static long getConnectionElapsedTime(Connection c) {
+        final long age = System.currentTimeMillis() - c.getCreateTime();
+        return SystemClock.elapsedRealtime() - Math.max(age, 0);
+    }
+
+    /* package */ void dump(PrintWriter pw) {
+        pw.println("CallNotifier: ringtones prepared from cache=" + mCachePreparedRingtones);
+        mRingLatency.dump(pw, "  ");
+    }
+
     /**
      * Performs the final steps of the onNewRingingConnection sequence:
      * starts the ringer, and brings up the "incoming call" UI.
@@ -798,6 +853,7 @@ public class CallNotifier extends Handler
      */
     private void showIncomingCall() {
         log("showIncomingCall()...  phone state = " + mCM.getState());
+        CallTracer.event(CallTracer.MT_SHOW_INCOMING_CALL);
 
         // Before bringing up the "incoming call" UI, force any system
         // dialogs (like "recent tasks" or the power dialog) to close first.
@@ -1043,6 +1099,7 @@ public class CallNotifier extends Handler
         } else if (cookie instanceof CallNotifier) {
             if (VDBG) log("CallerInfo query complete (for CallNotifier), "
                     + "updating state for incoming call..");
+            CallTracer.event(CallTracer.MT_CALLER_INFO_QUERY_COMPLETE);
 
             // get rid of the timeout messages
             removeMessages(RINGER_CUSTOM_RINGTONE_QUERY_TIMEOUT);
@@ -1095,8 +1152,8 @@ public class CallNotifier extends Handler
         // This method is intentionally verbose for now to detect possible bad side-effect for it.
         // TODO: Remove the verbose log when it looks stable and reliable enough.
 
-        final CallerInfoCache.CacheEntry entry =
-                mApplication.callerInfoCache.getCacheEntry(number);
+        final CallerInfoCache cache = mApplication.callerInfoCache;
+        final CallerInfoCache.CacheEntry entry = cache != null ? cache.getCacheEntry(number) : null;
         if (entry != null) {
             if (entry.sendToVoicemail) {
                 log("send to voicemail flag detected (in fallback cache). hanging up.");
@@ -1380,10 +1437,7 @@ public class CallNotifier extends Handler
     }
 
     public void vibrate(int v1, int p1, int v2) {
-        long[] pattern = new long[] {
-            0, v1, p1, v2
-        };
-        mVibrator.vibrate(pattern, -1);
+        VibrationScheduler.getInstance().pulse(v1, p1, v2);
     }
 
     /**
@@ -2045,15 +2099,7 @@ public class CallNotifier extends Handler
      *  Inner class to handle emergency call tone and vibrator
      */
     protected class EmergencyTonePlayerVibrator {
-        private final int EMG_VIBRATE_LENGTH = 1000;  // ms.
-        private final int EMG_VIBRATE_PAUSE  = 1000;  // ms.
-        private final long[] mVibratePattern =
-                new long[] { EMG_VIBRATE_LENGTH, EMG_VIBRATE_PAUSE };
-
         private ToneGenerator mToneGenerator;
-        // We don't rely on getSystemService(Context.VIBRATOR_SERVICE) to make sure this vibrator
-        // object will be isolated from others.
-        private Vibrator mEmgVibrator = new SystemVibrator();
         private int mInCallVolume;
 
         /**
@@ -2084,10 +2130,10 @@ public class CallNotifier extends Handler
                 }
             } else if (mIsEmergencyToneOn == EMERGENCY_TONE_VIBRATE) {
                 log("EmergencyTonePlayerVibrator.start(): emergency vibrate...");
-                if (mEmgVibrator != null) {
-                    mEmgVibrator.vibrate(mVibratePattern, 0);
-                    mCurrentEmergencyToneState = EMERGENCY_TONE_VIBRATE;
-                }
+                VibrationScheduler.getInstance().startRepeating(
+                        VibrationScheduler.CHANNEL_EMERGENCY,
+                        VibrationScheduler.EMERGENCY_PATTERN, VibrationScheduler.EMERGENCY_REPEAT);
+                mCurrentEmergencyToneState = EMERGENCY_TONE_VIBRATE;
             }
         }
 
@@ -2104,9 +2150,8 @@ public class CallNotifier extends Handler
                 mAudioManager.setStreamVolume(AudioManager.STREAM_VOICE_CALL,
                         mInCallVolume,
                         0);
-            } else if ((mCurrentEmergencyToneState == EMERGENCY_TONE_VIBRATE)
-                    && (mEmgVibrator != null)) {
-                mEmgVibrator.cancel();
+            } else if (mCurrentEmergencyToneState == EMERGENCY_TONE_VIBRATE) {
+                VibrationScheduler.getInstance().cancel(VibrationScheduler.CHANNEL_EMERGENCY);
             }
             mCurrentEmergencyToneState = EMERGENCY_TONE_OFF;
         }
@@ -16,31 +16,21 @@
 
 package com.android.phone;
 
-import android.content.Context;
-import android.os.Debug;
 import android.os.Handler;
 import android.os.SystemClock;
 import com.android.internal.telephony.Call;
 import com.android.internal.telephony.Connection;
 import android.util.Log;
 
-import java.io.File;
 import java.util.List;
 
 /**
  * Helper class used to keep track of various "elapsed time" indications
- * in the Phone app, and also to start and stop tracing / profiling.
+ * in the Phone app. (Call setup tracing lives in {@link CallTracer}.)
  */
 public class CallTime extends Handler {
     private static final String LOG_TAG = "PHONE/CallTime";
     private static final boolean DBG = false;
-    /* package */ static final boolean PROFILE = true;
-
-    private static final int PROFILE_STATE_NONE = 0;
-    private static final int PROFILE_STATE_READY = 1;
-    private static final int PROFILE_STATE_RUNNING = 2;
-
-    private static int sProfileState = PROFILE_STATE_NONE;
 
     private Call mCall;
     private long mLastReportedTime;
@@ -101,10 +91,6 @@ public class CallTime extends Handler {
                     updateElapsedTime(mCall);
                 }
             }
-
-            if (PROFILE && isTraceReady()) {
-                startTrace();
-            }
         } else {
             if (DBG) log("periodicUpdateTimer: timer already running, bail");
         }
@@ -164,68 +150,8 @@ public class CallTime extends Handler {
         }
 
         public void run() {
-            if (PROFILE && isTraceRunning()) {
-                stopTrace();
-            }
-
             mTimerRunning = false;
             periodicUpdateTimer();
         }
     }
-
-    static void setTraceReady() {
-        if (sProfileState == PROFILE_STATE_NONE) {
-            sProfileState = PROFILE_STATE_READY;
-            log("trace ready...");
-        } else {
-            log("current trace state = " + sProfileState);
-        }
-    }
-
-    boolean isTraceReady() {
-        return sProfileState == PROFILE_STATE_READY;
-    }
-
-    boolean isTraceRunning() {
-        return sProfileState == PROFILE_STATE_RUNNING;
-    }
-
-    void startTrace() {
-        if (PROFILE & sProfileState == PROFILE_STATE_READY) {
-            // For now, we move away from temp directory in favor of
-            // the application's data directory to store the trace
-            // information (/data/data/com.android.phone).
-            File file = PhoneGlobals.getInstance().getDir ("phoneTrace", Context.MODE_PRIVATE);
-            if (file.exists() == false) {
-                file.mkdirs();
-            }
-            String baseName = file.getPath() + File.separator + "callstate";
-            String dataFile = baseName + ".data";
-            String keyFile = baseName + ".key";
-
-            file = new File(dataFile);
-            if (file.exists() == true) {
-                file.delete();
-            }
-
-            file = new File(keyFile);
-            if (file.exists() == true) {
-                file.delete();
-            }
-
-            sProfileState = PROFILE_STATE_RUNNING;
-            log("startTrace");
-            Debug.startMethodTracing(baseName, 8 * 1024 * 1024);
-        }
-    }
-
-    void stopTrace() {
-        if (PROFILE) {
-            if (sProfileState == PROFILE_STATE_RUNNING) {
-                sProfileState = PROFILE_STATE_NONE;
-                log("stopTrace");
-                Debug.stopMethodTracing();
-            }
-        }
-    }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead tracing of the incoming (MT) and outgoing (MO) call setup path.
+ *
+ * Each call gets a span id when it starts; later stages are attributed to the most recent
+ * span of their direction, and only their first occurrence per span counts. Events go to a
+ * fixed-size ring buffer whose entries are each packed into a single long, so writers never
+ * lock and readers never see half-written entries. Every stage also feeds a histogram of its
+ * delay since the start of the span, which doesn't lock either (see {@link LatencyHistogram}).
+ * Both are printed by "dumpsys phone".
+ *
+ * Set the persist.phone.call_trace property to false to turn tracing into a no-op.
+ */
+/* package */ final class CallTracer {
+    private static final boolean ENABLED =
+            SystemProperties.getBoolean("persist.phone.call_trace", true);
+
+    // MT stages.
+    public static final int MT_NEW_RINGING_CONNECTION = 0;
+    public static final int MT_BLACKLIST_CHECKED = 1;
+    public static final int MT_CALLER_INFO_QUERY_START = 2;
+    public static final int MT_CALLER_INFO_QUERY_COMPLETE = 3;
+    public static final int MT_FIRST_RING_AUDIO = 4;
+    public static final int MT_SHOW_INCOMING_CALL = 5;
+    // MO stages.
+    public static final int MO_OUTGOING_CALL_BROADCASTER = 6;
+    public static final int MO_CALL_CONTROLLER_PLACE_CALL = 7;
+    public static final int MO_PHONE_UTILS_PLACE_CALL = 8;
+    // In-call UI stages, attributed to the most recent call of either direction.
+    public static final int CALL_SCREEN_REQUESTED = 9;
+    public static final int IN_CALL_SCREEN_ON_CREATE = 10;
+    public static final int IN_CALL_SCREEN_UPDATE = 11;
+    private static final int NUM_STAGES = 12;
+
+    private static final String[] STAGE_NAMES = {
+        "MT onNewRingingConnection",
+        "MT blacklist checked",
+        "MT CallerInfo query start",
+        "MT CallerInfo query complete",
+        "MT first ring audio",
+        "MT showIncomingCall",
+        "MO OutgoingCallBroadcaster",
+        "MO CallController.placeCall",
+        "MO PhoneUtils.placeCall",
+        "call screen requested",
+        "InCallScreen.onCreate",
+        "InCallScreen.updateScreen",
+    };
+
+    // Ring buffer entry layout: elapsedRealtime ms (40 bits) | span id (16 bits) | stage (8).
+    private static final int RING_SIZE = 256; // must be a power of two
+    private static final int SPAN_BITS = 16;
+    private static final int STAGE_BITS = 8;
+
+    private static final AtomicLongArray sRing = new AtomicLongArray(RING_SIZE);
+    private static final AtomicInteger sRingNext = new AtomicInteger();
+    private static final AtomicInteger sNextSpanId = new AtomicInteger();
+
+    private static final LatencyHistogram[] sStageLatency = new LatencyHistogram[NUM_STAGES];
+    static {
+        for (int i = 0; i < NUM_STAGES; i++) {
+            sStageLatency[i] = new LatencyHistogram(STAGE_NAMES[i]);
+        }
+    }
+
+    private static final class Span {
+        final int id;
+        final long startTime;
+        final AtomicInteger seenStages = new AtomicInteger();
+
+        Span(int id, long startTime) {
+            this.id = id;
+            this.startTime = startTime;
+        }
+    }
+
+    private static volatile Span sIncomingSpan;
+    private static volatile Span sOutgoingSpan;
+    private static volatile Span sLastSpan;
+
+    /** This class is never instantiated. */
+    private CallTracer() {
+    }
+
+    /**
+     * Starts a new MT span and records {@link #MT_NEW_RINGING_CONNECTION}.
+     */
+    static void beginIncomingCall() {
+        if (!ENABLED) {
+            return;
+        }
+        final Span span = newSpan();
+        sIncomingSpan = span;
+        sLastSpan = span;
+        record(span, MT_NEW_RINGING_CONNECTION);
+    }
+
+    /**
+     * Starts a new MO span and records {@link #MO_OUTGOING_CALL_BROADCASTER}.
+     */
+    static void beginOutgoingCall() {
+        if (!ENABLED) {
+            return;
+        }
+        final Span span = newSpan();
+        sOutgoingSpan = span;
+        sLastSpan = span;
+        record(span, MO_OUTGOING_CALL_BROADCASTER);
+    }
+
+    /**
+     * Records a stage of the current call; later occurrences within the same span are ignored.
+     */
+    static void event(int stage) {
+        if (!ENABLED) {
+            return;
+        }
+        final Span span;
+        if (stage <= MT_SHOW_INCOMING_CALL) {
+            span = sIncomingSpan;
+        } else if (stage <= MO_PHONE_UTILS_PLACE_CALL) {
+            span = sOutgoingSpan;
+        } else {
+            span = sLastSpan;
+        }
+        if (span != null) {
+            record(span, stage);
+        }
+    }
+
+    private static Span newSpan() {
+        return new Span(sNextSpanId.incrementAndGet() & ((1 << SPAN_BITS) - 1),
+                SystemClock.elapsedRealtime());
+    }
+
+    private static void record(Span span, int stage) {
+        final int bit = 1 << stage;
+        int seen;
+        do {
+            seen = span.seenStages.get();
+            if ((seen & bit) != 0) {
+                return;
+            }
+        } while (!span.seenStages.compareAndSet(seen, seen | bit));
+
+        final long now = SystemClock.elapsedRealtime();
+        sRing.set(sRingNext.getAndIncrement() & (RING_SIZE - 1),
+                (now << (SPAN_BITS + STAGE_BITS)) | ((long) span.id << STAGE_BITS) | stage);
+        sStageLatency[stage].record(now - span.startTime);
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println("CallTracer: enabled=" + ENABLED);
+        if (!ENABLED) {
+            return;
+        }
+        pw.println("  Delay since start of call, per stage:");
+        for (int i = 0; i < NUM_STAGES; i++) {
+            sStageLatency[i].dump(pw, "    ");
+        }
+
+        pw.println("  Recent events (span: stage @elapsedRealtime):");
+        final int next = sRingNext.get();
+        final int count = Math.min(next, RING_SIZE);
+        for (int i = next - count; i < next; i++) {
+            final long entry = sRing.get(i & (RING_SIZE - 1));
+            final int stage = (int) (entry & ((1 << STAGE_BITS) - 1));
+            final int spanId = (int) ((entry >>> STAGE_BITS) & ((1 << SPAN_BITS) - 1));
+            final long time = entry >>> (SPAN_BITS + STAGE_BITS);
+            if (stage < NUM_STAGES) {
+                pw.println("    #" + spanId + ": " + STAGE_NAMES[stage] + " @" + time);
+            }
+        }
+    }
+}
@@ -21,6 +21,7 @@ public class CallWaitingCheckBoxPreference extends CheckBoxPreference {
 
     private final MyHandler mHandler = new MyHandler();
     private Phone mPhone;
+    private SuppServiceCache mSuppServiceCache;
     private TimeConsumingPreferenceListener mTcpListener;
 
     public CallWaitingCheckBoxPreference(Context context, AttributeSet attrs, int defStyle) {
@@ -43,11 +44,13 @@ public class CallWaitingCheckBoxPreference extends CheckBoxPreference {
         if (DBG)
             Log.d(LOG_TAG, "CallWaitingCheckBoxPreference init, subscription :" + subscription);
         mPhone = PhoneGlobals.getInstance().getPhone(subscription);
+        mSuppServiceCache = PhoneGlobals.getInstance().suppServiceCache;
 
         mTcpListener = listener;
 
         if (!skipReading) {
-            mPhone.getCallWaiting(mHandler.obtainMessage(MyHandler.MESSAGE_GET_CALL_WAITING,
+            mSuppServiceCache.getCallWaiting(mPhone,
+                    mHandler.obtainMessage(MyHandler.MESSAGE_GET_CALL_WAITING,
                     MyHandler.MESSAGE_GET_CALL_WAITING, MyHandler.MESSAGE_GET_CALL_WAITING));
             if (mTcpListener != null) {
                 mTcpListener.onStarted(this, true);
@@ -59,7 +62,7 @@ public class CallWaitingCheckBoxPreference extends CheckBoxPreference {
     protected void onClick() {
         super.onClick();
 
-        mPhone.setCallWaiting(isChecked(),
+        mSuppServiceCache.setCallWaiting(mPhone, isChecked(),
                 mHandler.obtainMessage(MyHandler.MESSAGE_SET_CALL_WAITING));
         if (mTcpListener != null) {
             mTcpListener.onStarted(this, false);
@@ -133,7 +136,7 @@ public class CallWaitingCheckBoxPreference extends CheckBoxPreference {
             }
             if (DBG) Log.d(LOG_TAG, "handleSetCallWaitingResponse: re get");
 
-            mPhone.getCallWaiting(obtainMessage(MESSAGE_GET_CALL_WAITING,
+            mSuppServiceCache.getCallWaiting(mPhone, obtainMessage(MESSAGE_GET_CALL_WAITING,
                     MESSAGE_SET_CALL_WAITING, MESSAGE_SET_CALL_WAITING, ar.exception));
         }
     }
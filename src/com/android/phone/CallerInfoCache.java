@@ -20,18 +20,27 @@ import android.app.AlarmManager;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.PowerManager;
 import android.os.SystemClock;
 import android.os.SystemProperties;
+import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Callable;
 import android.provider.ContactsContract.CommonDataKinds.Phone;
 import android.provider.ContactsContract.Data;
+import android.provider.ContactsContract.DeletedContacts;
 import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 
+import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map.Entry;
 
 /**
@@ -41,6 +50,10 @@ import java.util.Map.Entry;
  *
  * The data inside this class shouldn't be treated as "primary"; they may not reflect the
  * latest information stored in the original database.
+ *
+ * Besides the periodic full refresh, the cache watches the contacts provider and applies only
+ * the rows of contacts updated or deleted since the last refresh ("incremental refresh"), so
+ * that edits made in Contacts are reflected without re-reading the whole table.
  */
 public class CallerInfoCache {
     private static final String LOG_TAG = CallerInfoCache.class.getSimpleName();
@@ -56,6 +69,31 @@ public class CallerInfoCache {
      */
     private static final int CACHE_REFRESH_INTERVAL = 8 * 60 * 60 * 1000; // 8 hours in millis.
 
+    /**
+     * Delay between the last change notification from the contacts provider and the start of
+     * an incremental refresh. Contacts sync tends to notify in bursts, so we coalesce them.
+     */
+    private static final int INCREMENTAL_REFRESH_DELAY = 2000; // 2 seconds in millis.
+
+    /**
+     * When an incremental refresh sees more changed rows than this, a full refresh is cheaper
+     * than patching the snapshot row by row (e.g. right after an account's first sync).
+     */
+    private static final int MAX_INCREMENTAL_ROWS = 2000;
+
+    /**
+     * Number of the most widely used custom ringtones handed to {@link Ringer} for preparation
+     * after each refresh. The default ringtone is prepared by the Ringer itself.
+     */
+    private static final int NUM_FREQUENT_RINGTONES = 2;
+
+    /**
+     * The provider's timestamps are wall-clock based. Rows touched slightly before our query
+     * may commit after it started, so we re-read this window on the next incremental refresh.
+     * Applying a row twice is harmless.
+     */
+    private static final long TIMESTAMP_MARGIN = 5000; // 5 seconds in millis.
+
     public static final int MESSAGE_UPDATE_CACHE = 0;
 
     // Assuming DATA.DATA1 corresponds to Phone.NUMBER and SipAddress.ADDRESS, we just use
@@ -65,18 +103,34 @@ public class CallerInfoCache {
         Data.DATA1,                  // 0
         Phone.NORMALIZED_NUMBER,     // 1
         Data.CUSTOM_RINGTONE,        // 2
-        Data.SEND_TO_VOICEMAIL       // 3
+        Data.SEND_TO_VOICEMAIL,      // 3
+        Data._ID,                    // 4
+        Data.CONTACT_ID              // 5
     };
 
     private static final int INDEX_NUMBER            = 0;
     private static final int INDEX_NORMALIZED_NUMBER = 1;
     private static final int INDEX_CUSTOM_RINGTONE   = 2;
     private static final int INDEX_SEND_TO_VOICEMAIL = 3;
+    private static final int INDEX_DATA_ID           = 4;
+    private static final int INDEX_CONTACT_ID        = 5;
 
     private static final String SELECTION = "("
             + "(" + Data.CUSTOM_RINGTONE + " IS NOT NULL OR " + Data.SEND_TO_VOICEMAIL + "=1)"
             + " AND " + Data.DATA1 + " IS NOT NULL)";
 
+    // Incremental refresh needs every row of an updated contact, including the ones which don't
+    // match SELECTION anymore (e.g. custom ringtone was just removed).
+    private static final String SELECTION_UPDATED_SINCE =
+            Data.CONTACT_LAST_UPDATED_TIMESTAMP + " > ?";
+
+    private static final String[] DELETED_PROJECTION = new String[] {
+        DeletedContacts.CONTACT_ID   // 0
+    };
+
+    private static final String SELECTION_DELETED_SINCE =
+            DeletedContacts.CONTACT_DELETED_TIMESTAMP + " > ?";
+
     public static class CacheEntry {
         public final String customRingtone;
         public final boolean sendToVoicemail;
@@ -91,10 +145,58 @@ public class CallerInfoCache {
         }
     }
 
+    /**
+     * One Data row contributing to the cache. Kept so that incremental refresh can tell which
+     * keys are affected when a contact changes or goes away.
+     */
+    private static class CachedRow {
+        public final long contactId;
+        public final String key;
+        public final String customRingtone;
+        public final boolean sendToVoicemail;
+
+        public CachedRow(long contactId, String key, String customRingtone,
+                boolean sendToVoicemail) {
+            this.contactId = contactId;
+            this.key = key;
+            this.customRingtone = customRingtone;
+            this.sendToVoicemail = sendToVoicemail;
+        }
+    }
+
+    /**
+     * Observes the contacts provider and schedules an incremental refresh once the burst of
+     * change notifications settles down.
+     */
+    private class ContactsObserver extends ContentObserver {
+        private final Runnable mRefreshRunnable = new Runnable() {
+            @Override
+            public void run() {
+                startAsyncCache(true);
+            }
+        };
+
+        public ContactsObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (VDBG) log("ContactsObserver#onChange()");
+            mHandler.removeCallbacks(mRefreshRunnable);
+            mHandler.postDelayed(mRefreshRunnable, INCREMENTAL_REFRESH_DELAY);
+        }
+    }
+
     private class CacheAsyncTask extends AsyncTask<Void, Void, Void> {
 
+        private final boolean mIncremental;
         private PowerManager.WakeLock mWakeLock;
 
+        public CacheAsyncTask(boolean incremental) {
+            mIncremental = incremental;
+        }
+
         /**
          * Call {@link PowerManager.WakeLock#acquire} and call {@link AsyncTask#execute(Object...)},
          * guaranteeing the lock is held during the asynchronous task.
@@ -110,8 +212,10 @@ public class CallerInfoCache {
 
         @Override
         protected Void doInBackground(Void... params) {
-            if (DBG) log("Start refreshing cache.");
-            refreshCacheEntry();
+            if (DBG) log("Start refreshing cache. incremental: " + mIncremental);
+            if (!mIncremental || !refreshCacheEntryIncrementally()) {
+                refreshCacheEntry();
+            }
             return null;
         }
 
@@ -139,11 +243,11 @@ public class CallerInfoCache {
     private final Context mContext;
 
     /**
-     * The mapping from number to CacheEntry.
+     * The mapping from number to CacheEntry, for the numbers {@link #mSuffixIndex} can't hold.
      *
      * The number will be:
-     * - last 7 digits of each "normalized phone number when it is for PSTN phone call, or
-     * - a full SIP address for SIP call
+     * - a full SIP address for SIP call, or
+     * - the normalized PSTN number when it is too short to be packed (e.g. "+12")
      *
      * When cache is being refreshed, this whole object will be replaced with a newer object,
      * instead of updating elements inside the object.  "volatile" is used to make
@@ -152,6 +256,34 @@ public class CallerInfoCache {
      */
     private volatile HashMap<String, CacheEntry> mNumberToEntry;
 
+    /**
+     * The PSTN numbers, keyed by the last 7 digits of the normalized number, in primitive form
+     * so that lookups during an incoming call don't allocate. Replaced together with
+     * {@link #mNumberToEntry}.
+     */
+    private volatile CallerInfoSuffixIndex mSuffixIndex;
+
+    /**
+     * The Data rows behind {@link #mNumberToEntry}, keyed by Data._ID. Only touched by the cache
+     * task, which runs on AsyncTask's serial executor, and replaced together with
+     * {@link #mNumberToEntry}.
+     */
+    private HashMap<Long, CachedRow> mDataIdToRow;
+
+    /**
+     * Contacts updated or deleted after this point (in the provider's wall-clock millis) are
+     * not reflected in the cache yet. 0 means no full refresh has finished so far.
+     */
+    private long mLastUpdatedTimestamp;
+
+    // Counters, only for dump().
+    private volatile int mFullRefreshCount;
+    private volatile int mIncrementalRefreshCount;
+    private volatile int mIncrementalRowCount;
+
+    private final Handler mHandler = new Handler();
+    private ContactsObserver mContactsObserver;
+
     /**
      * Used to remember if the previous task is finished or not. Should be set to null when done.
      */
@@ -163,25 +295,45 @@ public class CallerInfoCache {
         // The first cache should be available ASAP.
         cache.startAsyncCache();
         cache.setRepeatingCacheUpdateAlarm();
+        cache.registerContactsObserver();
         return cache;
     }
 
     private CallerInfoCache(Context context) {
         mContext = context;
         mNumberToEntry = new HashMap<String, CacheEntry>();
+        mDataIdToRow = new HashMap<Long, CachedRow>();
     }
 
     /* package */ void startAsyncCache() {
-        if (DBG) log("startAsyncCache");
+        startAsyncCache(false);
+    }
 
-        if (mCacheAsyncTask != null) {
+    private void startAsyncCache(boolean incremental) {
+        if (DBG) log("startAsyncCache, incremental: " + incremental);
+
+        if (mCacheAsyncTask != null
+                && mCacheAsyncTask.getStatus() != AsyncTask.Status.FINISHED) {
+            if (incremental) {
+                // The running task (full or incremental) will pick up this change as well,
+                // or the next notification will.
+                if (DBG) log("Previous cache task is running. Schedule again later.");
+                mContactsObserver.onChange(false);
+                return;
+            }
             Log.w(LOG_TAG, "Previous cache task is remaining.");
             mCacheAsyncTask.cancel(true);
         }
-        mCacheAsyncTask = new CacheAsyncTask();
+        mCacheAsyncTask = new CacheAsyncTask(incremental);
         mCacheAsyncTask.acquireWakeLockAndExecute();
     }
 
+    private void registerContactsObserver() {
+        mContactsObserver = new ContactsObserver(mHandler);
+        mContext.getContentResolver().registerContentObserver(
+                ContactsContract.AUTHORITY_URI, true, mContactsObserver);
+    }
+
     /**
      * Set up periodic alarm for cache update.
      */
@@ -202,12 +354,11 @@ public class CallerInfoCache {
     private void refreshCacheEntry() {
         if (VDBG) log("refreshCacheEntry() started");
 
-        // There's no way to know which part of the database was updated. Also we don't want
-        // to block incoming calls asking for the cache. So this method just does full query
-        // and replaces the older cache with newer one. To refrain from blocking incoming calls,
-        // it keeps older one as much as it can, and replaces it with newer one inside a very small
-        // synchronized block.
+        // This method just does full query and replaces the older cache with newer one. To
+        // refrain from blocking incoming calls, it keeps older one as much as it can, and
+        // replaces it with newer one inside a very small synchronized block.
 
+        final long queryStartTime = System.currentTimeMillis();
         Cursor cursor = null;
         try {
             cursor = mContext.getContentResolver().query(Callable.CONTENT_URI,
@@ -215,42 +366,16 @@ public class CallerInfoCache {
             if (cursor != null) {
                 // We don't want to block real in-coming call, so prepare a completely fresh
                 // cache here again, and replace it with older one.
-                final HashMap<String, CacheEntry> newNumberToEntry =
-                        new HashMap<String, CacheEntry>(cursor.getCount());
-
+                final HashMap<Long, CachedRow> newDataIdToRow =
+                        new HashMap<Long, CachedRow>(cursor.getCount());
                 while (cursor.moveToNext()) {
-                    final String number = cursor.getString(INDEX_NUMBER);
-                    String normalizedNumber = cursor.getString(INDEX_NORMALIZED_NUMBER);
-                    if (normalizedNumber == null) {
-                        // There's no guarantee normalized numbers are available every time and
-                        // it may become null sometimes. Try formatting the original number.
-                        normalizedNumber = PhoneNumberUtils.normalizeNumber(number);
-                    }
-                    final String customRingtone = cursor.getString(INDEX_CUSTOM_RINGTONE);
-                    final boolean sendToVoicemail = cursor.getInt(INDEX_SEND_TO_VOICEMAIL) == 1;
-
-                    if (PhoneNumberUtils.isUriNumber(number)) {
-                        // SIP address case
-                        putNewEntryWhenAppropriate(
-                                newNumberToEntry, number, customRingtone, sendToVoicemail);
-                    } else {
-                        // PSTN number case
-                        // Each normalized number may or may not have full content of the number.
-                        // Contacts database may contain +15001234567 while a dialed number may be
-                        // just 5001234567. Also we may have inappropriate country
-                        // code in some cases (e.g. when the location of the device is inconsistent
-                        // with the device's place). So to avoid confusion we just rely on the last
-                        // 7 digits here. It may cause some kind of wrong behavior, which is
-                        // unavoidable anyway in very rare cases..
-                        final int length = normalizedNumber.length();
-                        final String key = length > 7
-                                ? normalizedNumber.substring(length - 7, length)
-                                        : normalizedNumber;
-                        putNewEntryWhenAppropriate(
-                                newNumberToEntry, key, customRingtone, sendToVoicemail);
-                    }
+                    final CachedRow row = readRow(cursor);
+                    newDataIdToRow.put(cursor.getLong(INDEX_DATA_ID), row);
                 }
 
+                final HashMap<String, CacheEntry> newNumberToEntry =
+                        buildNumberToEntry(newDataIdToRow);
+
                 if (VDBG) {
                     Log.d(LOG_TAG, "New cache size: " + newNumberToEntry.size());
                     for (Entry<String, CacheEntry> entry : newNumberToEntry.entrySet()) {
@@ -258,7 +383,10 @@ public class CallerInfoCache {
                     }
                 }
 
-                mNumberToEntry = newNumberToEntry;
+                mDataIdToRow = newDataIdToRow;
+                mLastUpdatedTimestamp = queryStartTime - TIMESTAMP_MARGIN;
+                publish(newNumberToEntry);
+                mFullRefreshCount++;
 
                 if (DBG) {
                     log("Caching entries are done. Total: " + newNumberToEntry.size());
@@ -280,6 +408,197 @@ public class CallerInfoCache {
         if (VDBG) log("refreshCacheEntry() ended");
     }
 
+    /**
+     * Applies contacts updated or deleted since {@link #mLastUpdatedTimestamp} to a copy of the
+     * current cache and replaces the current one with it.
+     *
+     * @return false when an incremental refresh isn't possible or isn't worth it, in which case
+     * the caller should fall back to {@link #refreshCacheEntry()}.
+     */
+    private boolean refreshCacheEntryIncrementally() {
+        if (VDBG) log("refreshCacheEntryIncrementally() started");
+
+        if (mLastUpdatedTimestamp <= 0) {
+            // No full refresh has finished yet; nothing to apply deltas to.
+            return false;
+        }
+
+        final long queryStartTime = System.currentTimeMillis();
+        final String[] selectionArgs = new String[] { String.valueOf(mLastUpdatedTimestamp) };
+
+        final HashSet<Long> changedContactIds = new HashSet<Long>();
+        final HashMap<Long, CachedRow> changedRows = new HashMap<Long, CachedRow>();
+
+        Cursor cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(Callable.CONTENT_URI,
+                    PROJECTION, SELECTION_UPDATED_SINCE, selectionArgs, null);
+            if (cursor == null) {
+                Log.w(LOG_TAG, "cursor is null");
+                return false;
+            }
+            if (cursor.getCount() > MAX_INCREMENTAL_ROWS) {
+                if (DBG) log("Too many changed rows (" + cursor.getCount() + "). Do full refresh.");
+                return false;
+            }
+            while (cursor.moveToNext()) {
+                changedContactIds.add(cursor.getLong(INDEX_CONTACT_ID));
+                final boolean hasData = !cursor.isNull(INDEX_NUMBER);
+                final boolean hasRingtone = !cursor.isNull(INDEX_CUSTOM_RINGTONE);
+                final boolean sendToVoicemail = cursor.getInt(INDEX_SEND_TO_VOICEMAIL) == 1;
+                if (hasData && (hasRingtone || sendToVoicemail)) {
+                    changedRows.put(cursor.getLong(INDEX_DATA_ID), readRow(cursor));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        cursor = null;
+        try {
+            cursor = mContext.getContentResolver().query(DeletedContacts.CONTENT_URI,
+                    DELETED_PROJECTION, SELECTION_DELETED_SINCE, selectionArgs, null);
+            if (cursor != null) {
+                while (cursor.moveToNext()) {
+                    changedContactIds.add(cursor.getLong(0));
+                }
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        // Copy-on-write: readers keep using the current index until we swap in the new one.
+        final HashMap<Long, CachedRow> newDataIdToRow = new HashMap<Long, CachedRow>(mDataIdToRow);
+        final Iterator<CachedRow> iterator = newDataIdToRow.values().iterator();
+        while (iterator.hasNext()) {
+            if (changedContactIds.contains(iterator.next().contactId)) {
+                iterator.remove();
+            }
+        }
+        newDataIdToRow.putAll(changedRows);
+
+        // Only the index is kept, so rebuild the entries from the rows, which are in memory.
+        // Other contacts may share a key (last 7 digits) with a changed one anyway.
+        final HashMap<String, CacheEntry> newNumberToEntry = buildNumberToEntry(newDataIdToRow);
+
+        mDataIdToRow = newDataIdToRow;
+        mLastUpdatedTimestamp = queryStartTime - TIMESTAMP_MARGIN;
+        publish(newNumberToEntry);
+        mIncrementalRefreshCount++;
+        mIncrementalRowCount += changedRows.size();
+
+        if (DBG) {
+            log("Incremental refresh done. Changed contacts: " + changedContactIds.size()
+                    + ", changed rows: " + changedRows.size()
+                    + ", total: " + newNumberToEntry.size());
+        }
+        return true;
+    }
+
+    private HashMap<String, CacheEntry> buildNumberToEntry(HashMap<Long, CachedRow> rows) {
+        final HashMap<String, CacheEntry> numberToEntry =
+                new HashMap<String, CacheEntry>(rows.size());
+        for (CachedRow row : rows.values()) {
+            putNewEntryWhenAppropriate(numberToEntry, row.key, row.customRingtone,
+                    row.sendToVoicemail);
+        }
+        return numberToEntry;
+    }
+
+    /**
+     * Replaces the cache with the given entries: PSTN numbers go into a new
+     * {@link CallerInfoSuffixIndex}, and only the rest is kept as a map.
+     */
+    private void publish(HashMap<String, CacheEntry> newNumberToEntry) {
+        final CallerInfoSuffixIndex suffixIndex = CallerInfoSuffixIndex.build(newNumberToEntry);
+        final HashMap<String, CacheEntry> others = new HashMap<String, CacheEntry>();
+        for (Entry<String, CacheEntry> entry : newNumberToEntry.entrySet()) {
+            if (!CallerInfoSuffixIndex.canIndex(entry.getKey())) {
+                others.put(entry.getKey(), entry.getValue());
+            }
+        }
+        mSuffixIndex = suffixIndex;
+        mNumberToEntry = others;
+        prepareFrequentRingtones(newNumberToEntry);
+    }
+
+    /**
+     * Asks the Ringer to prepare the custom ringtones shared by the most cached numbers, so
+     * that they are ready before any of those numbers calls.
+     */
+    private void prepareFrequentRingtones(HashMap<String, CacheEntry> numberToEntry) {
+        final Ringer ringer = PhoneGlobals.getInstance().getRinger();
+        if (ringer == null) {
+            return;
+        }
+        final HashMap<String, Integer> counts = new HashMap<String, Integer>();
+        for (CacheEntry entry : numberToEntry.values()) {
+            if (entry.customRingtone == null || entry.sendToVoicemail) {
+                continue;
+            }
+            final Integer count = counts.get(entry.customRingtone);
+            counts.put(entry.customRingtone, count == null ? 1 : count + 1);
+        }
+        final ArrayList<Uri> uris = new ArrayList<Uri>(NUM_FREQUENT_RINGTONES);
+        for (int i = 0; i < NUM_FREQUENT_RINGTONES; i++) {
+            String best = null;
+            int bestCount = 0;
+            for (Entry<String, Integer> entry : counts.entrySet()) {
+                if (entry.getValue() > bestCount) {
+                    best = entry.getKey();
+                    bestCount = entry.getValue();
+                }
+            }
+            if (best == null) {
+                break;
+            }
+            counts.remove(best);
+            uris.add(Uri.parse(best));
+        }
+        if (DBG) log("Preparing frequent ringtones: " + uris);
+        ringer.prepareRingtones(uris);
+    }
+
+    /**
+     * Reads the current row of a cursor queried with {@link #PROJECTION}.
+     */
+    private static CachedRow readRow(Cursor cursor) {
+        final String number = cursor.getString(INDEX_NUMBER);
+        String normalizedNumber = cursor.getString(INDEX_NORMALIZED_NUMBER);
+        if (normalizedNumber == null) {
+            // There's no guarantee normalized numbers are available every time and
+            // it may become null sometimes. Try formatting the original number.
+            normalizedNumber = PhoneNumberUtils.normalizeNumber(number);
+        }
+        final String customRingtone = cursor.getString(INDEX_CUSTOM_RINGTONE);
+        final boolean sendToVoicemail = cursor.getInt(INDEX_SEND_TO_VOICEMAIL) == 1;
+
+        final String key;
+        if (PhoneNumberUtils.isUriNumber(number)) {
+            // SIP address case
+            key = number;
+        } else {
+            // PSTN number case
+            // Each normalized number may or may not have full content of the number.
+            // Contacts database may contain +15001234567 while a dialed number may be
+            // just 5001234567. Also we may have inappropriate country
+            // code in some cases (e.g. when the location of the device is inconsistent
+            // with the device's place). So to avoid confusion we just rely on the last
+            // 7 digits here. It may cause some kind of wrong behavior, which is
+            // unavoidable anyway in very rare cases..
+            final int length = normalizedNumber.length();
+            key = length > 7
+                    ? normalizedNumber.substring(length - 7, length)
+                            : normalizedNumber;
+        }
+        return new CachedRow(cursor.getLong(INDEX_CONTACT_ID), key, customRingtone,
+                sendToVoicemail);
+    }
+
     private void putNewEntryWhenAppropriate(HashMap<String, CacheEntry> newNumberToEntry,
             String numberOrSipAddress, String customRingtone, boolean sendToVoicemail) {
         if (newNumberToEntry.containsKey(numberOrSipAddress)) {
@@ -313,10 +632,19 @@ public class CallerInfoCache {
         }
 
         CacheEntry entry;
-        if (PhoneNumberUtils.isUriNumber(number)) {
+        final boolean isUriNumber = PhoneNumberUtils.isUriNumber(number);
+        final CallerInfoSuffixIndex suffixIndex = mSuffixIndex;
+        final int packedKey = (!isUriNumber && suffixIndex != null)
+                ? CallerInfoSuffixIndex.packPstnSuffix(number) : CallerInfoSuffixIndex.NO_KEY;
+        if (isUriNumber) {
             if (VDBG) log("Trying to lookup " + number);
 
             entry = mNumberToEntry.get(number);
+        } else if (packedKey != CallerInfoSuffixIndex.NO_KEY) {
+            // Fast path: no normalization, no substring, no boxing.
+            if (VDBG) log("Trying to lookup packed key " + packedKey);
+
+            entry = suffixIndex.get(packedKey);
         } else {
             final String normalizedNumber = PhoneNumberUtils.normalizeNumber(number);
             final int length = normalizedNumber.length();
@@ -331,6 +659,18 @@ public class CallerInfoCache {
         return entry;
     }
 
+    /* package */ void dump(PrintWriter pw) {
+        pw.println("CallerInfoCache:");
+        pw.println("  SIP/other entries: " + mNumberToEntry.size());
+        final CallerInfoSuffixIndex suffixIndex = mSuffixIndex;
+        if (suffixIndex != null) {
+            pw.println("  suffix index entries: " + suffixIndex.size());
+        }
+        pw.println("  full refreshes: " + mFullRefreshCount);
+        pw.println("  incremental refreshes: " + mIncrementalRefreshCount
+                + " (rows applied: " + mIncrementalRowCount + ")");
+    }
+
     private static void log(String msg) {
         Log.d(LOG_TAG, msg);
     }
@@ -39,7 +39,11 @@ public class CallerInfoCacheUpdateReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
         if (DBG) log("CallerInfoCacheUpdateReceiver#onReceive(). Intent: " + intent);
-        PhoneGlobals.getInstance().callerInfoCache.startAsyncCache();
+        final CallerInfoCache cache = PhoneGlobals.getInstance().callerInfoCache;
+        if (cache != null) {
+            // Otherwise the cache is still being created at startup and will refresh anyway.
+            cache.startAsyncCache();
+        }
     }
 
     private static void log(String msg) {
@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.telephony.PhoneNumberUtils;
+
+import java.util.HashMap;
+
+/**
+ * Immutable, primitive backing store for the PSTN part of {@link CallerInfoCache}.
+ *
+ * The last (up to) 7 digits of a normalized number are packed into an int, which is used as the
+ * key of an open-addressing int table. Values live in parallel primitive arrays (an interned
+ * ringtone and a voicemail flag per slot); the {@link CallerInfoCache.CacheEntry} handed out for
+ * a hit is one of the few shared per ringtone/voicemail pair, so a lookup neither allocates nor
+ * creates garbage, and the index holds no object per number.
+ *
+ * Numbers which can't be packed (SIP addresses, short numbers starting with '+') are not handled
+ * here; {@link #canIndex(String)} tells them apart, and {@link #build} leaves them out.
+ */
+/* package */ final class CallerInfoSuffixIndex {
+    /** Returned by {@link #packSuffix(CharSequence)} when the number can't be packed. */
+    public static final int NO_KEY = 0;
+
+    private static final int SUFFIX_LENGTH = 7;
+    private static final int LENGTH_SHIFT = 24; // 10^7 < 2^24
+
+    // Keypad letter to digit mapping, same as PhoneNumberUtils.convertKeypadLettersToDigits().
+    private static final char[] KEYPAD_DIGITS = {
+        '2', '2', '2', '3', '3', '3', '4', '4', '4', '5', '5', '5', '6', '6', '6',
+        '7', '7', '7', '7', '8', '8', '8', '9', '9', '9', '9'
+    };
+
+    private final int[] mKeys;
+    private final String[] mRingtones;
+    private final boolean[] mSendToVoicemail;
+    // The shared entries handed out by get(), by interned ringtone (null included).
+    private final HashMap<String, CallerInfoCache.CacheEntry> mRingEntries =
+            new HashMap<String, CallerInfoCache.CacheEntry>();
+    private final HashMap<String, CallerInfoCache.CacheEntry> mVoicemailEntries =
+            new HashMap<String, CallerInfoCache.CacheEntry>();
+    private final int mMask;
+    private final int mSize;
+
+    private CallerInfoSuffixIndex(int expectedSize) {
+        // Keep the load factor at or below 0.5 so that probe sequences stay short.
+        int capacity = 4;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        mKeys = new int[capacity];
+        mRingtones = new String[capacity];
+        mSendToVoicemail = new boolean[capacity];
+        mMask = capacity - 1;
+        mSize = expectedSize;
+    }
+
+    /**
+     * Builds an index from the PSTN keys of the given map. SIP addresses and keys which can't be
+     * packed are skipped; callers are expected to keep them elsewhere.
+     */
+    public static CallerInfoSuffixIndex build(HashMap<String, CallerInfoCache.CacheEntry> map) {
+        int count = 0;
+        for (String key : map.keySet()) {
+            if (canIndex(key)) {
+                count++;
+            }
+        }
+
+        final CallerInfoSuffixIndex index = new CallerInfoSuffixIndex(count);
+        final HashMap<String, String> ringtones = new HashMap<String, String>();
+        for (HashMap.Entry<String, CallerInfoCache.CacheEntry> e : map.entrySet()) {
+            if (!canIndex(e.getKey())) {
+                continue;
+            }
+            final CallerInfoCache.CacheEntry value = e.getValue();
+            String ringtone = value.customRingtone;
+            if (ringtone != null) {
+                final String interned = ringtones.get(ringtone);
+                if (interned == null) {
+                    ringtones.put(ringtone, ringtone);
+                } else {
+                    ringtone = interned;
+                }
+            }
+            index.put(packPstnSuffix(e.getKey()), ringtone, value.sendToVoicemail);
+        }
+        return index;
+    }
+
+    /**
+     * @return whether the key of a {@link CallerInfoCache} entry goes into an index, i.e. it is
+     * neither a SIP address nor a number {@link #packSuffix} can't pack
+     */
+    public static boolean canIndex(String key) {
+        return !PhoneNumberUtils.isUriNumber(key) && packPstnSuffix(key) != NO_KEY;
+    }
+
+    private void put(int key, String ringtone, boolean sendToVoicemail) {
+        int slot = mix(key) & mMask;
+        while (mKeys[slot] != NO_KEY && mKeys[slot] != key) {
+            slot = (slot + 1) & mMask;
+        }
+        mKeys[slot] = key;
+        mRingtones[slot] = ringtone;
+        mSendToVoicemail[slot] = sendToVoicemail;
+        final HashMap<String, CallerInfoCache.CacheEntry> entries =
+                sendToVoicemail ? mVoicemailEntries : mRingEntries;
+        if (!entries.containsKey(ringtone)) {
+            entries.put(ringtone, new CallerInfoCache.CacheEntry(ringtone, sendToVoicemail));
+        }
+    }
+
+    private int find(int key) {
+        if (key == NO_KEY) {
+            return -1;
+        }
+        int slot = mix(key) & mMask;
+        while (true) {
+            final int k = mKeys[slot];
+            if (k == key) {
+                return slot;
+            }
+            if (k == NO_KEY) {
+                return -1;
+            }
+            slot = (slot + 1) & mMask;
+        }
+    }
+
+    /**
+     * @return the shared CacheEntry for the packed key, or null if there's none.
+     */
+    public CallerInfoCache.CacheEntry get(int key) {
+        final int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        return (mSendToVoicemail[slot] ? mVoicemailEntries : mRingEntries).get(mRingtones[slot]);
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Packs the last (up to) 7 digits of the number into an int without allocating, following
+     * the same rules as {@link android.telephony.PhoneNumberUtils#normalizeNumber(String)}:
+     * separators are ignored and keypad letters are converted to digits.
+     *
+     * @return the packed key, or {@link #NO_KEY} if the number is a SIP address (contains '@' or
+     * ':'), has no digits, or is shorter than 7 digits and starts with '+' (normalization would
+     * keep the '+' in the key).
+     */
+    public static int packSuffix(CharSequence number) {
+        if (number == null) {
+            return NO_KEY;
+        }
+        final int length = number.length();
+        for (int i = 0; i < length; i++) {
+            final char c = number.charAt(i);
+            if (c == '@' || c == ':') {
+                return NO_KEY;
+            }
+        }
+        return packPstnSuffix(number);
+    }
+
+    /**
+     * Same as {@link #packSuffix(CharSequence)} for a number the caller already knows isn't a
+     * SIP address, e.g. after {@link PhoneNumberUtils#isUriNumber}; doesn't look for '@' again.
+     */
+    public static int packPstnSuffix(CharSequence number) {
+        int value = 0;
+        int multiplier = 1;
+        int digits = 0;
+        boolean leadingPlus = false;
+        for (int i = number.length() - 1; i >= 0 && digits < SUFFIX_LENGTH; i--) {
+            final char c = number.charAt(i);
+            int digit = Character.digit(c, 10);
+            if (digit == -1) {
+                if (c >= 'a' && c <= 'z') {
+                    digit = KEYPAD_DIGITS[c - 'a'] - '0';
+                } else if (c >= 'A' && c <= 'Z') {
+                    digit = KEYPAD_DIGITS[c - 'A'] - '0';
+                } else {
+                    if (i == 0 && c == '+') {
+                        leadingPlus = true;
+                    }
+                    continue;
+                }
+            }
+            value += digit * multiplier;
+            multiplier *= 10;
+            digits++;
+        }
+        if (digits == 0 || (leadingPlus && digits < SUFFIX_LENGTH)) {
+            return NO_KEY;
+        }
+        // Encode the digit count as well so that "0012" and "12" stay distinct.
+        return (digits << LENGTH_SHIFT) | value;
+    }
+
+    private static int mix(int key) {
+        // Fibonacci hashing; the low bits of packed suffixes are far from uniform.
+        final int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
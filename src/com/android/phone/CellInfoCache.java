@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.CellInfo;
+import android.telephony.CellLocation;
+import android.telephony.NeighboringCellInfo;
+import android.telephony.PhoneStateListener;
+import android.telephony.ServiceState;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Short-lived cache for the cell location, neighboring cell and cell info queries of
+ * {@link PhoneInterfaceManager} and {@link MSimPhoneInterfaceManager}, so apps polling them
+ * in a loop don't wake the modem on every call.
+ *
+ * Results are kept per subscription for a freshness window (persist.phone.cell_info_ttl, in
+ * ms; 0 disables caching) and dropped as soon as the service state or the cell location of
+ * that subscription changes. Only one radio query per subscription and kind is in flight at a
+ * time; callers arriving meanwhile wait for its result instead of issuing their own.
+ *
+ * Callers always get their own copy of the cached value.
+ */
+/* package */ final class CellInfoCache {
+    private static final String LOG_TAG = "CellInfoCache";
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    private static final long TTL = SystemProperties.getLong("persist.phone.cell_info_ttl", 2000);
+
+    /** Fetches a value from the radio; returns null if there is nothing worth caching. */
+    /* package */ interface Loader<T> {
+        T load();
+    }
+
+    private static final class Slot<T> {
+        final String name;
+        T value;
+        long time;
+        boolean valid;
+        boolean loading;
+        int generation;
+
+        // Statistics, guarded by the slot.
+        int hits;
+        int coalesced;
+        int loads;
+
+        Slot(String name) {
+            this.name = name;
+        }
+    }
+
+    private static final class Entry {
+        final Slot<Bundle> cellLocation = new Slot<Bundle>("cellLocation");
+        final Slot<List<NeighboringCellInfo>> neighboringCells =
+                new Slot<List<NeighboringCellInfo>>("neighboringCellInfo");
+        final Slot<List<CellInfo>> allCellInfo = new Slot<List<CellInfo>>("allCellInfo");
+
+        Slot<?>[] slots() {
+            return new Slot<?>[] { cellLocation, neighboringCells, allCellInfo };
+        }
+    }
+
+    private final SparseArray<Entry> mEntries = new SparseArray<Entry>();
+    private int mInvalidations;
+
+    /**
+     * @return a listener that invalidates the entries of the given subscription; register it
+     * for {@link PhoneStateListener#LISTEN_SERVICE_STATE} and
+     * {@link PhoneStateListener#LISTEN_CELL_LOCATION}.
+     */
+    /* package */ PhoneStateListener newInvalidationListener(int subscription) {
+        return new PhoneStateListener(subscription) {
+            @Override
+            public void onServiceStateChanged(ServiceState serviceState) {
+                invalidate(mSubscription);
+            }
+
+            @Override
+            public void onCellLocationChanged(CellLocation location) {
+                invalidate(mSubscription);
+            }
+        };
+    }
+
+    /* package */ Bundle getCellLocation(int subscription, Loader<Bundle> loader) {
+        final Bundle data = get(getEntry(subscription).cellLocation, loader);
+        return data != null ? new Bundle(data) : null;
+    }
+
+    /* package */ List<NeighboringCellInfo> getNeighboringCellInfo(int subscription,
+            Loader<List<NeighboringCellInfo>> loader) {
+        final List<NeighboringCellInfo> cells = get(getEntry(subscription).neighboringCells,
+                loader);
+        return cells != null ? new ArrayList<NeighboringCellInfo>(cells) : null;
+    }
+
+    /* package */ List<CellInfo> getAllCellInfo(int subscription, Loader<List<CellInfo>> loader) {
+        final List<CellInfo> cells = get(getEntry(subscription).allCellInfo, loader);
+        return cells != null ? new ArrayList<CellInfo>(cells) : null;
+    }
+
+    /**
+     * Drops everything cached for the subscription. Queries in flight still hand their result
+     * to the callers waiting for them, but it isn't kept.
+     */
+    /* package */ void invalidate(int subscription) {
+        final Entry entry = getEntry(subscription);
+        for (Slot<?> slot : entry.slots()) {
+            synchronized (slot) {
+                slot.valid = false;
+                slot.generation++;
+            }
+        }
+        synchronized (this) {
+            mInvalidations++;
+        }
+        if (DBG) log("invalidate: sub=" + subscription);
+    }
+
+    private synchronized Entry getEntry(int subscription) {
+        Entry entry = mEntries.get(subscription);
+        if (entry == null) {
+            entry = new Entry();
+            mEntries.put(subscription, entry);
+        }
+        return entry;
+    }
+
+    private static <T> T get(Slot<T> slot, Loader<T> loader) {
+        final int generation;
+        synchronized (slot) {
+            if (slot.valid && SystemClock.elapsedRealtime() - slot.time < TTL) {
+                slot.hits++;
+                return slot.value;
+            }
+            if (slot.loading) {
+                final int loading = slot.loads;
+                while (slot.loading && slot.loads == loading) {
+                    try {
+                        slot.wait();
+                    } catch (InterruptedException e) {
+                        // Do nothing, go back and wait until the query is complete
+                    }
+                }
+                slot.coalesced++;
+                return slot.value;
+            }
+            slot.loading = true;
+            generation = slot.generation;
+        }
+
+        T value = null;
+        try {
+            value = loader.load();
+        } finally {
+            synchronized (slot) {
+                slot.loading = false;
+                slot.loads++;
+                slot.value = value;
+                slot.time = SystemClock.elapsedRealtime();
+                // A result that raced with an invalidation is handed to the waiting callers but
+                // not served to later ones.
+                slot.valid = value != null && slot.generation == generation;
+                slot.notifyAll();
+            }
+        }
+        return value;
+    }
+
+    /* package */ void dump(PrintWriter pw, String prefix) {
+        final int[] subscriptions;
+        final Entry[] entries;
+        synchronized (this) {
+            pw.println(prefix + "ttl=" + TTL + "ms invalidations=" + mInvalidations);
+            subscriptions = new int[mEntries.size()];
+            entries = new Entry[mEntries.size()];
+            for (int i = 0; i < entries.length; i++) {
+                subscriptions[i] = mEntries.keyAt(i);
+                entries[i] = mEntries.valueAt(i);
+            }
+        }
+        for (int i = 0; i < entries.length; i++) {
+            final int subscription = subscriptions[i];
+            for (Slot<?> slot : entries[i].slots()) {
+                synchronized (slot) {
+                    pw.println(prefix + "sub" + subscription + " " + slot.name
+                            + ": radioCalls=" + slot.loads
+                            + " hits=" + slot.hits
+                            + " coalesced=" + slot.coalesced
+                            + " radioCallsAvoided=" + (slot.hits + slot.coalesced));
+                }
+            }
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
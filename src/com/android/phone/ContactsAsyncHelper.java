@@ -19,25 +19,38 @@ package com.android.phone;
 import android.app.Notification;
 import android.content.ContentUris;
 import android.content.Context;
+import android.content.res.Resources;
 import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Handler;
-import android.os.HandlerThread;
-import android.os.Looper;
 import android.os.Message;
+import android.os.Process;
+import android.os.SystemClock;
 import android.provider.ContactsContract.Contacts;
+import android.util.DisplayMetrics;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.telephony.CallerInfo;
 import com.android.internal.telephony.Connection;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Helper class for loading contacts photo asynchronously.
+ *
+ * Loads run on a small pool of worker threads. Each request has a priority lane (the call
+ * being shown first, notification icons last), requests for the same photo are coalesced into
+ * one load, and requests can be cancelled when the caller no longer needs the result.
  */
 public class ContactsAsyncHelper {
 
@@ -66,20 +79,75 @@ public class ContactsAsyncHelper {
     // constants
     private static final int EVENT_LOAD_IMAGE = 1;
 
+    /** Priority lanes, highest first. */
+    public static final int PRIORITY_FOREGROUND = 0;
+    public static final int PRIORITY_CONFERENCE = 1;
+    public static final int PRIORITY_NOTIFICATION = 2;
+    private static final int NUM_PRIORITIES = 3;
+
+    private static final int NUM_WORKERS = 2;
+
+    /** Upper bound of the photo cache, in bytes of decoded pixels. */
+    private static final int MAX_PHOTO_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Cached photos are dropped after this long, so that a photo changed in Contacts shows up
+     * on the next call from that person.
+     */
+    private static final long PHOTO_CACHE_MAX_AGE = 10 * 60 * 1000; // 10 minutes in millis.
+
+    /**
+     * Decoded photo and notification icon for one contact, at the size they were requested.
+     * The Bitmaps are shared; each request gets its own Drawable wrapping them.
+     */
+    private static final class CachedPhoto {
+        public final Bitmap photo;
+        public final Bitmap photoIcon;
+        public final long loadTime;
+
+        public CachedPhoto(Bitmap photo, Bitmap photoIcon) {
+            this.photo = photo;
+            this.photoIcon = photoIcon;
+            this.loadTime = SystemClock.elapsedRealtime();
+        }
+
+        public int getByteCount() {
+            int bytes = photo.getByteCount();
+            if (photoIcon != null && photoIcon != photo) {
+                bytes += photoIcon.getByteCount();
+            }
+            return bytes;
+        }
+    }
+
+    /** Keyed by {@link #getPhotoCacheKey(Uri, int)}. */
+    private static final LruCache<String, CachedPhoto> sPhotoCache =
+            new LruCache<String, CachedPhoto>(MAX_PHOTO_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, CachedPhoto value) {
+            return value.getByteCount();
+        }
+    };
+
     private final Handler mResultHandler = new Handler() {
         /** Called when loading is done. */
         @Override
         public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-            switch (msg.arg1) {
+            switch (msg.what) {
                 case EVENT_LOAD_IMAGE:
-                    if (args.listener != null) {
+                    Request request = (Request) msg.obj;
+                    // Cancellation happens on this thread too, so this check is final.
+                    if (request.mCancelled) {
+                        if (DBG) Log.d(LOG_TAG, "Dropping cancelled result: " + request.mUri);
+                        break;
+                    }
+                    if (request.mListener != null) {
                         if (DBG) {
-                            Log.d(LOG_TAG, "Notifying listener: " + args.listener.toString() +
-                                    " image: " + args.uri + " completed");
+                            Log.d(LOG_TAG, "Notifying listener: " + request.mListener.toString() +
+                                    " image: " + request.mUri + " completed");
                         }
-                        args.listener.onImageLoadComplete(msg.what, args.photo, args.photoIcon,
-                                args.cookie);
+                        request.mListener.onImageLoadComplete(request.mToken, request.mPhoto,
+                                request.mPhotoIcon, request.mCookie);
                     }
                     break;
                 default:
@@ -87,8 +155,19 @@ public class ContactsAsyncHelper {
         }
     };
 
-    /** Handler run on a worker thread to load photo asynchronously. */
-    private static Handler sThreadHandler;
+    /** Guards {@link #sLanes} and {@link #sInFlight}. */
+    private static final Object sLock = new Object();
+
+    /** Jobs waiting for a worker, one queue per priority. */
+    @SuppressWarnings("unchecked")
+    private static final ArrayDeque<LoadJob>[] sLanes = new ArrayDeque[NUM_PRIORITIES];
+
+    /** Jobs queued or running, keyed by photo cache key, for coalescing duplicates. */
+    private static final HashMap<String, LoadJob> sInFlight = new HashMap<String, LoadJob>();
+
+    // Counters, only for dump().
+    private static int sCoalescedCount;
+    private static int sCancelledCount;
 
     /** For forcing the system to call its constructor */
     @SuppressWarnings("unused")
@@ -98,13 +177,71 @@ public class ContactsAsyncHelper {
         sInstance = new ContactsAsyncHelper();
     }
 
-    private static final class WorkerArgs {
-        public Context context;
-        public Uri uri;
-        public Drawable photo;
-        public Bitmap photoIcon;
-        public Object cookie;
-        public OnImageLoadCompleteListener listener;
+    /**
+     * One photo load, shared by every {@link Request} for the same photo.
+     */
+    private static final class LoadJob {
+        public final Context context;
+        public final Uri uri;
+        public final String key;
+        public final int photoSize;
+        public int priority;
+        public boolean started;
+        public final ArrayList<Request> requests = new ArrayList<Request>(1);
+
+        public LoadJob(Context context, Uri uri, String key, int photoSize, int priority) {
+            this.context = context;
+            this.uri = uri;
+            this.key = key;
+            this.photoSize = photoSize;
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Handle for a pending photo load, returned by {@link #startObtainPhotoAsync}.
+     * Must be used from the main thread.
+     */
+    public static final class Request {
+        private final int mToken;
+        private final Uri mUri;
+        private final OnImageLoadCompleteListener mListener;
+        private final Object mCookie;
+        private LoadJob mJob;
+        private Drawable mPhoto;
+        private Bitmap mPhotoIcon;
+        private volatile boolean mCancelled;
+
+        private Request(int token, Uri uri, OnImageLoadCompleteListener listener,
+                Object cookie) {
+            mToken = token;
+            mUri = uri;
+            mListener = listener;
+            mCookie = cookie;
+        }
+
+        /**
+         * Makes sure the listener won't be called for this request. If no one else waits for
+         * the same photo and the load hasn't started yet, the load is dropped as well.
+         */
+        public void cancel() {
+            if (mCancelled) {
+                return;
+            }
+            mCancelled = true;
+            synchronized (sLock) {
+                sCancelledCount++;
+                final LoadJob job = mJob;
+                if (job == null) {
+                    return;
+                }
+                job.requests.remove(this);
+                if (job.requests.isEmpty() && !job.started) {
+                    sLanes[job.priority].remove(job);
+                    sInFlight.remove(job.key);
+                }
+            }
+        }
     }
 
     /**
@@ -126,6 +263,7 @@ public class ContactsAsyncHelper {
         // State of the image on the imageview.
         private CallerInfo mCurrentCallerInfo;
         private int displayMode;
+        private Request mPendingRequest;
 
         public ImageTracker() {
             mCurrentCallerInfo = null;
@@ -163,12 +301,26 @@ public class ContactsAsyncHelper {
         }
 
         /**
-         * Simple setter for the CallerInfo object.
+         * Simple setter for the CallerInfo object. A pending load for the previous
+         * CallerInfo is cancelled, since its result isn't wanted anymore.
          */
         public void setPhotoRequest(CallerInfo ci) {
+            if (ci != mCurrentCallerInfo) {
+                setPendingRequest(null);
+            }
             mCurrentCallerInfo = ci;
         }
 
+        /**
+         * Remembers the load started for the current CallerInfo, cancelling the previous one.
+         */
+        public void setPendingRequest(Request request) {
+            if (mPendingRequest != null && mPendingRequest != request) {
+                mPendingRequest.cancel();
+            }
+            mPendingRequest = request;
+        }
+
         /**
          * Convenience method used to retrieve the URI
          * representing the Photo file recorded in the attached
@@ -198,113 +350,268 @@ public class ContactsAsyncHelper {
     }
 
     /**
-     * Thread worker class that handles the task of opening the stream and loading
-     * the images.
+     * Worker thread that takes the highest priority job, opens the stream and loads the image.
      */
-    private class WorkerHandler extends Handler {
-        public WorkerHandler(Looper looper) {
-            super(looper);
+    private class PhotoWorker extends Thread {
+        public PhotoWorker(int index) {
+            super("ContactsAsyncWorker-" + index);
         }
 
         @Override
-        public void handleMessage(Message msg) {
-            WorkerArgs args = (WorkerArgs) msg.obj;
-
-            switch (msg.arg1) {
-                case EVENT_LOAD_IMAGE:
-                    InputStream inputStream = null;
-                    try {
-                        try {
-                            inputStream = Contacts.openContactPhotoInputStream(
-                                    args.context.getContentResolver(), args.uri, true);
-                        } catch (Exception e) {
-                            Log.e(LOG_TAG, "Error opening photo input stream", e);
-                        }
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            while (true) {
+                final LoadJob job;
+                try {
+                    job = takeJob();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                processJob(job);
+            }
+        }
 
-                        if (inputStream != null) {
-                            args.photo = Drawable.createFromStream(inputStream,
-                                    args.uri.toString());
-
-                            // This assumes Drawable coming from contact database is usually
-                            // BitmapDrawable and thus we can have (down)scaled version of it.
-                            args.photoIcon = getPhotoIconWhenAppropriate(args.context, args.photo);
-
-                            if (DBG) {
-                                Log.d(LOG_TAG, "Loading image: " + msg.arg1 +
-                                        " token: " + msg.what + " image URI: " + args.uri);
-                            }
-                        } else {
-                            args.photo = null;
-                            args.photoIcon = null;
-                            if (DBG) {
-                                Log.d(LOG_TAG, "Problem with image: " + msg.arg1 +
-                                        " token: " + msg.what + " image URI: " + args.uri +
-                                        ", using default image.");
-                            }
-                        }
-                    } finally {
-                        if (inputStream != null) {
-                            try {
-                                inputStream.close();
-                            } catch (IOException e) {
-                                Log.e(LOG_TAG, "Unable to close input stream.", e);
-                            }
-                        }
-                    }
-                    break;
-                default:
+        private void processJob(LoadJob job) {
+            CachedPhoto cached = getFreshCachedPhoto(job.key);
+            if (cached == null) {
+                cached = loadPhoto(job.context, job.uri, job.photoSize);
+                if (cached != null) {
+                    sPhotoCache.put(job.key, cached);
+                }
+            }
+            if (DBG) {
+                Log.d(LOG_TAG, (cached != null ? "Loaded image: " : "Problem with image: ")
+                        + job.uri + " priority: " + job.priority);
             }
 
-            // send the reply to the enclosing class.
-            Message reply = ContactsAsyncHelper.this.mResultHandler.obtainMessage(msg.what);
-            reply.arg1 = msg.arg1;
-            reply.obj = msg.obj;
-            reply.sendToTarget();
+            final Request[] requests;
+            synchronized (sLock) {
+                sInFlight.remove(job.key);
+                requests = job.requests.toArray(new Request[job.requests.size()]);
+            }
+            for (Request request : requests) {
+                deliver(request, cached);
+            }
         }
 
+        /** Buffer for the encoded photo; only touched on this worker's thread. */
+        private final ByteArrayOutputStream mEncoded = new ByteArrayOutputStream(32 * 1024);
+        private final byte[] mReadBuffer = new byte[8 * 1024];
+
         /**
-         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
-         * return null when the given Drawable isn't BitmapDrawable, or if the system fails to
-         * create a scaled Bitmap for the Drawable.
+         * Intermediate, never handed out, bitmap used with {@link BitmapFactory.Options#inBitmap}
+         * when sampling the notification icon, so that repeated icon decodes don't allocate.
+         */
+        private Bitmap mIconScratch;
+
+        /**
+         * Decodes the contact photo sampled down to (about) the given size, plus the notification
+         * icon sampled from the same encoded bytes. Returns null if there's no photo.
          */
-        private Bitmap getPhotoIconWhenAppropriate(Context context, Drawable photo) {
-            if (!(photo instanceof BitmapDrawable)) {
+        private CachedPhoto loadPhoto(Context context, Uri uri, int photoSize) {
+            InputStream inputStream = null;
+            try {
+                inputStream = Contacts.openContactPhotoInputStream(
+                        context.getContentResolver(), uri, true);
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Error opening photo input stream", e);
+            }
+            if (inputStream == null) {
+                return null;
+            }
+
+            mEncoded.reset();
+            try {
+                int count;
+                while ((count = inputStream.read(mReadBuffer)) > 0) {
+                    mEncoded.write(mReadBuffer, 0, count);
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error reading photo input stream", e);
+                return null;
+            } finally {
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Unable to close input stream.", e);
+                }
+            }
+            final byte[] data = mEncoded.toByteArray();
+
+            final BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+            if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+                Log.w(LOG_TAG, "Unable to decode photo bounds: " + uri);
                 return null;
             }
+            final int longerEdge = Math.max(bounds.outWidth, bounds.outHeight);
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = getSampleSize(longerEdge, photoSize);
+            final Bitmap photo = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            if (photo == null) {
+                return null;
+            }
+            final Bitmap photoIcon = getPhotoIconWhenAppropriate(context, photo, data, longerEdge);
+            return new CachedPhoto(photo, photoIcon);
+        }
+
+        /**
+         * Returns a Bitmap object suitable for {@link Notification}'s large icon. This might
+         * return null if the system fails to create a scaled Bitmap for the photo.
+         */
+        private Bitmap getPhotoIconWhenAppropriate(Context context, Bitmap photo, byte[] data,
+                int longerEdge) {
             int iconSize = context.getResources()
                     .getDimensionPixelSize(R.dimen.notification_icon_size);
-            Bitmap orgBitmap = ((BitmapDrawable) photo).getBitmap();
-            int orgWidth = orgBitmap.getWidth();
-            int orgHeight = orgBitmap.getHeight();
-            int longerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
+            int orgWidth = photo.getWidth();
+            int orgHeight = photo.getHeight();
+            int photoLongerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
             // We want downscaled one only when the original icon is too big.
-            if (longerEdge > iconSize) {
-                float ratio = ((float) longerEdge) / iconSize;
-                int newWidth = (int) (orgWidth / ratio);
-                int newHeight = (int) (orgHeight / ratio);
-                // If the longer edge is much longer than the shorter edge, the latter may
-                // become 0 which will cause a crash.
-                if (newWidth <= 0 || newHeight <= 0) {
-                    Log.w(LOG_TAG, "Photo icon's width or height become 0.");
-                    return null;
+            if (photoLongerEdge <= iconSize) {
+                return photo;
+            }
+
+            // Sample from the encoded data first so that the final scale works on a bitmap
+            // close to the icon size instead of the full photo.
+            Bitmap source = photo;
+            final int sampleSize = getSampleSize(longerEdge, iconSize);
+            if (longerEdge / sampleSize < photoLongerEdge) {
+                final BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inSampleSize = sampleSize;
+                options.inMutable = true;
+                options.inBitmap = mIconScratch;
+                Bitmap sampled = null;
+                try {
+                    sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                } catch (IllegalArgumentException e) {
+                    // The scratch bitmap can't be reused for this one; decode without it.
+                    options.inBitmap = null;
+                    sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+                }
+                if (sampled != null) {
+                    mIconScratch = sampled;
+                    source = sampled;
                 }
+            }
 
-                // It is sure ratio >= 1.0f in any case and thus the newly created Bitmap
-                // should be smaller than the original.
-                return Bitmap.createScaledBitmap(orgBitmap, newWidth, newHeight, true);
-            } else {
-                return orgBitmap;
+            orgWidth = source.getWidth();
+            orgHeight = source.getHeight();
+            int sourceLongerEdge = orgWidth > orgHeight ? orgWidth : orgHeight;
+            float ratio = ((float) sourceLongerEdge) / iconSize;
+            int newWidth = (int) (orgWidth / ratio);
+            int newHeight = (int) (orgHeight / ratio);
+            // If the longer edge is much longer than the shorter edge, the latter may
+            // become 0 which will cause a crash.
+            if (newWidth <= 0 || newHeight <= 0) {
+                Log.w(LOG_TAG, "Photo icon's width or height become 0.");
+                return null;
+            }
+
+            // Always copy out of the scratch bitmap: it is reused by the next decode.
+            return Bitmap.createScaledBitmap(source, newWidth, newHeight, true);
+        }
+    }
+
+    /**
+     * @return the largest power of two sample size which keeps the longer edge at or above
+     * the target size.
+     */
+    private static int getSampleSize(int longerEdge, int targetSize) {
+        int sampleSize = 1;
+        while (targetSize > 0 && longerEdge / (sampleSize * 2) >= targetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * The in-call photo never needs more pixels than the screen's longer edge.
+     */
+    private static int getPhotoTargetSize(Context context) {
+        final DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    private static String getPhotoCacheKey(Uri uri, int photoSize) {
+        return uri.toString() + '@' + photoSize;
+    }
+
+    /* package */ static void dump(PrintWriter pw) {
+        pw.println("ContactsAsyncHelper photo cache:");
+        pw.println("  size: " + sPhotoCache.size() + "/" + sPhotoCache.maxSize() + " bytes");
+        pw.println("  hits: " + sPhotoCache.hitCount() + ", misses: " + sPhotoCache.missCount()
+                + ", evictions: " + sPhotoCache.evictionCount());
+        synchronized (sLock) {
+            pw.println("  queued: foreground=" + sLanes[PRIORITY_FOREGROUND].size()
+                    + " conference=" + sLanes[PRIORITY_CONFERENCE].size()
+                    + " notification=" + sLanes[PRIORITY_NOTIFICATION].size()
+                    + ", in flight: " + sInFlight.size());
+            pw.println("  coalesced: " + sCoalescedCount + ", cancelled: " + sCancelledCount);
+        }
+    }
+
+    /**
+     * Blocks until a job is available and returns the one with the highest priority.
+     */
+    private static LoadJob takeJob() throws InterruptedException {
+        synchronized (sLock) {
+            while (true) {
+                for (int priority = 0; priority < NUM_PRIORITIES; priority++) {
+                    final LoadJob job = sLanes[priority].poll();
+                    if (job != null) {
+                        job.started = true;
+                        return job;
+                    }
+                }
+                sLock.wait();
             }
         }
     }
 
+    private static CachedPhoto getFreshCachedPhoto(String key) {
+        final CachedPhoto cached = sPhotoCache.get(key);
+        if (cached != null && SystemClock.elapsedRealtime() - cached.loadTime
+                > PHOTO_CACHE_MAX_AGE) {
+            sPhotoCache.remove(key);
+            return null;
+        }
+        return cached;
+    }
+
+    /**
+     * Hands the result to the main thread. Each request gets its own Drawable.
+     */
+    private static void deliver(Request request, CachedPhoto cached) {
+        if (cached != null) {
+            // Same kind of Drawable as Drawable.createFromStream() would return.
+            request.mPhoto = new BitmapDrawable((Resources) null, cached.photo);
+            request.mPhotoIcon = cached.photoIcon;
+        }
+        sInstance.mResultHandler.obtainMessage(EVENT_LOAD_IMAGE, request).sendToTarget();
+    }
+
     /**
      * Private constructor for static class
      */
     private ContactsAsyncHelper() {
-        HandlerThread thread = new HandlerThread("ContactsAsyncWorker");
-        thread.start();
-        sThreadHandler = new WorkerHandler(thread.getLooper());
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            sLanes[i] = new ArrayDeque<LoadJob>();
+        }
+        for (int i = 0; i < NUM_WORKERS; i++) {
+            new PhotoWorker(i).start();
+        }
+    }
+
+    /**
+     * Same as {@link #startObtainPhotoAsync(int, Context, Uri, OnImageLoadCompleteListener,
+     * Object, int)} with {@link #PRIORITY_FOREGROUND}.
+     */
+    public static final Request startObtainPhotoAsync(int token, Context context, Uri personUri,
+            OnImageLoadCompleteListener listener, Object cookie) {
+        return startObtainPhotoAsync(token, context, personUri, listener, cookie,
+                PRIORITY_FOREGROUND);
     }
 
     /**
@@ -322,37 +629,57 @@ public class ContactsAsyncHelper {
      * @param cookie Arbitrary object the caller wants to remember, which will become the
      * fourth argument of {@link OnImageLoadCompleteListener#onImageLoadComplete(int, Drawable,
      * Bitmap, Object)}. Can be null, at which the callback will also has null for the argument.
+     * @param priority One of {@link #PRIORITY_FOREGROUND}, {@link #PRIORITY_CONFERENCE} or
+     * {@link #PRIORITY_NOTIFICATION}.
+     * @return handle which can be used to cancel the request, or null if personUri is null.
      */
-    public static final void startObtainPhotoAsync(int token, Context context, Uri personUri,
-            OnImageLoadCompleteListener listener, Object cookie) {
+    public static final Request startObtainPhotoAsync(int token, Context context, Uri personUri,
+            OnImageLoadCompleteListener listener, Object cookie, int priority) {
         // in case the source caller info is null, the URI will be null as well.
         // just update using the placeholder image in this case.
         if (personUri == null) {
             Log.wtf(LOG_TAG, "Uri is missing");
-            return;
+            return null;
+        }
+        if (priority < 0 || priority >= NUM_PRIORITIES) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
         }
 
-        // Added additional Cookie field in the callee to handle arguments
-        // sent to the callback function.
-
-        // setup arguments
-        WorkerArgs args = new WorkerArgs();
-        args.cookie = cookie;
-        args.context = context;
-        args.uri = personUri;
-        args.listener = listener;
+        final Request request = new Request(token, personUri, listener, cookie);
+        final int photoSize = getPhotoTargetSize(context);
+        final String key = getPhotoCacheKey(personUri, photoSize);
+
+        // Recently loaded photos don't need a worker at all; still reply asynchronously
+        // like before.
+        final CachedPhoto cached = getFreshCachedPhoto(key);
+        if (cached != null) {
+            if (DBG) Log.d(LOG_TAG, "Image cached: " + personUri);
+            deliver(request, cached);
+            return request;
+        }
 
-        // setup message arguments
-        Message msg = sThreadHandler.obtainMessage(token);
-        msg.arg1 = EVENT_LOAD_IMAGE;
-        msg.obj = args;
+        synchronized (sLock) {
+            LoadJob job = sInFlight.get(key);
+            if (job != null) {
+                // Somebody already asked for this photo; just wait for the same result.
+                sCoalescedCount++;
+                if (!job.started && priority < job.priority) {
+                    sLanes[job.priority].remove(job);
+                    job.priority = priority;
+                    sLanes[priority].add(job);
+                }
+            } else {
+                job = new LoadJob(context, personUri, key, photoSize, priority);
+                sInFlight.put(key, job);
+                sLanes[priority].add(job);
+                sLock.notify();
+            }
+            job.requests.add(request);
+            request.mJob = job;
+        }
 
-        if (DBG) Log.d(LOG_TAG, "Begin loading image: " + args.uri +
+        if (DBG) Log.d(LOG_TAG, "Begin loading image: " + personUri +
                 ", displaying default image for now.");
-
-        // notify the thread to begin working
-        sThreadHandler.sendMessage(msg);
+        return request;
     }
-
-
 }
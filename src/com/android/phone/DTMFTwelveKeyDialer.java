@@ -16,6 +16,8 @@
 
 package com.android.phone;
 
+import android.content.ClipData;
+import android.content.ClipboardManager;
 import android.content.Context;
 import android.media.AudioManager;
 import android.media.ToneGenerator;
@@ -43,8 +45,6 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.TelephonyCapabilities;
 
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Queue;
 
 
 /**
@@ -58,7 +58,6 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
 
     // events
     protected static final int PHONE_DISCONNECT = 100;
-    protected static final int DTMF_SEND_CNF = 101;
     protected static final int DTMF_STOP = 102;
 
     /** Accessibility manager instance used to check touch exploration state. */
@@ -74,11 +73,8 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
     // indicates that we are using automatically shortened DTMF tones
     boolean mShortTone;
 
-    // indicate if the confirmation from TelephonyFW is pending.
-    private boolean mDTMFBurstCnfPending = false;
-
-    // Queue to queue the short dtmf characters.
-    private Queue<Character> mDTMFQueue = new LinkedList<Character>();
+    // Queues the dtmf characters on their way to the network.
+    private final DtmfSender mDtmfSender;
 
     //  Short Dtmf tone duration
     private static final int DTMF_DURATION_MS = 120;
@@ -358,11 +354,6 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
                     mCM.unregisterForDisconnect(this);
                     closeDialer(false);
                     break;
-                case DTMF_SEND_CNF:
-                    if (DBG) log("dtmf confirmation received from FW.");
-                    // handle burst dtmf confirmation
-                    handleBurstDtmfConfirmation();
-                    break;
                 case DTMF_STOP:
                     if (DBG) log("dtmf stop received");
                     stopTone();
@@ -428,6 +419,7 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
 
         mInCallScreen = parent;
         mCM = PhoneGlobals.getInstance().mCM;
+        mDtmfSender = new DtmfSender(mCM);
         mAccessibilityManager = (AccessibilityManager) parent.getSystemService(
                 Context.ACCESSIBILITY_SERVICE);
     }
@@ -449,9 +441,16 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
             mDialerKeyListener = new DTMFKeyListener();
             mDialpadDigits.setKeyListener(mDialerKeyListener);
 
-            // remove the long-press context menus that support
-            // the edit (copy / paste / select) functions.
-            mDialpadDigits.setLongClickable(false);
+            // Replace the long-press context menus that support the edit
+            // (copy / paste / select) functions with "send the clipboard
+            // as DTMF", e.g. for a conference bridge PIN.
+            mDialpadDigits.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    sendClipboardDtmf();
+                    return true;
+                }
+            });
         }
 
         // Hook up touch / key listeners for the buttons in the onscreen
@@ -469,11 +468,7 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
         if (DBG) log("clearInCallScreenReference()...");
         mInCallScreen = null;
         mDialerKeyListener = null;
-        mHandler.removeMessages(DTMF_SEND_CNF);
-        synchronized (mDTMFQueue) {
-            mDTMFBurstCnfPending = false;
-            mDTMFQueue.clear();
-        }
+        mDtmfSender.clear();
         closeDialer(false);
     }
 
@@ -966,7 +961,7 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
 
         // For Short DTMF we need to play the local tone for fixed duration
         if (mShortTone) {
-            sendShortDtmfToNetwork(c);
+            mDtmfSender.send(c, true);
         } else {
             // Pass as a char to be sent to network
             if (DBG) log("send long dtmf for " + c);
@@ -1056,38 +1051,46 @@ public class DTMFTwelveKeyDialer implements View.OnTouchListener, View.OnKeyList
     }
 
     /**
-     * Sends the dtmf character over the network for short DTMF settings
-     * When the characters are entered in quick succession,
-     * the characters are queued before sending over the network.
+     * Sends a whole string of dtmf characters over the network, e.g. a conference PIN, and
+     * shows them in the digits field. Characters other than 0-9, * and # are skipped.
+     * Burst DTMF is used when short tones are enabled, paced discrete DTMF otherwise.
+     *
+     * @return the number of characters queued for sending
      */
-    private void sendShortDtmfToNetwork(char dtmfDigit) {
-        synchronized (mDTMFQueue) {
-            if (mDTMFBurstCnfPending == true) {
-                // Insert the dtmf char to the queue
-                mDTMFQueue.add(new Character(dtmfDigit));
-            } else {
-                String dtmfStr = Character.toString(dtmfDigit);
-                mCM.sendBurstDtmf(dtmfStr, 0, 0, mHandler.obtainMessage(DTMF_SEND_CNF));
-                // Set flag to indicate wait for Telephony confirmation.
-                mDTMFBurstCnfPending = true;
+    public int sendDtmfString(String digits) {
+        if (mInCallScreen == null || !mInCallScreen.okToDialDTMFTones()) {
+            return 0;
+        }
+        Phone phone = mCM.getFgPhone();
+        final int queued = mDtmfSender.send(digits, useShortDtmfTones(phone, phone.getContext()));
+        if (mDialpadDigits != null) {
+            for (int i = 0; i < digits.length(); i++) {
+                final char c = digits.charAt(i);
+                if (mToneMap.containsKey(c)) {
+                    mDialpadDigits.getText().append(c);
+                }
             }
         }
+        return queued;
     }
 
     /**
-     * Handles Burst Dtmf Confirmation from the Framework.
+     * Sends the text on the clipboard, if any, through {@link #sendDtmfString}.
      */
-    void handleBurstDtmfConfirmation() {
-        Character dtmfChar = null;
-        synchronized (mDTMFQueue) {
-            mDTMFBurstCnfPending = false;
-            if (!mDTMFQueue.isEmpty()) {
-                dtmfChar = mDTMFQueue.remove();
-                Log.i(LOG_TAG, "The dtmf character removed from queue" + dtmfChar);
-            }
+    private void sendClipboardDtmf() {
+        if (mInCallScreen == null) {
+            return;
+        }
+        final ClipboardManager clipboard =
+                (ClipboardManager) mInCallScreen.getSystemService(Context.CLIPBOARD_SERVICE);
+        final ClipData clip = clipboard != null ? clipboard.getPrimaryClip() : null;
+        if (clip == null || clip.getItemCount() == 0) {
+            return;
         }
-        if (dtmfChar != null) {
-            sendShortDtmfToNetwork(dtmfChar);
+        final CharSequence text = clip.getItemAt(0).coerceToText(mInCallScreen);
+        if (text != null) {
+            final int queued = sendDtmfString(text.toString());
+            if (DBG) log("sendClipboardDtmf: queued " + queued + " digits");
         }
     }
 
@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.PhoneNumberUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.CallManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Queue of DTMF digits on their way to the network, for {@link DTMFTwelveKeyDialer}.
+ *
+ * Digits are kept in a fixed-size char ring buffer, so queueing a key press or a whole string
+ * never allocates. They go out in one of two ways:
+ * <ul>
+ * <li>burst DTMF (CDMA short tones): whatever is queued while the previous burst awaits its
+ * confirmation is sent as the next burst, up to persist.phone.dtmf_burst_max digits, with
+ * persist.phone.dtmf_on_ms / persist.phone.dtmf_off_ms tone and gap lengths (0 leaves them to
+ * the network).
+ * <li>discrete DTMF (strings on GSM, or with long tones on CDMA): one digit every
+ * persist.phone.dtmf_pacing_ms. Single long-tone key presses don't come here; they are played
+ * for as long as the key is held, with startDtmf() / stopDtmf().
+ * </ul>
+ *
+ * Only used from the main thread, which is also where the confirmations arrive, so the queue
+ * needs no locking. Per-digit latency is printed by "dumpsys phone", from a binder thread; the
+ * histograms are thread-safe and the counters are volatile.
+ */
+/* package */ final class DtmfSender {
+    private static final String LOG_TAG = "DtmfSender";
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    private static final int QUEUE_CAPACITY = 128; // must be a power of two
+
+    private static final int MAX_BURST_LENGTH =
+            SystemProperties.getInt("persist.phone.dtmf_burst_max", 16);
+    private static final int ON_LENGTH = SystemProperties.getInt("persist.phone.dtmf_on_ms", 0);
+    private static final int OFF_LENGTH = SystemProperties.getInt("persist.phone.dtmf_off_ms", 0);
+    private static final int PACING = SystemProperties.getInt("persist.phone.dtmf_pacing_ms", 150);
+
+    private static final int BURST_SENT = 1;
+    private static final int SEND_NEXT = 2;
+
+    // Shared by all senders, i.e. by every in-call screen the process had.
+    private static final LatencyHistogram sQueueLatency =
+            new LatencyHistogram("digit queued -> sent");
+    private static final LatencyHistogram sBurstLatency =
+            new LatencyHistogram("burst sent -> confirmed");
+    // Only written on the main thread; volatile for dump(), which runs on a binder thread.
+    private static volatile int sDigits;
+    private static volatile int sBursts;
+    private static volatile int sDropped;
+
+    private final CallManager mCM;
+    private final char[] mQueue = new char[QUEUE_CAPACITY];
+    private final long[] mQueueTime = new long[QUEUE_CAPACITY];
+    private int mHead;
+    private int mTail;
+
+    private boolean mBurstMode;
+    private boolean mBurstPending;
+    private long mBurstSentTime;
+    private boolean mPacing;
+    private final StringBuilder mBurst = new StringBuilder(MAX_BURST_LENGTH);
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            switch (msg.what) {
+                case BURST_SENT:
+                    if (DBG) log("dtmf confirmation received from FW.");
+                    mBurstPending = false;
+                    sBurstLatency.record(SystemClock.elapsedRealtime() - mBurstSentTime);
+                    pump();
+                    break;
+                case SEND_NEXT:
+                    mPacing = false;
+                    pump();
+                    break;
+            }
+        }
+    };
+
+    /* package */ DtmfSender(CallManager cm) {
+        mCM = cm;
+    }
+
+    /**
+     * Queues one digit.
+     *
+     * @param burst true to send it as burst DTMF, false as discrete DTMF
+     * @return false if it isn't a 12-key digit or the queue is full
+     */
+    public boolean send(char c, boolean burst) {
+        mBurstMode = burst;
+        final boolean queued = enqueue(c, SystemClock.elapsedRealtime());
+        pump();
+        return queued;
+    }
+
+    /**
+     * Queues a whole string, e.g. a conference bridge PIN. Characters other than 0-9, * and #
+     * are skipped.
+     *
+     * @param burst true to send it as burst DTMF, false as discrete DTMF
+     * @return the number of digits queued
+     */
+    public int send(CharSequence digits, boolean burst) {
+        mBurstMode = burst;
+        final long now = SystemClock.elapsedRealtime();
+        int queued = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            if (enqueue(digits.charAt(i), now)) {
+                queued++;
+            }
+        }
+        pump();
+        return queued;
+    }
+
+    /**
+     * Drops all queued digits and stops waiting for the pending confirmation, if any.
+     */
+    public void clear() {
+        mHandler.removeMessages(BURST_SENT);
+        mHandler.removeMessages(SEND_NEXT);
+        mHead = mTail;
+        mBurstPending = false;
+        mPacing = false;
+    }
+
+    private boolean enqueue(char c, long now) {
+        if (!PhoneNumberUtils.is12Key(c)) {
+            return false;
+        }
+        if (mTail - mHead == QUEUE_CAPACITY) {
+            Log.w(LOG_TAG, "DTMF queue full, dropping '" + c + "'");
+            sDropped++;
+            return false;
+        }
+        mQueue[mTail & (QUEUE_CAPACITY - 1)] = c;
+        mQueueTime[mTail & (QUEUE_CAPACITY - 1)] = now;
+        mTail++;
+        return true;
+    }
+
+    /** Sends what's queued, as far as the pending confirmation or pacing allows. */
+    private void pump() {
+        if (mHead == mTail || mBurstPending || mPacing) {
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        if (mBurstMode) {
+            mBurst.setLength(0);
+            while (mHead != mTail && mBurst.length() < MAX_BURST_LENGTH) {
+                mBurst.append(dequeue(now));
+            }
+            final String burst = mBurst.toString();
+            if (DBG) log("sending burst dtmf " + burst);
+            if (mCM.sendBurstDtmf(burst, ON_LENGTH, OFF_LENGTH,
+                    mHandler.obtainMessage(BURST_SENT))) {
+                mBurstPending = true;
+                mBurstSentTime = now;
+                sBursts++;
+            } else {
+                // No confirmation will come; don't let the rest of the queue wait for it.
+                Log.w(LOG_TAG, "sendBurstDtmf failed, dropping " + burst.length() + " digits");
+                sDropped += burst.length();
+                pump();
+            }
+        } else {
+            final char c = dequeue(now);
+            if (DBG) log("sending dtmf " + c);
+            if (!mCM.sendDtmf(c)) {
+                sDropped++;
+            }
+            if (mHead != mTail) {
+                mPacing = true;
+                mHandler.sendEmptyMessageDelayed(SEND_NEXT, PACING);
+            }
+        }
+    }
+
+    private char dequeue(long now) {
+        final int index = mHead & (QUEUE_CAPACITY - 1);
+        mHead++;
+        sDigits++;
+        sQueueLatency.record(now - mQueueTime[index]);
+        return mQueue[index];
+    }
+
+    /* package */ static void dump(PrintWriter pw) {
+        pw.println("DtmfSender: digits=" + sDigits + " bursts=" + sBursts + " dropped=" + sDropped
+                + " maxBurst=" + MAX_BURST_LENGTH + " on=" + ON_LENGTH + "ms off=" + OFF_LENGTH
+                + "ms pacing=" + PACING + "ms");
+        sQueueLatency.dump(pw, "  ");
+        sBurstLatency.dump(pw, "  ");
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Country;
+import android.location.CountryDetector;
+import android.location.CountryListener;
+import android.os.Looper;
+import android.os.SystemProperties;
+import android.telephony.MSimTelephonyManager;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.TelephonyIntents;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Answers "is this an emergency number" for the outgoing call path
+ * ({@link OutgoingCallBroadcaster}, {@link CallController}, {@link CallLogger},
+ * {@link EmergencyDialer}) with the same result as
+ * {@link PhoneNumberUtils#isLocalEmergencyNumber} and
+ * {@link PhoneNumberUtils#isPotentialLocalEmergencyNumber}, but in a single pass.
+ *
+ * Like the framework, a number counts as an emergency number if it is on the ECC list of any
+ * phone: the lists the RIL publishes per slot (ril.ecclist, ril.ecclist1, ...) are merged, and
+ * ro.ril.ecclist is used when they are all empty. The merged list is compiled into a digit trie,
+ * which gives the exact and the potential (prefix) answer in one walk over the number. The
+ * properties are read and the trie is built on the first query after a SIM or service state
+ * change, which is when the RIL updates the lists, and reused until the next one; the detected
+ * country is cached and refreshed by a {@link CountryListener}. When no ECC list is published
+ * the framework decides from its per-country metadata, so those numbers are passed on to
+ * PhoneNumberUtils unchanged.
+ */
+/* package */ final class EmergencyNumberClassifier {
+    private static final String LOG_TAG = "EmergencyNumberClassifier";
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    public static final int NOT_EMERGENCY = 0;
+    /** The number starts with an emergency number, and some networks may route it as one. */
+    public static final int POTENTIAL = 1;
+    /** The number is an emergency number; always {@link #POTENTIAL} too. */
+    public static final int EXACT = 2;
+
+    /** Countries where a number is only an emergency number on an exact match. */
+    private static final String EXACT_MATCH_COUNTRY = "BR";
+
+    /**
+     * Emergency numbers compiled into a trie over the dialable characters, as found in the
+     * network portion of a number.
+     */
+    /* package */ static final class Table {
+        private static final String ALPHABET = "0123456789*#+N";
+        private static final int SYMBOLS = ALPHABET.length();
+
+        private final ArrayList<String> mNumbers = new ArrayList<String>();
+        private int[] mNext;
+        private boolean[] mTerminal;
+        private int mNodes;
+
+        private Table() {
+            mNext = new int[SYMBOLS * 16];
+            mTerminal = new boolean[16];
+            mNodes = 1;
+        }
+
+        /**
+         * Compiles a comma separated list, e.g. "112,911,999".
+         */
+        /* package */ static Table compile(String list) {
+            final Table table = new Table();
+            for (String number : list.split(",")) {
+                table.add(number);
+            }
+            return table;
+        }
+
+        private void add(String number) {
+            int node = 0;
+            for (int i = 0; i < number.length(); i++) {
+                final int symbol = ALPHABET.indexOf(number.charAt(i));
+                if (symbol < 0) {
+                    // Can't be in the network portion of a dialed number, so never matches.
+                    if (DBG) log("Ignoring emergency number " + number);
+                    return;
+                }
+                int next = mNext[node * SYMBOLS + symbol];
+                if (next == 0) {
+                    next = newNode();
+                    mNext[node * SYMBOLS + symbol] = next;
+                }
+                node = next;
+            }
+            mTerminal[node] = true;
+            mNumbers.add(number);
+        }
+
+        private int newNode() {
+            if (mNodes == mTerminal.length) {
+                final int[] next = new int[mNext.length * 2];
+                System.arraycopy(mNext, 0, next, 0, mNext.length);
+                mNext = next;
+                final boolean[] terminal = new boolean[mTerminal.length * 2];
+                System.arraycopy(mTerminal, 0, terminal, 0, mTerminal.length);
+                mTerminal = terminal;
+            }
+            return mNodes++;
+        }
+
+        /**
+         * @param number the network portion of the dialed number
+         * @param exactOnly true to treat prefix matches as no match
+         */
+        /* package */ int classify(String number, boolean exactOnly) {
+            boolean potential = mTerminal[0];
+            int node = 0;
+            for (int i = 0; i < number.length(); i++) {
+                final int symbol = ALPHABET.indexOf(number.charAt(i));
+                node = symbol < 0 ? 0 : mNext[node * SYMBOLS + symbol];
+                if (node == 0) {
+                    break;
+                }
+                potential |= mTerminal[node];
+            }
+            if (node != 0 || number.length() == 0) {
+                if (mTerminal[node]) {
+                    return EXACT;
+                }
+            }
+            return potential && !exactOnly ? POTENTIAL : NOT_EMERGENCY;
+        }
+
+        /* package */ int size() {
+            return mNumbers.size();
+        }
+
+        @Override
+        public String toString() {
+            return mNumbers.toString() + " (" + mNodes + " nodes)";
+        }
+    }
+
+    /** The singleton instance. */
+    private static EmergencyNumberClassifier sInstance;
+
+    private final Context mContext;
+    private Table mTable;
+    // Whether mTable (null included) reflects the current ECC list properties.
+    private boolean mTableValid;
+    private String mCountryIso;
+    private boolean mCountryValid;
+
+    private int mQueries;
+    private int mCompiles;
+    private int mFallbacks;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // The RIL updates the ECC list along with these.
+            invalidate();
+        }
+    };
+
+    private final CountryListener mCountryListener = new CountryListener() {
+        @Override
+        public void onCountryDetected(Country country) {
+            synchronized (EmergencyNumberClassifier.this) {
+                mCountryIso = country != null ? country.getCountryIso() : null;
+                mCountryValid = true;
+            }
+            if (DBG) log("onCountryDetected: " + country);
+        }
+    };
+
+    /* package */ static EmergencyNumberClassifier init(Context context) {
+        synchronized (EmergencyNumberClassifier.class) {
+            if (sInstance == null) {
+                sInstance = new EmergencyNumberClassifier(context);
+            } else {
+                Log.wtf(LOG_TAG, "init() called multiple times!  sInstance = " + sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    /* package */ static EmergencyNumberClassifier getInstance() {
+        return sInstance;
+    }
+
+    private EmergencyNumberClassifier(Context context) {
+        mContext = context;
+        final IntentFilter filter = new IntentFilter(TelephonyIntents.ACTION_SIM_STATE_CHANGED);
+        filter.addAction(TelephonyIntents.ACTION_SERVICE_STATE_CHANGED);
+        context.registerReceiver(mReceiver, filter);
+        final CountryDetector detector =
+                (CountryDetector) context.getSystemService(Context.COUNTRY_DETECTOR);
+        if (detector != null) {
+            detector.addCountryListener(mCountryListener, Looper.getMainLooper());
+        }
+    }
+
+    /**
+     * Same as {@link PhoneNumberUtils#isLocalEmergencyNumber(String, Context)}.
+     */
+    public boolean isEmergencyNumber(String number) {
+        return classify(number) == EXACT;
+    }
+
+    /**
+     * Same as {@link PhoneNumberUtils#isPotentialLocalEmergencyNumber(String, Context)}.
+     */
+    public boolean isPotentialEmergencyNumber(String number) {
+        return classify(number) != NOT_EMERGENCY;
+    }
+
+    /**
+     * @return {@link #EXACT}, {@link #POTENTIAL} or {@link #NOT_EMERGENCY}
+     */
+    public int classify(String number) {
+        if (number == null || PhoneNumberUtils.isUriNumber(number)) {
+            return NOT_EMERGENCY;
+        }
+        final Table table;
+        final boolean exactOnly;
+        synchronized (this) {
+            mQueries++;
+            table = getTable();
+            exactOnly = table != null && EXACT_MATCH_COUNTRY.equalsIgnoreCase(getCountryIso());
+            if (table == null) {
+                mFallbacks++;
+            }
+        }
+        if (table == null) {
+            // No ECC list; the framework goes by the country's emergency numbers.
+            if (PhoneNumberUtils.isLocalEmergencyNumber(number, mContext)) {
+                return EXACT;
+            }
+            return PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, mContext)
+                    ? POTENTIAL : NOT_EMERGENCY;
+        }
+        return table.classify(PhoneNumberUtils.extractNetworkPortionAlt(number), exactOnly);
+    }
+
+    /**
+     * Drops the compiled lists; they are rebuilt on the next query.
+     */
+    /* package */ synchronized void invalidate() {
+        mTable = null;
+        mTableValid = false;
+    }
+
+    /**
+     * @return the compiled ECC list, or null if none is published
+     */
+    private Table getTable() {
+        if (!mTableValid) {
+            final String list = getEccList();
+            mTable = TextUtils.isEmpty(list) ? null : Table.compile(list);
+            mTableValid = true;
+            mCompiles++;
+            if (DBG) log("Compiled " + mTable);
+        }
+        return mTable;
+    }
+
+    /**
+     * @return the ECC lists of all phones, comma separated, or ro.ril.ecclist if they are all
+     * empty
+     */
+    /* package */ static String getEccList() {
+        final StringBuilder list = new StringBuilder();
+        final int count = Math.max(MSimTelephonyManager.getDefault().getPhoneCount(), 1);
+        for (int i = 0; i < count; i++) {
+            final String ecclist =
+                    SystemProperties.get(i == 0 ? "ril.ecclist" : ("ril.ecclist" + i));
+            if (!TextUtils.isEmpty(ecclist)) {
+                if (list.length() > 0) {
+                    list.append(',');
+                }
+                list.append(ecclist);
+            }
+        }
+        if (list.length() == 0) {
+            return SystemProperties.get("ro.ril.ecclist");
+        }
+        return list.toString();
+    }
+
+    private String getCountryIso() {
+        if (!mCountryValid) {
+            final CountryDetector detector =
+                    (CountryDetector) mContext.getSystemService(Context.COUNTRY_DETECTOR);
+            final Country country = detector != null ? detector.detectCountry() : null;
+            mCountryIso = country != null ? country.getCountryIso() : null;
+            mCountryValid = true;
+        }
+        return mCountryIso;
+    }
+
+    /* package */ synchronized void dump(PrintWriter pw) {
+        pw.println("EmergencyNumberClassifier: country=" + mCountryIso + " queries=" + mQueries
+                + " compiles=" + mCompiles + " fallbacks=" + mFallbacks);
+        if (mTable != null) {
+            pw.println("  " + mTable);
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
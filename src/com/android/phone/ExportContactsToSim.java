@@ -31,42 +31,33 @@ package com.android.phone;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentValues;
+import android.app.ProgressDialog;
 import android.content.Intent;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
-import android.provider.ContactsContract;
 import android.telephony.MSimTelephonyManager;
-import android.telephony.PhoneNumberUtils;
 import android.util.Log;
 import android.view.Window;
 import android.widget.TextView;
 
 import android.content.DialogInterface;
-import android.content.DialogInterface.OnClickListener;
-import android.provider.ContactsContract.CommonDataKinds.Phone;
 
 import static android.view.Window.PROGRESS_VISIBILITY_OFF;
 import static android.view.Window.PROGRESS_VISIBILITY_ON;
 
 public class ExportContactsToSim extends Activity {
     private static final String TAG = "ExportContactsToSim";
-    private static final int FAILURE = 0;
-    private static final int SUCCESS = 1;
     private TextView mEmptyText;
-    private int mResult = SUCCESS;
     protected boolean mIsForeground = false;
     private static final String SIM_INDEX = "sim_index";
 
     private static final int CONTACTS_EXPORTED = 1;
-    private static final String[] COLUMN_NAMES = new String[] {
-            "name",
-            "number",
-            "emails"
-    };
+    private static final int EXPORT_PROGRESS = 2;
+
+    private ProgressDialog mProgressDialog;
+    private SimContactsExporter mExporter;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -89,78 +80,72 @@ public class ExportContactsToSim extends Activity {
         mIsForeground = false;
     }
 
+    @Override
+    protected void onDestroy() {
+        // Don't leak the dialog's window if we go away while the export is running.
+        dismissProgressDialog();
+        super.onDestroy();
+    }
+
+    private void dismissProgressDialog() {
+        if (mProgressDialog != null) {
+            mProgressDialog.dismiss();
+            mProgressDialog = null;
+        }
+    }
+
     private void doExportToSim() {
+        final Uri uri = getUri();
+        if (uri == null) {
+            Log.d(TAG, "doExportToSim: uri is null, return");
+            showAlertDialog(getString(R.string.exportAllcontatsFailed));
+            return;
+        }
 
         displayProgress(true);
 
+        final boolean multiSim = MSimTelephonyManager.getDefault().isMultiSimEnabled();
+        final int subscription = multiSim ? getIntent().getIntExtra(SIM_INDEX, 0) : 0;
+        mExporter = new SimContactsExporter(getContentResolver(), uri, multiSim, subscription,
+                new SimContactsExporter.Listener() {
+            @Override
+            public void onProgress(int done, int total) {
+                mHandler.obtainMessage(EXPORT_PROGRESS, done, total).sendToTarget();
+            }
+        });
+
+        mProgressDialog = new ProgressDialog(this);
+        mProgressDialog.setMessage(getString(R.string.exportContacts));
+        mProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+        mProgressDialog.setCancelable(false);
+        mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE, getString(R.string.cancel),
+                new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                mExporter.cancel();
+            }
+        });
+        mProgressDialog.show();
+
         new Thread(new Runnable() {
             public void run() {
-                Cursor contactsCursor = getContactsContentCursor();
-                if ((contactsCursor.getCount()) < 1) {
-                    // If there are no contacts in Phone book display as failed.
-                    // Displaying only fail or success, there are no customized strings.
-                    mResult = FAILURE;
-                }
-
-                for (int i = 0; contactsCursor.moveToNext(); i++) {
-                    populateContactDataFromCursor(contactsCursor );
-                }
-
-                contactsCursor.close();
-                Message message = Message.obtain(mHandler, CONTACTS_EXPORTED, (Integer)mResult);
+                SimContactsExporter.Result result = mExporter.run();
+                Message message = Message.obtain(mHandler, CONTACTS_EXPORTED, result);
                 mHandler.sendMessage(message);
             }
-        }).start();
-    }
-
-    private Cursor getContactsContentCursor() {
-        Uri phoneBookContentUri = Phone.CONTENT_URI;
-        String selection = ContactsContract.Contacts.HAS_PHONE_NUMBER +
-                "='1' AND (account_type is NULL OR account_type !=?)";
-        String[] selectionArg = new String[] {"SIM"};
-
-        Cursor contactsCursor = getContentResolver().query(phoneBookContentUri, null, selection,
-                selectionArg, null);
-        return contactsCursor;
+        }, "ExportContactsToSim").start();
     }
 
-    private void populateContactDataFromCursor(final Cursor dataCursor) {
-        Uri uri = getUri();
-        if (uri == null) {
-            Log.d(TAG," populateContactDataFromCursor: uri is null, return ");
-            return;
-        }
-        Uri contactUri;
-        int nameIdx = dataCursor
-                .getColumnIndex(ContactsContract.Data.DISPLAY_NAME);
-        int phoneIdx = dataCursor
-                .getColumnIndex(ContactsContract.CommonDataKinds.Phone.NUMBER);
-
-        // Extract the name.
-        String name = dataCursor.getString(nameIdx);
-        // Extract the phone number.
-        String rawNumber = dataCursor.getString(phoneIdx);
-        String number = PhoneNumberUtils.normalizeNumber(rawNumber);
-
-        ContentValues values = new ContentValues();
-        values.put("tag", name);
-        values.put("number", number);
-        Log.d("ExportContactsToSim", "name : " + name + " number : " + number);
-        contactUri = getContentResolver().insert(uri, values);
-        if (contactUri == null) {
-            Log.e("ExportContactsToSim", "Failed to export contact to SIM for " +
-                    "name : " + name + " number : " + number);
-            mResult = FAILURE;
-        }
+    private void showAlertDialog(String value) {
+        showAlertDialog(null, value);
     }
 
-    private void showAlertDialog(String value) {
+    private void showAlertDialog(String title, String value) {
         if (!mIsForeground) {
             Log.d(TAG, "The activitiy is not in foreground. Do not display dialog!!!");
             return;
         }
         AlertDialog alertDialog = new AlertDialog.Builder(this).create();
-        alertDialog.setTitle("Result...");
+        alertDialog.setTitle(title != null ? title : "Result...");
         alertDialog.setMessage(value);
         alertDialog.setButton("OK", new DialogInterface.OnClickListener() {
             public void onClick(DialogInterface dialog, int which) {
@@ -182,13 +167,28 @@ public class ExportContactsToSim extends Activity {
         @Override
         public void handleMessage(Message msg) {
             switch(msg.what) {
+                case EXPORT_PROGRESS:
+                    if (mProgressDialog != null) {
+                        mProgressDialog.setMax(msg.arg2);
+                        mProgressDialog.setProgress(msg.arg1);
+                    }
+                    break;
+
                 case CONTACTS_EXPORTED:
-                    int result = (Integer)msg.obj;
-                    if (result == 1) {
-                        showAlertDialog(getString(R.string.exportAllcontatsSuccess));
+                    SimContactsExporter.Result result = (SimContactsExporter.Result) msg.obj;
+                    displayProgress(false);
+                    dismissProgressDialog();
+                    final String title;
+                    if (result.canceled) {
+                        title = getString(R.string.exportContactsCanceled);
+                    } else if (result.failed == 0 && result.skippedNoSpace == 0) {
+                        title = getString(R.string.exportAllcontatsSuccess);
                     } else {
-                        showAlertDialog(getString(R.string.exportAllcontatsFailed));
+                        title = getString(R.string.exportAllcontatsFailed);
                     }
+                    showAlertDialog(title, getString(R.string.exportContactsResult,
+                            result.exported, result.skippedDuplicate, result.skippedNoSpace,
+                            result.failed, result.getContactsPerSecond()));
                     break;
             }
         }
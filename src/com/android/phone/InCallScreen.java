@@ -618,7 +618,7 @@ public class InCallScreen extends Activity
     @Override
     protected void onCreate(Bundle icicle) {
         Log.i(LOG_TAG, "onCreate()...  this = " + this);
-        Profiler.callScreenOnCreate();
+        CallTracer.event(CallTracer.IN_CALL_SCREEN_ON_CREATE);
         super.onCreate(icicle);
 
         // Make sure this is a voice-capable device.
@@ -708,8 +708,6 @@ public class InCallScreen extends Activity
             internalResolveIntent(getIntent());
         }
 
-        Profiler.callScreenCreated();
-
         processDisplayMode();
 
         if (DBG) log("onCreate(): exit");
@@ -934,8 +932,6 @@ public class InCallScreen extends Activity
             mApp.setRestoreMuteOnInCallResume(false);
         }
 
-        Profiler.profileViewCreate(getWindow(), InCallScreen.class.getName());
-
         // If there's a pending MMI code, we'll show a dialog here.
         //
         // Note: previously we had shown the dialog when MMI_INITIATE event's coming
@@ -2641,6 +2637,7 @@ public class InCallScreen extends Activity
      */
     protected void updateScreen() {
         if (DBG) log("updateScreen()...");
+        CallTracer.event(CallTracer.IN_CALL_SCREEN_UPDATE);
         final InCallScreenMode inCallScreenMode = mApp.inCallUiState.inCallScreenMode;
         if (VDBG) {
             PhoneConstants.State state = mCM.getState();
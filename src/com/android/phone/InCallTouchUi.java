@@ -1512,9 +1512,9 @@ public class InCallTouchUi extends FrameLayout
 
             // TODO: Rather than having a separate timer here, maybe try
             // having these pings synchronized with the vibrator (see
-            // VibratorThread in Ringer.java; we'd just need to get
-            // events routed from there to here, probably via the
-            // PhoneApp instance.)  (But watch out: make sure pings
+            // VibrationScheduler.RING_PATTERN; we'd just need to share
+            // the pattern's start time with this class, probably via
+            // the PhoneApp instance.)  (But watch out: make sure pings
             // still work even if the Vibrate setting is turned off!)
 
             mHandler.sendEmptyMessageDelayed(INCOMING_CALL_WIDGET_PING,
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small fixed-size latency histogram with power-of-two millisecond buckets, meant for
+ * "dumpsys phone" output. Recording never allocates nor locks, so it can be done from any
+ * thread, including under other locks. Readers see every counter atomically, but samples
+ * recorded while reading may show up in some counters and not in others.
+ */
+/* package */ final class LatencyHistogram {
+    // Bucket i holds samples in [2^(i-1), 2^i) ms; bucket 0 holds 0 ms. The last bucket is open.
+    private static final int NUM_BUCKETS = 16; // up to ~16 seconds
+
+    private final String mName;
+    private final AtomicIntegerArray mBuckets = new AtomicIntegerArray(NUM_BUCKETS);
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public void record(long millis) {
+        if (millis < 0) {
+            millis = 0;
+        }
+        int bucket = 0;
+        while (bucket < NUM_BUCKETS - 1 && millis >= (1L << bucket)) {
+            bucket++;
+        }
+        mBuckets.incrementAndGet(bucket);
+        mSum.addAndGet(millis);
+        long max;
+        while (millis > (max = mMax.get()) && !mMax.compareAndSet(max, millis)) {
+            // Lost a race with another record(); try again with the new max.
+        }
+    }
+
+    public int getCount() {
+        int count = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            count += mBuckets.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @return upper bound (in ms) of the bucket containing the given percentile, or 0 if there
+     * are no samples.
+     */
+    public long getPercentile(int percentile) {
+        return getPercentile(readBuckets(), percentile, mMax.get());
+    }
+
+    private int[] readBuckets() {
+        final int[] buckets = new int[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return buckets;
+    }
+
+    private static int sum(int[] buckets) {
+        int count = 0;
+        for (int bucket : buckets) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    private static long getPercentile(int[] buckets, int percentile, long max) {
+        final int count = sum(buckets);
+        if (count == 0) {
+            return 0;
+        }
+        final long threshold = ((long) count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= threshold) {
+                return Math.min(1L << i, max);
+            }
+        }
+        return max;
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    public void dump(PrintWriter pw, String prefix) {
+        final int[] buckets = readBuckets();
+        final int count = sum(buckets);
+        final long max = mMax.get();
+        pw.print(prefix);
+        pw.print(mName);
+        pw.print(": count=");
+        pw.print(count);
+        if (count > 0) {
+            pw.print(" avg=" + (mSum.get() / count) + "ms");
+            pw.print(" p50<=" + getPercentile(buckets, 50, max) + "ms");
+            pw.print(" p90<=" + getPercentile(buckets, 90, max) + "ms");
+            pw.print(" p99<=" + getPercentile(buckets, 99, max) + "ms");
+            pw.print(" max=" + max + "ms");
+        }
+        pw.println();
+        if (count > 0) {
+            pw.print(prefix);
+            pw.print("  ");
+            for (int i = 0; i < NUM_BUCKETS; i++) {
+                if (buckets[i] == 0) {
+                    continue;
+                }
+                pw.print(i == NUM_BUCKETS - 1 ? ">=" : "<");
+                pw.print(i == NUM_BUCKETS - 1 ? (1L << (i - 1)) : (1L << i));
+                pw.print("ms:");
+                pw.print(buckets[i]);
+                pw.print(' ');
+            }
+            pw.println();
+        }
+    }
+}
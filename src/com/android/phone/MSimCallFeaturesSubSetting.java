@@ -192,6 +192,7 @@ public class MSimCallFeaturesSubSetting extends PreferenceActivity
     private static final int VOICEMAIL_PROVIDER_CFG_ID = 2;
 
     private Phone mPhone;
+    private SuppServiceCache mSuppServiceCache;
 
     private AudioManager mAudioManager;
 
@@ -640,7 +641,7 @@ public class MSimCallFeaturesSubSetting extends PreferenceActivity
                             AsyncResult result = results.get(fi.reason);
                             if (result != null && result.exception == null) {
                                 mExpectedChangeResultReasons.add(fi.reason);
-                                mPhone.setCallForwardingOption(
+                                mSuppServiceCache.setCallForwardingOption(mPhone,
                                         (fi.status == 1 ?
                                                 CommandsInterface.CF_ACTION_REGISTRATION :
                                                 CommandsInterface.CF_ACTION_DISABLE),
@@ -852,7 +853,8 @@ public class MSimCallFeaturesSubSetting extends PreferenceActivity
             mForwardingReadResults = new CallForwardInfo[FORWARDING_SETTINGS_REASONS.length];
             for (int i = 0; i < FORWARDING_SETTINGS_REASONS.length; i++) {
                 mForwardingReadResults[i] = null;
-                mPhone.getCallForwardingOption(FORWARDING_SETTINGS_REASONS[i],
+                mSuppServiceCache.getCallForwardingOption(mPhone,
+                        FORWARDING_SETTINGS_REASONS[i],
                         mGetOptionComplete.obtainMessage(EVENT_FORWARDING_GET_COMPLETED, i, 0));
             }
             showDialogIfForeground(VOICEMAIL_FWD_READING_DIALOG);
@@ -1001,7 +1003,7 @@ public class MSimCallFeaturesSubSetting extends PreferenceActivity
                     if (DBG) log("Setting fwd #: " + i + ": " + fi.toString());
                     mExpectedChangeResultReasons.add(i);
 
-                    mPhone.setCallForwardingOption(
+                    mSuppServiceCache.setCallForwardingOption(mPhone,
                             fi.status == 1 ?
                                     CommandsInterface.CF_ACTION_REGISTRATION :
                                     CommandsInterface.CF_ACTION_DISABLE,
@@ -1450,6 +1452,7 @@ public class MSimCallFeaturesSubSetting extends PreferenceActivity
 
         log("settings onCreate subscription =" + mSubscription);
         mPhone = PhoneGlobals.getInstance().getPhone(mSubscription);
+        mSuppServiceCache = PhoneGlobals.getInstance().suppServiceCache;
 
         mAudioManager = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
 
@@ -219,6 +219,7 @@ public class MSimCallNotifier extends CallNotifier {
 
             @Override
             public void onCallForwardingIndicatorChanged(boolean cfi) {
+                mApplication.suppServiceCache.invalidate(mSubscription);
                 onCfiChanged(cfi, mSubscription);
             }
         };
@@ -227,6 +228,7 @@ public class MSimCallNotifier extends CallNotifier {
 
     @Override
     protected void onNewRingingConnection(AsyncResult r) {
+        CallTracer.beginIncomingCall();
         Connection c = (Connection) r.result;
         int subscription = c.getCall().getPhone().getSubscription();
 
@@ -328,6 +330,7 @@ public class MSimCallNotifier extends CallNotifier {
 
     protected void showIncomingCall(int subscription) {
         log("showIncomingCall()...  phone state = " + mCM.getState());
+        CallTracer.event(CallTracer.MT_SHOW_INCOMING_CALL);
 
         // Before bringing up the "incoming call" UI, force any system
         // dialogs (like "recent tasks" or the power dialog) to close first.
@@ -88,11 +88,6 @@ public class MSimDTMFTwelveKeyDialer extends DTMFTwelveKeyDialer {
                     mCM.unregisterForDisconnect(this);
                     closeDialer(false);
                     break;
-                case DTMF_SEND_CNF:
-                    if (DBG) log("dtmf confirmation received from FW.");
-                    // handle burst dtmf confirmation
-                    handleBurstDtmfConfirmation();
-                    break;
                 case DTMF_STOP:
                     if (DBG) log("dtmf stop received");
                     stopTone();
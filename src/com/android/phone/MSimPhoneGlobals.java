@@ -20,17 +20,14 @@
 package com.android.phone;
 
 import android.app.KeyguardManager;
-import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothHeadset;
 import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
-import android.net.Uri;
 import android.os.AsyncResult;
 import android.os.IPowerManager;
 import android.os.PowerManager;
@@ -38,7 +35,6 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.SystemProperties;
 import android.os.UpdateLock;
-import android.preference.PreferenceManager;
 import android.provider.Settings.System;
 import android.telephony.ServiceState;
 import android.util.Log;
@@ -55,7 +51,6 @@ import com.android.internal.telephony.TelephonyCapabilities;
 import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.IccCardConstants;
 import com.android.internal.telephony.cdma.TtyIntent;
-import com.android.phone.common.CallLogAsync;
 import com.android.phone.OtaUtils.CdmaOtaScreenState;
 import com.android.internal.telephony.PhoneConstants;
 import com.codeaurora.telephony.msim.MSimPhoneFactory;
@@ -115,8 +110,6 @@ public class MSimPhoneGlobals extends PhoneGlobals {
         if (VDBG) Log.v(LOG_TAG, "onCreate()...");
         Log.d(LOG_TAG, "MSimPhoneApp:"+this);
 
-        ContentResolver resolver = getContentResolver();
-
         // Cache the "voice capable" flag.
         // This flag currently comes from a resource (which is
         // overrideable on a per-product basis):
@@ -128,6 +121,11 @@ public class MSimPhoneGlobals extends PhoneGlobals {
         //   getPackageManager().hasSystemFeature(PackageManager.FEATURE_TELEPHONY_VOICE_CALLS);
 
         if (phone == null) {
+            // Only what's needed to take an incoming call runs here; the rest is deferred
+            // (see scheduleStartupStages()).
+            final StartupTrace.Span criticalSpan = startupTrace.begin("critical");
+            StartupTrace.Span span = startupTrace.begin("telephony");
+
             // Initialize the telephony framework
             MSimPhoneFactory.makeMultiSimDefaultPhones(this);
 
@@ -154,13 +152,18 @@ public class MSimPhoneGlobals extends PhoneGlobals {
             // Set Default PhoneApp variables
             setDefaultPhone(mDefaultSubscription);
             mCM.registerPhone(phone);
+            span.end();
 
+            span = startupTrace.begin("notificationMgr");
             // Create the NotificationMgr singleton, which is used to display
             // status bar icons and control other status bar behavior.
             notificationMgr = MSimNotificationMgr.init(this);
+            span.end();
 
+            span = startupTrace.begin("phoneInterfaceManager");
             phoneMgr = PhoneInterfaceManager.init(this, phone);
             phoneMgrMSim = MSimPhoneInterfaceManager.init(this, phone);
+            span.end();
 
             mHandler.sendEmptyMessage(EVENT_START_SIP_SERVICE);
 
@@ -172,18 +175,13 @@ public class MSimPhoneGlobals extends PhoneGlobals {
                 cdmaPhoneCallState.CdmaPhoneCallStateInit();
             }
 
-            if (BluetoothAdapter.getDefaultAdapter() != null) {
-                // Start BluetoothPhoneService even if device is not voice capable.
-                // The device can still support VOIP.
-                startService(new Intent(this, BluetoothPhoneService.class));
-                bindService(new Intent(this, BluetoothPhoneService.class),
-                            mBluetoothPhoneConnection, 0);
-            } else {
-                // Device is not bluetooth capable
-                mBluetoothPhone = null;
-            }
-
+            span = startupTrace.begin("ringer");
+            vibrationScheduler = VibrationScheduler.init();
             ringer = Ringer.init(this);
+            span.end();
+
+            emergencyNumberClassifier = EmergencyNumberClassifier.init(this);
+            suppServiceCache = SuppServiceCache.init();
 
             mReceiver = new MSimPhoneAppBroadcastReceiver();
             mMediaButtonReceiver = new MSimMediaButtonBroadcastReceiver();
@@ -221,7 +219,9 @@ public class MSimPhoneGlobals extends PhoneGlobals {
 
             if (DBG) Log.d(LOG_TAG, "onCreate: mUpdateLock: " + mUpdateLock);
 
-            CallLogger callLogger = new CallLogger(this, new CallLogAsync());
+            span = startupTrace.begin("callNotifier");
+            callLogWriter = CallLogWriter.init(this);
+            CallLogger callLogger = new CallLogger(this);
 
             // Create the CallController singleton, which is the interface
             // to the telephony layer for user-initiated telephony functionality
@@ -231,23 +231,14 @@ public class MSimPhoneGlobals extends PhoneGlobals {
             // keep track of some "persistent state" of the in-call UI.
             inCallUiState = InCallUiState.init(this);
 
-            // Create the CallerInfoCache singleton, which remembers custom ring tone and
-            // send-to-voicemail settings.
-            //
-            // The asynchronous caching will start just after this call.
-            callerInfoCache = CallerInfoCache.init(this);
-
             // Create the CallNotifer singleton, which handles
             // asynchronous events from the telephony layer (like
             // launching the incoming-call UI when an incoming call comes
             // in.)
             notifier = MSimCallNotifier.init(this, phone, ringer, callLogger);
 
-            // Create the Managed Roaming singleton class, used to show popup
-            // to user for initiating network search when location update is rejected
-            mManagedRoam = ManagedRoaming.init(this);
-
             XDivertUtility.init(this, phone, (MSimCallNotifier)notifier, this);
+            span.end();
 
             // register for ICC status
             for (int i = 0; i < MSimTelephonyManager.getDefault().getPhoneCount(); i++) {
@@ -305,24 +296,30 @@ public class MSimPhoneGlobals extends PhoneGlobals {
             am.registerMediaButtonEventReceiverForCalls(new ComponentName(this.getPackageName(),
                     MediaButtonBroadcastReceiver.class.getName()));
 
-            //set the default values for the preferences in the phone.
-            PreferenceManager.setDefaultValues(this, R.xml.network_setting, false);
-
-            PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
-
             // Make sure the audio mode (along with some
             // audio-mode-related state of our own) is initialized
             // correctly, given the current state of the phone.
             PhoneUtils.setAudioMode(mCM);
+            criticalSpan.end();
+
+            scheduleStartupStages(new Runnable() {
+                @Override
+                public void run() {
+                    startBluetoothPhoneService();
+                    initCallerInfoCacheAndRoaming();
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    setDefaultPreferencesAndPreloadSimProvider();
+                }
+            });
         }
 
         for (int i = 0; i < MSimTelephonyManager.getDefault().getPhoneCount(); i++) {
             updatePhoneAppCdmaVariables(i);
         }
 
-        // XXX pre-load the SimProvider so that it's ready
-        resolver.getType(Uri.parse("content://icc/adn"));
-
         // start with the default value to set the mute state.
         mShouldRestoreMuteOnInCallResume = false;
 
@@ -411,7 +408,7 @@ public class MSimPhoneGlobals extends PhoneGlobals {
             // accidentally tries to bring it up...
             Log.w(LOG_TAG, "displayCallScreen: transition to InCallScreen failed: " + e);
         }
-        Profiler.callScreenRequested();
+        CallTracer.event(CallTracer.CALL_SCREEN_REQUESTED);
     }
 
     boolean isSimPinEnabled(int subscription) {
@@ -34,6 +34,7 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.telephony.NeighboringCellInfo;
 import android.telephony.CellInfo;
+import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
 import android.telephony.TelephonyManager;
 import android.telephony.MSimTelephonyManager;
@@ -48,6 +49,7 @@ import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.msim.ITelephonyMSim;
 import com.codeaurora.telephony.msim.SubscriptionManager;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -77,61 +79,53 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
     Phone mPhone;
     CallManager mCM;
     MainThreadHandler mMainThreadHandler;
+    MainThreadRequestEngine mRequestEngine;
+    CellInfoCache mCellInfoCache;
 
-    /**
-     * A request object for use with {@link MainThreadHandler}. Requesters should wait() on the
-     * request after sending. The main thread will notify the request when it is complete.
-     */
-    private static final class MainThreadRequest {
-        /** The argument to use for the request */
-        public Object argument;
-        /** The argument to use for the request */
-        public Object argument2;
-        /** The result of the request that is run on the main thread */
-        public Object result;
-
-        public MainThreadRequest(Object argument, Object argument2) {
-            this.argument = argument;
-            this.argument2 = argument2;
-        }
-    }
+    // Per-command timeouts for sendRequest(), as in PhoneInterfaceManager. Switching the data
+    // subscription detaches and reattaches data, so it gets a longer one.
+    private static final long END_CALL_TIMEOUT = 5000; // ms
+    private static final long HANDLE_PIN_MMI_TIMEOUT = 5000; // ms
+    private static final long NEIGHBORING_CELL_TIMEOUT = 10000; // ms
+    private static final long SET_DATA_SUBSCRIPTION_TIMEOUT = 60000; // ms
+
+    /** Returned by getNeighboringCellInfo() when the radio fails or times out; never mutated. */
+    private static final ArrayList<NeighboringCellInfo> NO_NEIGHBORING_CELLS =
+            new ArrayList<NeighboringCellInfo>();
 
     /**
      * A handler that processes messages on the main thread in the phone process. Since many
      * of the Phone calls are not thread safe this is needed to shuttle the requests from the
      * inbound binder threads to the main thread in the phone process.  The Binder thread
-     * may provide a {@link MainThreadRequest} object in the msg.obj field that they are waiting
-     * on, which will be notified when the operation completes and will contain the result of the
-     * request.
+     * may provide a {@link MainThreadRequestEngine.Request} object in the msg.obj field that
+     * they are waiting on.
      *
-     * <p>If a MainThreadRequest object is provided in the msg.obj field,
-     * note that request.result must be set to something non-null for the calling thread to
-     * unblock.
+     * <p>If a request object is provided in the msg.obj field, request.complete() must be
+     * called with the result for the calling thread to unblock before its timeout.
      */
     private final class MainThreadHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            MainThreadRequest request;
+            MainThreadRequestEngine.Request request;
             Message onCompleted;
             AsyncResult ar;
             int sub = getDefaultSubscription();
 
             switch (msg.what) {
                 case CMD_HANDLE_PIN_MMI:
-                    request = (MainThreadRequest) msg.obj;
+                    request = MainThreadRequestEngine.begin(msg);
+                    if (request == null) {
+                        break;
+                    }
                     sub = (Integer) request.argument2;
                     Phone phone = PhoneGlobals.getInstance().getPhone(sub);
                     Log.i(LOG_TAG,"CMD_HANDLE_PIN_MMI: sub :" + phone.getSubscription());
-                    request.result = Boolean.valueOf(
-                            phone.handlePinMmi((String) request.argument));
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    request.complete(Boolean.valueOf(
+                            phone.handlePinMmi((String) request.argument)));
                     break;
 
                 case CMD_HANDLE_NEIGHBORING_CELL:
-                    request = (MainThreadRequest) msg.obj;
+                    request = (MainThreadRequestEngine.Request) msg.obj;
                     onCompleted = obtainMessage(EVENT_NEIGHBORING_CELL_DONE,
                             request);
                     mPhone.getNeighboringCids(onCompleted);
@@ -139,16 +133,12 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
 
                 case EVENT_NEIGHBORING_CELL_DONE:
                     ar = (AsyncResult) msg.obj;
-                    request = (MainThreadRequest) ar.userObj;
+                    request = (MainThreadRequestEngine.Request) ar.userObj;
                     if (ar.exception == null && ar.result != null) {
-                        request.result = ar.result;
+                        request.complete(ar.result);
                     } else {
-                        // create an empty list to notify the waiting thread
-                        request.result = new ArrayList<NeighboringCellInfo>();
-                    }
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
+                        // return an empty list to the waiting threads
+                        request.complete(NO_NEIGHBORING_CELLS);
                     }
                     break;
 
@@ -161,7 +151,10 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
                     break;
 
                 case CMD_END_CALL:
-                    request = (MainThreadRequest) msg.obj;
+                    request = MainThreadRequestEngine.begin(msg);
+                    if (request == null) {
+                        break;
+                    }
                     boolean hungUp = false;
                     sub = (Integer) request.argument;
                     log("Ending call on subscription =" + sub);
@@ -178,15 +171,14 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
                         throw new IllegalStateException("Unexpected phone type: " + phoneType);
                     }
                     if (DBG) log("CMD_END_CALL: " + (hungUp ? "hung up!" : "no call to hang up"));
-                    request.result = hungUp;
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    request.complete(hungUp);
                     break;
 
                 case CMD_SET_DATA_SUBSCRIPTION:
-                    request = (MainThreadRequest) msg.obj;
+                    request = MainThreadRequestEngine.begin(msg);
+                    if (request == null) {
+                        break;
+                    }
                     int subscription = (Integer) request.argument;
                     onCompleted = obtainMessage(EVENT_SET_DATA_SUBSCRIPTION_DONE, request);
                     SubscriptionManager subManager = SubscriptionManager.getInstance();
@@ -194,18 +186,14 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
                         subManager.setDataSubscription(subscription, onCompleted);
                     } else {
                         // need to return false;
-                        // Wake up the requesting thread
-                        request.result = false;
-                        synchronized (request) {
-                            request.notifyAll();
-                        }
+                        request.complete(false);
                     }
                     break;
 
                 case EVENT_SET_DATA_SUBSCRIPTION_DONE:
                     boolean retStatus = false;
                     ar = (AsyncResult) msg.obj;
-                    request = (MainThreadRequest)ar.userObj;
+                    request = (MainThreadRequestEngine.Request) ar.userObj;
 
                     if (ar.exception == null && ar.result != null) {
                         boolean result = (Boolean)ar.result;
@@ -213,12 +201,7 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
                             retStatus = true;
                         }
                     }
-                    request.result = retStatus;
-
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    request.complete(retStatus);
                     break;
 
                 default:
@@ -230,29 +213,12 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
 
     /**
      * Posts the specified command to be executed on the main thread,
-     * waits for the request to complete, and returns the result.
+     * waits for the request to complete, and returns the result. Returns the
+     * command's timeout result if the main thread doesn't answer in time.
      * @see sendRequestAsync
      */
     private Object sendRequest(int command, Object argument, Object argument2) {
-        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
-            throw new RuntimeException("This method will deadlock if called from the main thread.");
-        }
-
-        MainThreadRequest request = new MainThreadRequest(argument, argument2);
-        Message msg = mMainThreadHandler.obtainMessage(command, request);
-        msg.sendToTarget();
-
-        // Wait for the request to complete
-        synchronized (request) {
-            while (request.result == null) {
-                try {
-                    request.wait();
-                } catch (InterruptedException e) {
-                    // Do nothing, go back and wait until the request is complete
-                }
-            }
-        }
-        return request.result;
+        return mRequestEngine.send(command, argument, argument2);
     }
 
     /**
@@ -286,6 +252,22 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
         mPhone = phone;
         mCM = PhoneGlobals.getInstance().mCM;
         mMainThreadHandler = new MainThreadHandler();
+        mRequestEngine = new MainThreadRequestEngine(mMainThreadHandler);
+        mRequestEngine.registerCommand(CMD_HANDLE_PIN_MMI, "msim handlePinMmi",
+                HANDLE_PIN_MMI_TIMEOUT, false, true, Boolean.FALSE);
+        mRequestEngine.registerCommand(CMD_HANDLE_NEIGHBORING_CELL, "msim getNeighboringCellInfo",
+                NEIGHBORING_CELL_TIMEOUT, true, false, NO_NEIGHBORING_CELLS);
+        mRequestEngine.registerCommand(CMD_END_CALL, "msim endCall",
+                END_CALL_TIMEOUT, false, true, Boolean.FALSE);
+        mRequestEngine.registerCommand(CMD_SET_DATA_SUBSCRIPTION, "msim setDataSubscription",
+                SET_DATA_SUBSCRIPTION_TIMEOUT, false, true, Boolean.FALSE);
+        mCellInfoCache = new CellInfoCache();
+        MSimTelephonyManager telephonyManager = MSimTelephonyManager.getDefault();
+        for (int i = 0; i < telephonyManager.getPhoneCount(); i++) {
+            telephonyManager.listen(mCellInfoCache.newInvalidationListener(i),
+                    PhoneStateListener.LISTEN_SERVICE_STATE
+                    | PhoneStateListener.LISTEN_CELL_LOCATION);
+        }
         publish();
     }
 
@@ -701,9 +683,16 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
             mApp.enforceCallingOrSelfPermission(
                 android.Manifest.permission.ACCESS_COARSE_LOCATION, null);
         }
-        Bundle data = new Bundle();
-        getPhone(subscription).getCellLocation().fillInNotifierBundle(data);
-        return data;
+        final Phone phone = getPhone(subscription);
+        return mCellInfoCache.getCellLocation(phone.getSubscription(),
+                new CellInfoCache.Loader<Bundle>() {
+            @Override
+            public Bundle load() {
+                Bundle data = new Bundle();
+                phone.getCellLocation().fillInNotifierBundle(data);
+                return data;
+            }
+        });
     }
 
     public void enableLocationUpdates(int subscription) {
@@ -718,7 +707,26 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
         getPhone(subscription).disableLocationUpdates();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Queries the radio on behalf of the cell info cache; failures and timeouts are not cached.
+     */
+    private final CellInfoCache.Loader<List<NeighboringCellInfo>> mNeighboringCellLoader =
+            new CellInfoCache.Loader<List<NeighboringCellInfo>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<NeighboringCellInfo> load() {
+            try {
+                Object cells = sendRequest(CMD_HANDLE_NEIGHBORING_CELL, null, null);
+                if (cells != NO_NEIGHBORING_CELLS) {
+                    return (List<NeighboringCellInfo>) cells;
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "getNeighboringCellInfo " + e);
+            }
+            return null;
+        }
+    };
+
     public List<NeighboringCellInfo> getNeighboringCellInfo(int subscription) {
         try {
             mApp.enforceCallingOrSelfPermission(
@@ -732,16 +740,10 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
                     android.Manifest.permission.ACCESS_COARSE_LOCATION, null);
         }
 
-        ArrayList<NeighboringCellInfo> cells = null;
-
-        try {
-            cells = (ArrayList<NeighboringCellInfo>) sendRequest(
-                    CMD_HANDLE_NEIGHBORING_CELL, null, null);
-        } catch (RuntimeException e) {
-            Log.e(LOG_TAG, "getNeighboringCellInfo " + e);
-        }
-
-        return (List <NeighboringCellInfo>) cells;
+        // The request always goes to the default phone, so cache it under its subscription.
+        List<NeighboringCellInfo> cells = mCellInfoCache.getNeighboringCellInfo(
+                mPhone.getSubscription(), mNeighboringCellLoader);
+        return cells != null ? cells : new ArrayList<NeighboringCellInfo>();
     }
 
 
@@ -976,4 +978,11 @@ public class MSimPhoneInterfaceManager extends ITelephonyMSim.Stub {
     public int getLteOnCdmaMode(int subscription) {
         return getPhone(subscription).getLteOnCdmaMode();
     }
+
+    /* package */ void dump(PrintWriter pw) {
+        pw.println("MSim main thread requests:");
+        mRequestEngine.dump(pw, "  ");
+        pw.println("MSim cell info cache:");
+        mCellInfoCache.dump(pw, "  ");
+    }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Shuttles requests from binder threads to the phone process main thread and waits for their
+ * results, on behalf of {@link PhoneInterfaceManager} and {@link MSimPhoneInterfaceManager}.
+ *
+ * Every command is registered with a timeout and the result to return when it expires, so a
+ * slow radio can no longer pin binder threads forever. Commands which change state are
+ * registered as cancelable instead: when the timeout expires before the main thread gets to
+ * them they are dropped, so that the caller's timeout result is true, and once the main thread
+ * has started one its caller waits for the real result. Commands registered as coalescable
+ * share a single main thread request among all callers asking with equal arguments while it
+ * is in flight. Queue depth, latency, timeouts and coalesced calls are tracked per command
+ * and printed by "dumpsys phone".
+ */
+/* package */ final class MainThreadRequestEngine {
+    private static final String LOG_TAG = "MainThreadRequestEngine";
+
+    /**
+     * A request posted to the main thread in msg.obj. The handler must call
+     * {@link #complete} exactly once, possibly from a later message, to hand back the result.
+     * Handlers of cancelable commands must get it through {@link MainThreadRequestEngine#begin}.
+     */
+    /* package */ static final class Request {
+        /** The arguments to use for the request */
+        public final Object argument;
+        public final Object argument2;
+
+        private final Command mCommand;
+        private final long mPostTime;
+        private boolean mStarted;
+        private boolean mCancelled;
+        private boolean mDone;
+        private Object mResult;
+
+        private Request(Command command, Object argument, Object argument2) {
+            mCommand = command;
+            this.argument = argument;
+            this.argument2 = argument2;
+            mPostTime = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Sets the result of the request and wakes up every thread waiting for it.
+         */
+        public void complete(Object result) {
+            synchronized (this) {
+                if (mDone) {
+                    return;
+                }
+                mResult = result;
+                mDone = true;
+                notifyAll();
+            }
+            mCommand.onComplete(this);
+        }
+
+        private boolean matches(Object arg, Object arg2) {
+            return equal(argument, arg) && equal(argument2, arg2);
+        }
+
+        private static boolean equal(Object a, Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static final class Command {
+        final String name;
+        final long timeoutMillis;
+        final boolean coalesce;
+        final boolean cancelable;
+        final Object timeoutResult;
+        final LatencyHistogram latency;
+        final ArrayList<Request> inFlight = new ArrayList<Request>();
+        int queueDepth;
+        int maxQueueDepth;
+        int coalesced;
+        int timeouts;
+        int cancelled;
+
+        Command(String name, long timeoutMillis, boolean coalesce, boolean cancelable,
+                Object timeoutResult) {
+            this.name = name;
+            this.timeoutMillis = timeoutMillis;
+            this.coalesce = coalesce;
+            this.cancelable = cancelable;
+            this.timeoutResult = timeoutResult;
+            latency = new LatencyHistogram(name);
+        }
+
+        synchronized void onComplete(Request request) {
+            queueDepth--;
+            inFlight.remove(request);
+            latency.record(SystemClock.elapsedRealtime() - request.mPostTime);
+        }
+
+        synchronized void onCancel(Request request) {
+            queueDepth--;
+            inFlight.remove(request);
+            cancelled++;
+        }
+    }
+
+    private final Handler mHandler;
+    private final SparseArray<Command> mCommands = new SparseArray<Command>();
+
+    /* package */ MainThreadRequestEngine(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Declares a command that can be passed to {@link #send}. Must be called before the
+     * interface is published.
+     *
+     * @param timeoutMillis how long a caller waits for the result
+     * @param coalesce whether concurrent callers with equal arguments share one request
+     * @param cancelable whether a request the main thread hasn't started when the timeout
+     * expires is dropped, rather than run later; a started one is then waited for. Meant for
+     * commands which change state.
+     * @param timeoutResult what callers get when the timeout expires; must not be mutated
+     */
+    /* package */ void registerCommand(int command, String name, long timeoutMillis,
+            boolean coalesce, boolean cancelable, Object timeoutResult) {
+        mCommands.put(command,
+                new Command(name, timeoutMillis, coalesce, cancelable, timeoutResult));
+    }
+
+    /**
+     * Returns the request of a message posted by {@link #send} and marks it as started, or
+     * returns null if its caller cancelled it meanwhile, in which case it must not be run.
+     * Must be called on the main thread.
+     */
+    /* package */ static Request begin(Message msg) {
+        final Request request = (Request) msg.obj;
+        synchronized (request) {
+            if (request.mCancelled) {
+                return null;
+            }
+            request.mStarted = true;
+        }
+        return request;
+    }
+
+    /**
+     * Posts the specified command to be executed on the main thread, waits for the request to
+     * complete or for the command's timeout to expire, and returns the result.
+     */
+    /* package */ Object send(int what, Object argument, Object argument2) {
+        if (Looper.myLooper() == mHandler.getLooper()) {
+            throw new RuntimeException("This method will deadlock if called from the main thread.");
+        }
+        final Command command = mCommands.get(what);
+        if (command == null) {
+            throw new IllegalArgumentException("Unregistered command: " + what);
+        }
+
+        Request request = null;
+        boolean post = false;
+        synchronized (command) {
+            if (command.coalesce) {
+                final long now = SystemClock.elapsedRealtime();
+                for (int i = command.inFlight.size() - 1; i >= 0; i--) {
+                    final Request r = command.inFlight.get(i);
+                    if (now - r.mPostTime > command.timeoutMillis) {
+                        // Everybody waiting on it has given up; don't let it swallow new callers.
+                        command.inFlight.remove(i);
+                    } else if (r.matches(argument, argument2)) {
+                        request = r;
+                        command.coalesced++;
+                        break;
+                    }
+                }
+            }
+            if (request == null) {
+                request = new Request(command, argument, argument2);
+                post = true;
+                command.queueDepth++;
+                command.maxQueueDepth = Math.max(command.maxQueueDepth, command.queueDepth);
+                if (command.coalesce) {
+                    command.inFlight.add(request);
+                }
+            }
+        }
+        if (post) {
+            mHandler.obtainMessage(what, request).sendToTarget();
+        }
+
+        final long deadline = request.mPostTime + command.timeoutMillis;
+        synchronized (request) {
+            long remaining = deadline - SystemClock.elapsedRealtime();
+            while (!request.mDone && remaining > 0) {
+                try {
+                    request.wait(remaining);
+                } catch (InterruptedException e) {
+                    // Do nothing, go back and wait until the request is complete
+                }
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+            if (command.cancelable && !request.mStarted) {
+                request.mCancelled = true;
+                mHandler.removeMessages(what, request);
+            } else if (command.cancelable) {
+                // Too late to take it back; tell the caller what actually happened.
+                while (!request.mDone) {
+                    try {
+                        request.wait();
+                    } catch (InterruptedException e) {
+                        // Do nothing, go back and wait until the request is complete
+                    }
+                }
+            }
+            if (request.mDone) {
+                return request.mResult;
+            }
+        }
+        if (command.cancelable) {
+            command.onCancel(request);
+        }
+
+        synchronized (command) {
+            command.timeouts++;
+        }
+        Log.w(LOG_TAG, command.name + " timed out after " + command.timeoutMillis + "ms");
+        return command.timeoutResult;
+    }
+
+    /* package */ void dump(PrintWriter pw, String prefix) {
+        for (int i = 0; i < mCommands.size(); i++) {
+            final Command command = mCommands.valueAt(i);
+            synchronized (command) {
+                pw.println(prefix + command.name + ": timeout=" + command.timeoutMillis + "ms"
+                        + " queueDepth=" + command.queueDepth
+                        + " maxQueueDepth=" + command.maxQueueDepth
+                        + " timeouts=" + command.timeouts
+                        + (command.cancelable ? " cancelled=" + command.cancelled : "")
+                        + (command.coalesce ? " coalesced=" + command.coalesced : ""));
+            }
+            command.latency.dump(pw, prefix + "  ");
+        }
+    }
+}
@@ -35,8 +35,11 @@ import android.os.Handler;
 import android.os.Message;
 import android.os.Registrant;
 import android.os.RegistrantList;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+
 /**
  * Provides an interface to handle the media part of the video telephony call
  */
@@ -55,6 +58,7 @@ public class MediaHandler extends Handler {
     private static native int nativeInit();
     private static native void nativeDeInit();
     private static native void nativeHandleRawFrame(byte[] frame);
+    private static native int nativeHandleDirectFrame(ByteBuffer frame, int size);
     private static native int nativeSetSurface(SurfaceTexture st);
     private static native void nativeSetDeviceOrientation(int orientation);
     private static native short nativeGetNegotiatedFPS();
@@ -172,6 +176,31 @@ public class MediaHandler extends Handler {
         nativeHandleRawFrame(frame);
     }
 
+    /**
+     * Get a direct buffer to fill with the next camera preview frame (NV21, at the negotiated
+     * size) and pass to {@link #sendPreviewFrame(ByteBuffer)}. Unlike byte[] frames, these
+     * reach the encoder without being copied, and are recycled instead of garbage collected.
+     * @return the buffer, or null if the encoder still holds all of them; skip the frame then
+     */
+    public static ByteBuffer obtainPreviewBuffer() {
+        return PreviewFramePool.getInstance().obtain(
+                mNegotiatedWidth * mNegotiatedHeight * 3 / 2);
+    }
+
+    /**
+     * Send a camera preview frame in a buffer from {@link #obtainPreviewBuffer()} to the media
+     * module. The buffer goes back to the pool and must not be used afterwards.
+     * @param frame the buffer holding the frame in [0, frame.position())
+     */
+    public static void sendPreviewFrame(ByteBuffer frame) {
+        final PreviewFramePool pool = PreviewFramePool.getInstance();
+        final int size = frame.position() > 0 ? frame.position() : frame.limit();
+        final long start = SystemClock.elapsedRealtime();
+        final int error = nativeHandleDirectFrame(frame, size);
+        pool.onFrameEncoded(SystemClock.elapsedRealtime() - start, error == 0);
+        pool.recycle(frame);
+    }
+
     /**
      * Send the SurfaceTexture to media module
      * @param st
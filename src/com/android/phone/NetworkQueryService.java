@@ -26,17 +26,26 @@ import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
+import android.os.SystemClock;
+import android.os.SystemProperties;
 import com.android.internal.telephony.Phone;
-import com.android.internal.telephony.PhoneFactory;
 import android.util.Log;
+import android.util.SparseArray;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-
-import static com.android.internal.telephony.MSimConstants.SUBSCRIPTION_KEY;
+import java.util.List;
 
 /**
  * Service code used to assist in querying the network for service
- * availability.   
+ * availability.
+ *
+ * Each subscription has its own scan: callers asking while a scan of their
+ * subscription is running are added to it, and scans of different
+ * subscriptions don't wait for each other.  A successful result is kept for
+ * persist.phone.netscan_ttl ms and handed straight back to callers that
+ * don't ask for a refresh.
  */
 public class NetworkQueryService extends Service {
     // debug data
@@ -44,22 +53,40 @@ public class NetworkQueryService extends Service {
     private static final boolean DBG = false;
 
     // static events
-    private static final int EVENT_NETWORK_SCAN_COMPLETED = 100; 
-    
-    // static states indicating the query status of the service 
-    private static final int QUERY_READY = -1;
-    private static final int QUERY_IS_RUNNING = -2;
-    
+    private static final int EVENT_NETWORK_SCAN_COMPLETED = 100;
+
     // error statuses that will be retured in the callback.
     public static final int QUERY_OK = 0;
     public static final int QUERY_EXCEPTION = 1;
-    
-    /** state of the query service */
-    private int mState;
-    
-    /** local handle to the phone object */
-    private Phone mPhone;
-    
+
+    /** How long a successful scan result is served from the cache, in ms. */
+    private static final long RESULT_TTL =
+            SystemProperties.getLong("persist.phone.netscan_ttl", 120000);
+
+    /** Query state and cached result of one subscription. */
+    private static final class Scan {
+        /** Callbacks waiting for the running scan. */
+        final RemoteCallbackList<INetworkQueryServiceCallback> callbacks =
+                new RemoteCallbackList<INetworkQueryServiceCallback>();
+        final LatencyHistogram durations;
+        boolean running;
+        long startTime;
+        ArrayList<OperatorInfo> result;
+        long resultTime;
+
+        int scans;
+        int failures;
+        int coalesced;
+        int cacheHits;
+
+        Scan(int subscription) {
+            durations = new LatencyHistogram("sub" + subscription + " scan");
+        }
+    }
+
+    /** Scans by subscription; also used to synchronize access to them. */
+    private final SparseArray<Scan> mScans = new SparseArray<Scan>();
+
     /**
      * Class for clients to access.  Because we know this service always
      * runs in the same process as its clients, we don't need to deal with
@@ -84,84 +111,96 @@ public class NetworkQueryService extends Service {
                 // to all registerd callbacks.
                 case EVENT_NETWORK_SCAN_COMPLETED:
                     if (DBG) log("scan completed, broadcasting results");
-                    broadcastQueryResults((AsyncResult) msg.obj);
+                    broadcastQueryResults(msg.arg1, (AsyncResult) msg.obj);
                     break;
             }
         }
     };
-    
-    /** 
-     * List of callback objects, also used to synchronize access to 
-     * itself and to changes in state.
-     */
-    final RemoteCallbackList<INetworkQueryServiceCallback> mCallbacks =
-        new RemoteCallbackList<INetworkQueryServiceCallback> ();
-    
+
     /**
      * Implementation of the INetworkQueryService interface.
      */
     private final INetworkQueryService.Stub mBinder = new INetworkQueryService.Stub() {
-        
+
         /**
-         * Starts a query with a INetworkQueryServiceCallback object if
-         * one has not been started yet.  Ignore the new query request
-         * if the query has been started already.  Either way, place the
-         * callback object in the queue to be notified upon request 
-         * completion.
+         * Starts a query of the default subscription.
          */
         public void startNetworkQuery(INetworkQueryServiceCallback cb) {
-            if (cb != null) {
-                // register the callback to the list of callbacks.
-                synchronized (mCallbacks) {
-                    mCallbacks.register(cb);
+            startNetworkQueryForSubscription(
+                    PhoneGlobals.getInstance().getDefaultSubscription(), false, cb);
+        }
+
+        /**
+         * Answers from the cache if it holds a recent enough result and
+         * refresh isn't set.  Otherwise starts a query of the subscription
+         * with a INetworkQueryServiceCallback object if one has not been
+         * started yet, and places the callback object in the queue to be
+         * notified upon request completion.
+         */
+        public void startNetworkQueryForSubscription(int subscription, boolean refresh,
+                INetworkQueryServiceCallback cb) {
+            if (cb == null) {
+                return;
+            }
+            ArrayList<OperatorInfo> cached = null;
+            synchronized (mScans) {
+                Scan scan = getScan(subscription);
+                if (!refresh && !scan.running && scan.result != null
+                        && SystemClock.elapsedRealtime() - scan.resultTime < RESULT_TTL) {
+                    scan.cacheHits++;
+                    cached = new ArrayList<OperatorInfo>(scan.result);
+                } else {
+                    // register the callback to the list of callbacks.
+                    scan.callbacks.register(cb);
                     if (DBG) log("registering callback " + cb.getClass().toString());
-                    
-                    switch (mState) {
-                        case QUERY_READY:
-                            // TODO: we may want to install a timeout here in case we
-                            // do not get a timely response from the RIL.
-                            mPhone.getAvailableNetworks(
-                                    mHandler.obtainMessage(EVENT_NETWORK_SCAN_COMPLETED));
-                            mState = QUERY_IS_RUNNING;
-                            if (DBG) log("starting new query");
-                            break;
-                            
+
+                    if (scan.running) {
                         // do nothing if we're currently busy.
-                        case QUERY_IS_RUNNING:
-                            if (DBG) log("query already in progress");
-                            break;
-                        default:
+                        if (DBG) log("query already in progress on sub " + subscription);
+                        scan.coalesced++;
+                    } else {
+                        // TODO: we may want to install a timeout here in case we
+                        // do not get a timely response from the RIL.
+                        Phone phone = PhoneGlobals.getInstance().getPhone(subscription);
+                        phone.getAvailableNetworks(mHandler.obtainMessage(
+                                EVENT_NETWORK_SCAN_COMPLETED, subscription, 0));
+                        scan.running = true;
+                        scan.startTime = SystemClock.elapsedRealtime();
+                        if (DBG) log("starting new query on sub " + subscription);
                     }
                 }
             }
+            if (cached != null) {
+                if (DBG) log("returning cached results for sub " + subscription);
+                try {
+                    cb.onQueryComplete(cached, QUERY_OK);
+                } catch (RemoteException e) {
+                }
+            }
         }
-        
+
         /**
          * Stops a query with a INetworkQueryServiceCallback object as
          * a token.
          */
         public void stopNetworkQuery(INetworkQueryServiceCallback cb) {
-            // currently we just unregister the callback, since there is 
-            // no way to tell the RIL to terminate the query request.  
-            // This means that the RIL may still be busy after the stop 
-            // request was made, but the state tracking logic ensures 
-            // that the delay will only last for 1 request even with 
-            // repeated button presses in the NetworkSetting activity. 
+            // currently we just unregister the callback, since there is
+            // no way to tell the RIL to terminate the query request.
+            // This means that the RIL may still be busy after the stop
+            // request was made, but the state tracking logic ensures
+            // that the delay will only last for 1 request even with
+            // repeated button presses in the NetworkSetting activity.
             if (cb != null) {
-                synchronized (mCallbacks) {
+                synchronized (mScans) {
                     if (DBG) log("unregistering callback " + cb.getClass().toString());
-                    mCallbacks.unregister(cb);
+                    for (int i = 0; i < mScans.size(); i++) {
+                        mScans.valueAt(i).callbacks.unregister(cb);
+                    }
                 }
-            }            
+            }
         }
     };
-    
-    @Override
-    public void onCreate() {
-        mState = QUERY_READY;
-        mPhone = PhoneFactory.getDefaultPhone();
-    }
-    
+
     /**
      * Required for service implementation.
      */
@@ -171,61 +210,97 @@ public class NetworkQueryService extends Service {
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        int subscription = intent.getIntExtra(SUBSCRIPTION_KEY,
-                        PhoneGlobals.getInstance().getDefaultSubscription());
-        log("onStart subscription :" + subscription);
-        mPhone = MSimPhoneGlobals.getInstance().getPhone(subscription);
+        // The subscription to scan comes with each query now.
         return START_REDELIVER_INTENT;
     }
-    
+
     /**
      * Handle the bind request.
      */
     @Override
     public IBinder onBind(Intent intent) {
         // TODO: Currently, return only the LocalBinder instance.  If we
-        // end up requiring support for a remote binder, we will need to 
+        // end up requiring support for a remote binder, we will need to
         // return mBinder as well, depending upon the intent.
         if (DBG) log("binding service implementation");
         return mLocalBinder;
     }
 
     /**
-     * Broadcast the results from the query to all registered callback
-     * objects. 
+     * Broadcast the results from the query to all callback objects
+     * registered for the subscription.
      */
-    private void broadcastQueryResults (AsyncResult ar) {
+    private void broadcastQueryResults(int subscription, AsyncResult ar) {
         // reset the state.
-        synchronized (mCallbacks) {
-            mState = QUERY_READY;
-            
+        synchronized (mScans) {
+            Scan scan = getScan(subscription);
+            scan.running = false;
+            long duration = SystemClock.elapsedRealtime() - scan.startTime;
+            scan.durations.record(duration);
+            scan.scans++;
+
             // see if we need to do any work.
             if (ar == null) {
                 if (DBG) log("AsyncResult is null.");
                 return;
             }
-    
+
             // TODO: we may need greater accuracy here, but for now, just a
             // simple status integer will suffice.
             int exception = (ar.exception == null) ? QUERY_OK : QUERY_EXCEPTION;
-            if (DBG) log("AsyncResult has exception " + exception);
-            
+            log("scan on sub " + subscription + " took " + duration + "ms, status "
+                    + exception);
+            if (exception == QUERY_OK && ar.result != null) {
+                scan.result = new ArrayList<OperatorInfo>((List<OperatorInfo>) ar.result);
+                scan.resultTime = SystemClock.elapsedRealtime();
+            } else {
+                scan.failures++;
+            }
+
             // Make the calls to all the registered callbacks.
-            for (int i = (mCallbacks.beginBroadcast() - 1); i >= 0; i--) {
-                INetworkQueryServiceCallback cb = mCallbacks.getBroadcastItem(i); 
+            for (int i = (scan.callbacks.beginBroadcast() - 1); i >= 0; i--) {
+                INetworkQueryServiceCallback cb = scan.callbacks.getBroadcastItem(i);
                 if (DBG) log("broadcasting results to " + cb.getClass().toString());
                 try {
                     cb.onQueryComplete((ArrayList<OperatorInfo>) ar.result, exception);
                 } catch (RemoteException e) {
                 }
+                // Later queries start over, or get the cached result.
+                scan.callbacks.unregister(cb);
             }
-            
+
             // finish up.
-            mCallbacks.finishBroadcast();
+            scan.callbacks.finishBroadcast();
+        }
+    }
+
+    private Scan getScan(int subscription) {
+        Scan scan = mScans.get(subscription);
+        if (scan == null) {
+            scan = new Scan(subscription);
+            mScans.put(subscription, scan);
+        }
+        return scan;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        synchronized (mScans) {
+            pw.println("NetworkQueryService: ttl=" + RESULT_TTL + "ms");
+            long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < mScans.size(); i++) {
+                Scan scan = mScans.valueAt(i);
+                pw.println("  sub" + mScans.keyAt(i) + ": running=" + scan.running
+                        + " scans=" + scan.scans + " failures=" + scan.failures
+                        + " coalesced=" + scan.coalesced + " cacheHits=" + scan.cacheHits
+                        + " resultAge=" + (scan.result == null
+                                ? "none" : (now - scan.resultTime) + "ms"));
+                scan.durations.dump(pw, "    ");
+            }
         }
     }
-    
+
     private static void log(String msg) {
         Log.d(LOG_TAG, msg);
-    }    
+    }
 }
@@ -75,6 +75,7 @@ public class NetworkSetting extends PreferenceActivity
     private HashMap<Preference, OperatorInfo> mNetworkMap;
 
     Phone mPhone;
+    private int mSubscription;
     protected boolean mIsForeground = false;
 
     /** message for network selection */
@@ -155,7 +156,7 @@ public class NetworkSetting extends PreferenceActivity
             if (DBG) log("connection created, binding local service.");
             mNetworkQueryService = ((NetworkQueryService.LocalBinder) service).getService();
             // as soon as it is bound, run a query.
-            loadNetworksList();
+            loadNetworksList(false);
         }
 
         /** Handle the task of cleaning up the local binding */
@@ -185,7 +186,7 @@ public class NetworkSetting extends PreferenceActivity
         boolean handled = false;
 
         if (preference == mSearchButton) {
-            loadNetworksList();
+            loadNetworksList(true);
             handled = true;
         } else if (preference == mAutoSelect) {
             selectNetworkAutomatic();
@@ -231,12 +232,11 @@ public class NetworkSetting extends PreferenceActivity
 
         addPreferencesFromResource(R.xml.carrier_select);
 
-        int subscription = getIntent().getIntExtra(SUBSCRIPTION_KEY,
+        mSubscription = getIntent().getIntExtra(SUBSCRIPTION_KEY,
                 MSimPhoneGlobals.getInstance().getDefaultSubscription());
-        log("onCreate subscription :" + subscription);
-        mPhone = MSimPhoneGlobals.getInstance().getPhone(subscription);
+        log("onCreate subscription :" + mSubscription);
+        mPhone = MSimPhoneGlobals.getInstance().getPhone(mSubscription);
         Intent intent = new Intent(this, NetworkQueryService.class);
-        intent.putExtra(SUBSCRIPTION_KEY, subscription);
 
         mNetworkList = (PreferenceGroup) getPreferenceScreen().findPreference(LIST_NETWORKS_KEY);
         mNetworkMap = new HashMap<Preference, OperatorInfo>();
@@ -376,7 +376,7 @@ public class NetworkSetting extends PreferenceActivity
         }, 3000);
     }
 
-    private void loadNetworksList() {
+    private void loadNetworksList(boolean refresh) {
         if (DBG) log("load networks list...");
 
         if (mIsForeground) {
@@ -385,7 +385,8 @@ public class NetworkSetting extends PreferenceActivity
 
         // delegate query request to the service.
         try {
-            mNetworkQueryService.startNetworkQuery(mCallback);
+            mNetworkQueryService.startNetworkQueryForSubscription(mSubscription, refresh,
+                    mCallback);
         } catch (RemoteException e) {
         }
 
@@ -33,6 +33,7 @@ import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.PowerManager;
 import android.os.SystemProperties;
 import android.preference.PreferenceManager;
@@ -63,6 +64,7 @@ import com.android.internal.telephony.TelephonyCapabilities;
 import com.android.internal.telephony.util.BlacklistUtils;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * NotificationManager-related utility code for the Phone app.
@@ -177,7 +179,6 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
     // Query used to look up caller-id info for the "call log" notification.
     protected QueryHandler mQueryHandler = null;
     protected static final int CALL_LOG_TOKEN = -1;
-    private static final int CONTACT_TOKEN = -2;
 
     /**
      * Private constructor (this is a singleton).
@@ -352,8 +353,8 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
      * Class used to run asynchronous queries to re-populate the notifications we care about.
      * There are really 3 steps to this:
      *  1. Find the list of missed calls
-     *  2. For each call, run a query to retrieve the caller's name.
-     *  3. For each caller, try obtaining photo.
+     *  2. Retrieve the callers' names, in one background pass (see MissedCallRebuildTask).
+     *  3. Try obtaining the photo of the newest call's caller.
      */
     protected class QueryHandler extends AsyncQueryHandler
             implements ContactsAsyncHelper.OnImageLoadCompleteListener {
@@ -403,64 +404,15 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
 
                     // initial call to retrieve the call list.
                     if (cursor != null) {
+                        final ArrayList<NotificationInfo> infos =
+                                new ArrayList<NotificationInfo>(cursor.getCount());
                         while (cursor.moveToNext()) {
-                            // for each call in the call log list, create
-                            // the notification object and query contacts
-                            NotificationInfo n = getNotificationInfo (cursor);
-
-                            if (DBG) log("query contacts for number: " + n.number);
-
-                            mQueryHandler.startQuery(CONTACT_TOKEN, n,
-                                    Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, n.number),
-                                    PHONES_PROJECTION, null, null, PhoneLookup.NUMBER);
+                            infos.add(getNotificationInfo(cursor));
                         }
-
-                        if (DBG) log("closing call log cursor.");
                         cursor.close();
-                    }
-                    break;
-                case CONTACT_TOKEN:
-                    if (DBG) log("contact query complete.");
-
-                    // subqueries to get the caller name.
-                    if ((cursor != null) && (cookie != null)){
-                        NotificationInfo n = (NotificationInfo) cookie;
-
-                        Uri personUri = null;
-                        if (cursor.moveToFirst()) {
-                            n.name = cursor.getString(
-                                    cursor.getColumnIndexOrThrow(PhoneLookup.DISPLAY_NAME));
-                            long person_id = cursor.getLong(
-                                    cursor.getColumnIndexOrThrow(PhoneLookup._ID));
-                            if (DBG) {
-                                log("contact :" + n.name + " found for phone: " + n.number
-                                        + ". id : " + person_id);
-                            }
-                            personUri = ContentUris.withAppendedId(Contacts.CONTENT_URI, person_id);
-                        }
-
-                        if (personUri != null) {
-                            if (DBG) {
-                                log("Start obtaining picture for the missed call. Uri: "
-                                        + personUri);
-                            }
-                            // Now try to obtain a photo for this person.
-                            // ContactsAsyncHelper will do that and call onImageLoadComplete()
-                            // after that.
-                            ContactsAsyncHelper.startObtainPhotoAsync(
-                                    0, mContext, personUri, this, n);
-                        } else {
-                            if (DBG) {
-                                log("Failed to find Uri for obtaining photo."
-                                        + " Just send notification without it.");
-                            }
-                            // We couldn't find person Uri, so we're sure we cannot obtain a photo.
-                            // Call notifyMissedCall() right now.
-                            notifyMissedCall(n.name, n.number, n.type, null, null, n.date);
+                        if (!infos.isEmpty()) {
+                            new MissedCallRebuildTask(infos).execute();
                         }
-
-                        if (DBG) log("closing contact cursor.");
-                        cursor.close();
                     }
                     break;
                 default:
@@ -472,7 +424,103 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
                 int token, Drawable photo, Bitmap photoIcon, Object cookie) {
             if (DBG) log("Finished loading image: " + photo);
             NotificationInfo n = (NotificationInfo) cookie;
-            notifyMissedCall(n.name, n.number, n.type, photo, photoIcon, n.date);
+            // Skip if the notification was cleared or a newer call came in meanwhile.
+            if (!mMissedCalls.isEmpty() && mMissedCalls.get(0).date == n.date
+                    && TextUtils.equals(mMissedCalls.get(0).number, n.number)) {
+                postMissedCallNotification(getMissedCallName(n.name, n.number), n.number,
+                        photo, photoIcon, n.date);
+            }
+        }
+
+        /**
+         * Resolves the names of all the missed calls found at startup on a background thread,
+         * looking each distinct number up once, then rebuilds the notification with a single
+         * update. Only the newest call's photo is loaded, and only when the collapsed
+         * notification shows it (all calls from the same number).
+         */
+        private class MissedCallRebuildTask extends AsyncTask<Void, Void, Uri> {
+            // Newest first, as returned by the call log query.
+            private final ArrayList<NotificationInfo> mInfos;
+
+            MissedCallRebuildTask(ArrayList<NotificationInfo> infos) {
+                mInfos = infos;
+            }
+
+            @Override
+            protected Uri doInBackground(Void... params) {
+                final ContentResolver resolver = mContext.getContentResolver();
+                // number -> { name, person Uri }; a missing name means no contact.
+                final HashMap<String, Object[]> lookups = new HashMap<String, Object[]>();
+                String commonNumber = null;
+                boolean sameNumber = true;
+                for (NotificationInfo n : mInfos) {
+                    if (n.number == null) {
+                        sameNumber = false;
+                        continue;
+                    }
+                    if (commonNumber == null) {
+                        commonNumber = n.number;
+                    } else if (!commonNumber.equals(n.number)) {
+                        sameNumber = false;
+                    }
+                    Object[] contact = lookups.get(n.number);
+                    if (contact == null) {
+                        contact = lookUpContact(resolver, n.number);
+                        lookups.put(n.number, contact);
+                    }
+                    n.name = (String) contact[0];
+                }
+                if (DBG) {
+                    log("missed call rebuild: " + mInfos.size() + " calls, "
+                            + lookups.size() + " lookups");
+                }
+                final NotificationInfo newest = mInfos.get(0);
+                return sameNumber && newest.number != null
+                        ? (Uri) lookups.get(newest.number)[1] : null;
+            }
+
+            private Object[] lookUpContact(ContentResolver resolver, String number) {
+                final Object[] contact = new Object[2];
+                final Cursor cursor = resolver.query(
+                        Uri.withAppendedPath(PhoneLookup.CONTENT_FILTER_URI, number),
+                        PHONES_PROJECTION, null, null, PhoneLookup.NUMBER);
+                if (cursor == null) {
+                    return contact;
+                }
+                try {
+                    if (cursor.moveToFirst()) {
+                        contact[0] = cursor.getString(
+                                cursor.getColumnIndexOrThrow(PhoneLookup.DISPLAY_NAME));
+                        contact[1] = ContentUris.withAppendedId(Contacts.CONTENT_URI,
+                                cursor.getLong(cursor.getColumnIndexOrThrow(PhoneLookup._ID)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+                return contact;
+            }
+
+            @Override
+            protected void onPostExecute(Uri personUri) {
+                if (!PhoneGlobals.sVoiceCapable) {
+                    return;
+                }
+                // Calls missed while the task was running are already in mMissedCalls;
+                // addMissedCall() merges these in by date.
+                for (NotificationInfo n : mInfos) {
+                    addMissedCall(n.name, n.number, n.date);
+                }
+                final MissedCallInfo latest = mMissedCalls.get(0);
+                postMissedCallNotification(latest.name, latest.number, null, null, latest.date);
+                final NotificationInfo newest = mInfos.get(0);
+                if (personUri != null && latest.date == newest.date
+                        && TextUtils.equals(latest.number, newest.number)) {
+                    // Posts the notification again with the photo once it is loaded.
+                    ContactsAsyncHelper.startObtainPhotoAsync(
+                            0, mContext, personUri, QueryHandler.this, newest,
+                            ContactsAsyncHelper.PRIORITY_NOTIFICATION);
+                }
+            }
         }
 
         /**
@@ -561,9 +609,6 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
     /* package */ void notifyMissedCall(
             String name, String number, String type, Drawable photo, Bitmap photoIcon, long date) {
 
-        // When the user clicks this notification, we go to the call log.
-        final Intent callLogIntent = PhoneGlobals.createCallLogIntent();
-
         // Never display the missed call notification on non-voice-capable
         // devices, even if the device does somehow manage to get an
         // incoming call.
@@ -578,20 +623,50 @@ public class NotificationMgr implements CallerInfoAsyncQuery.OnQueryCompleteList
                 + ", date: " + date);
         }
 
-        // get the name for the ticker text
-        // i.e. "Missed call from <caller name or number>"
-        String callName;
+        final String callName = addMissedCall(name, number, date);
+        postMissedCallNotification(callName, number, photo, photoIcon, date);
+    }
+
+    /**
+     * Returns the name to show for a missed call, i.e. the caller name or number, or
+     * "unknown" if the caller is unidentifiable.
+     */
+    private String getMissedCallName(String name, String number) {
         if (name != null && TextUtils.isGraphic(name)) {
-            callName = name;
+            return name;
         } else if (!TextUtils.isEmpty(number)) {
-            callName = number;
+            return number;
         } else {
-            // use "unknown" if the caller is unidentifiable.
-            callName = mContext.getString(R.string.unknown);
+            return mContext.getString(R.string.unknown);
         }
+    }
+
+    /**
+     * Adds a missed call to the list shown by the notification, without updating it.
+     * @return the name used for the call
+     */
+    private String addMissedCall(String name, String number, long date) {
+        // get the name for the ticker text
+        // i.e. "Missed call from <caller name or number>"
+        final String callName = getMissedCallName(name, number);
 
         // keep track of the call, keeping list sorted from newest to oldest
-        mMissedCalls.add(0, new MissedCallInfo(callName, number, date));
+        int index = 0;
+        while (index < mMissedCalls.size() && mMissedCalls.get(index).date > date) {
+            index++;
+        }
+        mMissedCalls.add(index, new MissedCallInfo(callName, number, date));
+        return callName;
+    }
+
+    /**
+     * Posts the missed call notification for the current list of missed calls; callName,
+     * number and date describe the newest one.
+     */
+    private void postMissedCallNotification(String callName, String number, Drawable photo,
+            Bitmap photoIcon, long date) {
+        // When the user clicks this notification, we go to the call log.
+        final Intent callLogIntent = PhoneGlobals.createCallLogIntent();
 
         Notification.Builder builder = new Notification.Builder(mContext);
         if (Settings.System.getInt(mContext.getContentResolver(),
@@ -194,7 +194,7 @@ public class OutgoingCallBroadcaster extends Activity
                     && (app.phone.isOtaSpNumber(number))) {
                 if (DBG) Log.v(TAG, "Call is active, a 2nd OTA call cancelled -- returning.");
                 return;
-            } else if (PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, context)) {
+            } else if (app.emergencyNumberClassifier.isPotentialEmergencyNumber(number)) {
                 // Just like 3rd-party apps aren't allowed to place emergency
                 // calls via the ACTION_CALL intent, we also don't allow 3rd
                 // party apps to use the NEW_OUTGOING_CALL broadcast to rewrite
@@ -363,6 +363,7 @@ public class OutgoingCallBroadcaster extends Activity
      */
     @Override
     protected void onCreate(Bundle icicle) {
+        CallTracer.beginOutgoingCall();
         super.onCreate(icicle);
         setContentView(R.layout.outgoing_call_broadcaster);
         mWaitingSpinner = (ProgressBar) findViewById(R.id.spinner);
@@ -550,10 +551,11 @@ public class OutgoingCallBroadcaster extends Activity
         // "invalid" number like "9111234" that isn't technically an
         // emergency number but might still result in an emergency call
         // with some networks.)
-        final boolean isExactEmergencyNumber =
-                (number != null) && PhoneNumberUtils.isLocalEmergencyNumber(number, this);
+        final int emergency =
+                PhoneGlobals.getInstance().emergencyNumberClassifier.classify(number);
+        final boolean isExactEmergencyNumber = emergency == EmergencyNumberClassifier.EXACT;
         final boolean isPotentialEmergencyNumber =
-                (number != null) && PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, this);
+                emergency != EmergencyNumberClassifier.NOT_EMERGENCY;
         if (VDBG) {
             Log.v(TAG, " - Checking restrictions for number '" + number + "':");
             Log.v(TAG, "     isExactEmergencyNumber     = " + isExactEmergencyNumber);
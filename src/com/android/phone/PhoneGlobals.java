@@ -32,7 +32,6 @@ import android.bluetooth.IBluetoothHeadsetPhone;
 import android.content.ActivityNotFoundException;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.Intent;
@@ -49,6 +48,7 @@ import android.os.IBinder;
 import android.os.IPowerManager;
 import android.os.Message;
 import android.os.PowerManager;
+import android.os.Process;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.SystemClock;
@@ -77,7 +77,6 @@ import com.android.internal.telephony.TelephonyCapabilities;
 import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.cdma.TtyIntent;
 import com.android.internal.telephony.util.BlacklistUtils;
-import com.android.phone.common.CallLogAsync;
 import com.android.phone.OtaUtils.CdmaOtaScreenState;
 import com.android.server.sip.SipService;
 
@@ -181,9 +180,15 @@ public class PhoneGlobals extends ContextWrapper
     CallController callController;
     InCallUiState inCallUiState;
     CallerInfoCache callerInfoCache;
+    BlacklistEngine blacklistEngine;
     CallNotifier notifier;
     NotificationMgr notificationMgr;
     Ringer ringer;
+    VibrationScheduler vibrationScheduler;
+    EmergencyNumberClassifier emergencyNumberClassifier;
+    SuppServiceCache suppServiceCache;
+    final StartupTrace startupTrace = new StartupTrace();
+    CallLogWriter callLogWriter;
     IBluetoothHeadsetPhone mBluetoothPhone;
     PhoneInterfaceManager phoneMgr;
     CallManager mCM;
@@ -356,6 +361,8 @@ public class PhoneGlobals extends ContextWrapper
                     break;
 
                 case MMI_COMPLETE:
+                    // The code may have changed call forwarding or call waiting.
+                    suppServiceCache.invalidateAll();
                     onMMIComplete((AsyncResult) msg.obj);
                     break;
 
@@ -465,8 +472,6 @@ public class PhoneGlobals extends ContextWrapper
     public void onCreate() {
         if (VDBG) Log.v(LOG_TAG, "onCreate()...");
 
-        ContentResolver resolver = getContentResolver();
-
         // Cache the "voice capable" flag.
         // This flag currently comes from a resource (which is
         // overrideable on a per-product basis):
@@ -478,6 +483,11 @@ public class PhoneGlobals extends ContextWrapper
         //   getPackageManager().hasSystemFeature(PackageManager.FEATURE_TELEPHONY_VOICE_CALLS);
 
         if (phone == null) {
+            // Only what's needed to take an incoming call runs here; the rest is deferred
+            // (see scheduleStartupStages()).
+            final StartupTrace.Span criticalSpan = startupTrace.begin("critical");
+            StartupTrace.Span span = startupTrace.begin("telephony");
+
             // Initialize the telephony framework
             PhoneFactory.makeDefaultPhones(this);
 
@@ -490,16 +500,17 @@ public class PhoneGlobals extends ContextWrapper
 
             mCM = CallManager.getInstance();
             mCM.registerPhone(phone);
+            span.end();
 
-            createImsService();
-
-            createCsvtService();
-
+            span = startupTrace.begin("notificationMgr");
             // Create the NotificationMgr singleton, which is used to display
             // status bar icons and control other status bar behavior.
             notificationMgr = NotificationMgr.init(this);
+            span.end();
 
+            span = startupTrace.begin("phoneInterfaceManager");
             phoneMgr = PhoneInterfaceManager.init(this, phone);
+            span.end();
 
             mHandler.sendEmptyMessage(EVENT_START_SIP_SERVICE);
 
@@ -511,21 +522,13 @@ public class PhoneGlobals extends ContextWrapper
                 cdmaPhoneCallState.CdmaPhoneCallStateInit();
             }
 
-            if (BluetoothAdapter.getDefaultAdapter() != null) {
-                // Start BluetoothPhoneService even if device is not voice capable.
-                // The device can still support VOIP.
-                startService(new Intent(this, BluetoothPhoneService.class));
-                bindService(new Intent(this, BluetoothPhoneService.class),
-                            mBluetoothPhoneConnection, 0);
-            } else {
-                // Device is not bluetooth capable
-                mBluetoothPhone = null;
-            }
-
+            span = startupTrace.begin("ringer");
+            vibrationScheduler = VibrationScheduler.init();
             ringer = Ringer.init(this);
+            span.end();
 
-            // Convert old blacklist to new format
-            Blacklist.migrateOldDataIfPresent(this);
+            emergencyNumberClassifier = EmergencyNumberClassifier.init(this);
+            suppServiceCache = SuppServiceCache.init();
 
             // before registering for phone state changes
             mPowerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
@@ -559,7 +562,9 @@ public class PhoneGlobals extends ContextWrapper
 
             if (DBG) Log.d(LOG_TAG, "onCreate: mUpdateLock: " + mUpdateLock);
 
-            CallLogger callLogger = new CallLogger(this, new CallLogAsync());
+            span = startupTrace.begin("callNotifier");
+            callLogWriter = CallLogWriter.init(this);
+            CallLogger callLogger = new CallLogger(this);
 
             // Create the CallController singleton, which is the interface
             // to the telephony layer for user-initiated telephony functionality
@@ -569,21 +574,12 @@ public class PhoneGlobals extends ContextWrapper
             // keep track of some "persistent state" of the in-call UI.
             inCallUiState = InCallUiState.init(this);
 
-            // Create the CallerInfoCache singleton, which remembers custom ring tone and
-            // send-to-voicemail settings.
-            //
-            // The asynchronous caching will start just after this call.
-            callerInfoCache = CallerInfoCache.init(this);
-
             // Create the CallNotifer singleton, which handles
             // asynchronous events from the telephony layer (like
             // launching the incoming-call UI when an incoming call comes
             // in.)
             notifier = CallNotifier.init(this, phone, ringer, callLogger);
-
-            // Create the Managed Roaming singleton class, used to show popup
-            // to user for initiating network search when location update is rejected
-            mManagedRoam = ManagedRoaming.init(this);
+            span.end();
 
             // register for ICC status
             IccCard sim = phone.getIccCard();
@@ -640,15 +636,41 @@ public class PhoneGlobals extends ContextWrapper
             am.registerMediaButtonEventReceiverForCalls(new ComponentName(this.getPackageName(),
                     MediaButtonBroadcastReceiver.class.getName()));
 
-            //set the default values for the preferences in the phone.
-            PreferenceManager.setDefaultValues(this, R.xml.network_setting, false);
-
-            PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
-
             // Make sure the audio mode (along with some
             // audio-mode-related state of our own) is initialized
             // correctly, given the current state of the phone.
             PhoneUtils.setAudioMode(mCM);
+            criticalSpan.end();
+
+            scheduleStartupStages(new Runnable() {
+                @Override
+                public void run() {
+                    StartupTrace.Span span = startupTrace.begin("imsCsvt");
+                    createImsService();
+                    createCsvtService();
+                    span.end();
+
+                    startBluetoothPhoneService();
+
+                    span = startupTrace.begin("blacklistEngine");
+                    // Load the blacklist into memory before migrating, so that migrated
+                    // numbers reach it with a single reload.
+                    blacklistEngine = BlacklistEngine.init(PhoneGlobals.this);
+                    span.end();
+
+                    initCallerInfoCacheAndRoaming();
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    final StartupTrace.Span span = startupTrace.begin("blacklistMigration");
+                    // Convert old blacklist to new format
+                    Blacklist.migrateOldDataIfPresent(PhoneGlobals.this);
+                    span.end();
+
+                    setDefaultPreferencesAndPreloadSimProvider();
+                }
+            });
         }
 
         if (TelephonyCapabilities.supportsOtasp(phone)) {
@@ -658,9 +680,6 @@ public class PhoneGlobals extends ContextWrapper
             cdmaOtaInCallScreenUiState = new OtaUtils.CdmaOtaInCallScreenUiState();
         }
 
-        // XXX pre-load the SimProvider so that it's ready
-        resolver.getType(Uri.parse("content://icc/adn"));
-
         // start with the default value to set the mute state.
         mShouldRestoreMuteOnInCallResume = false;
 
@@ -699,6 +718,78 @@ public class PhoneGlobals extends ContextWrapper
         }
    }
 
+    /**
+     * Runs the startup work an incoming call doesn't depend on: "deferred" on the main thread
+     * right after onCreate() returns, then "background" on a background thread.
+     */
+    protected void scheduleStartupStages(final Runnable deferred, final Runnable background) {
+        startupTrace.mark(StartupTrace.READY_FOR_MT_CALL);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final StartupTrace.Span span = startupTrace.begin("deferred");
+                deferred.run();
+                span.end();
+
+                new Thread("PhoneStartup") {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        final StartupTrace.Span span = startupTrace.begin("background");
+                        background.run();
+                        span.end();
+                    }
+                }.start();
+            }
+        });
+    }
+
+    /* package */ void startBluetoothPhoneService() {
+        final StartupTrace.Span span = startupTrace.begin("bluetooth");
+        if (BluetoothAdapter.getDefaultAdapter() != null) {
+            // Start BluetoothPhoneService even if device is not voice capable.
+            // The device can still support VOIP.
+            startService(new Intent(this, BluetoothPhoneService.class));
+            bindService(new Intent(this, BluetoothPhoneService.class),
+                        mBluetoothPhoneConnection, 0);
+        } else {
+            // Device is not bluetooth capable
+            mBluetoothPhone = null;
+        }
+        span.end();
+    }
+
+    /* package */ void initCallerInfoCacheAndRoaming() {
+        StartupTrace.Span span = startupTrace.begin("callerInfoCache");
+        // Create the CallerInfoCache singleton, which remembers custom ring tone and
+        // send-to-voicemail settings. Until it exists, CallNotifier relies on the
+        // CallerInfo query alone.
+        //
+        // The asynchronous caching will start just after this call.
+        callerInfoCache = CallerInfoCache.init(this);
+        span.end();
+
+        span = startupTrace.begin("managedRoaming");
+        // Create the Managed Roaming singleton class, used to show popup
+        // to user for initiating network search when location update is rejected
+        mManagedRoam = ManagedRoaming.init(this);
+        span.end();
+    }
+
+    /* package */ void setDefaultPreferencesAndPreloadSimProvider() {
+        StartupTrace.Span span = startupTrace.begin("defaultPreferences");
+        //set the default values for the preferences in the phone.
+        PreferenceManager.setDefaultValues(this, R.xml.network_setting, false);
+
+        PreferenceManager.setDefaultValues(this, R.xml.call_feature_setting, false);
+        span.end();
+
+        span = startupTrace.begin("simProvider");
+        // XXX pre-load the SimProvider so that it's ready
+        getContentResolver().getType(Uri.parse("content://icc/adn"));
+        span.end();
+    }
+
     public void createImsService() {
         if ( PhoneUtils.isCallOnImsEnabled() ) {
             try {
@@ -908,7 +999,7 @@ public class PhoneGlobals extends ContextWrapper
             // accidentally tries to bring it up...
             Log.w(LOG_TAG, "displayCallScreen: transition to InCallScreen failed: " + e);
         }
-        Profiler.callScreenRequested();
+        CallTracer.event(CallTracer.CALL_SCREEN_REQUESTED);
     }
 
     boolean isSimPinEnabled() {
@@ -24,6 +24,7 @@ import android.app.AppOpsManager;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.AsyncResult;
@@ -38,7 +39,9 @@ import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.telephony.NeighboringCellInfo;
 import android.telephony.CellInfo;
+import android.telephony.PhoneStateListener;
 import android.telephony.ServiceState;
+import android.telephony.TelephonyManager;
 import android.text.TextUtils;
 import android.util.Log;
 
@@ -51,6 +54,8 @@ import com.android.internal.telephony.CommandException;
 import com.android.internal.telephony.PhoneConstants;
 import com.android.internal.telephony.RILConstants;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
 
@@ -79,54 +84,48 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     CallManager mCM;
     AppOpsManager mAppOps;
     MainThreadHandler mMainThreadHandler;
+    MainThreadRequestEngine mRequestEngine;
+    CellInfoCache mCellInfoCache;
 
-    /**
-     * A request object for use with {@link MainThreadHandler}. Requesters should wait() on the
-     * request after sending. The main thread will notify the request when it is complete.
-     */
-    private static final class MainThreadRequest {
-        /** The argument to use for the request */
-        public Object argument;
-        /** The result of the request that is run on the main thread */
-        public Object result;
+    // Per-command timeouts for sendRequest(). CMD_END_CALL and CMD_HANDLE_PIN_MMI run
+    // synchronously on the main thread; neighboring cells wait for the radio.
+    private static final long END_CALL_TIMEOUT = 5000; // ms
+    private static final long HANDLE_PIN_MMI_TIMEOUT = 5000; // ms
+    private static final long NEIGHBORING_CELL_TIMEOUT = 10000; // ms
 
-        public MainThreadRequest(Object argument) {
-            this.argument = argument;
-        }
-    }
+    /** Returned by getNeighboringCellInfo() when the radio fails or times out; never mutated. */
+    private static final ArrayList<NeighboringCellInfo> NO_NEIGHBORING_CELLS =
+            new ArrayList<NeighboringCellInfo>();
 
     /**
      * A handler that processes messages on the main thread in the phone process. Since many
      * of the Phone calls are not thread safe this is needed to shuttle the requests from the
      * inbound binder threads to the main thread in the phone process.  The Binder thread
-     * may provide a {@link MainThreadRequest} object in the msg.obj field that they are waiting
-     * on, which will be notified when the operation completes and will contain the result of the
-     * request.
+     * may provide a {@link MainThreadRequestEngine.Request} object in the msg.obj field that
+     * they are waiting on.
      *
-     * <p>If a MainThreadRequest object is provided in the msg.obj field,
-     * note that request.result must be set to something non-null for the calling thread to
-     * unblock.
+     * <p>If a request object is provided in the msg.obj field, request.complete() must be
+     * called with the result for the calling thread to unblock before its timeout.
      */
     private final class MainThreadHandler extends Handler {
         @Override
         public void handleMessage(Message msg) {
-            MainThreadRequest request;
+            MainThreadRequestEngine.Request request;
             Message onCompleted;
             AsyncResult ar;
 
             switch (msg.what) {
                 case CMD_HANDLE_PIN_MMI:
-                    request = (MainThreadRequest) msg.obj;
-                    request.result = Boolean.valueOf(
-                            mPhone.handlePinMmi((String) request.argument));
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
+                    request = MainThreadRequestEngine.begin(msg);
+                    if (request == null) {
+                        break;
                     }
+                    request.complete(Boolean.valueOf(
+                            mPhone.handlePinMmi((String) request.argument)));
                     break;
 
                 case CMD_HANDLE_NEIGHBORING_CELL:
-                    request = (MainThreadRequest) msg.obj;
+                    request = (MainThreadRequestEngine.Request) msg.obj;
                     onCompleted = obtainMessage(EVENT_NEIGHBORING_CELL_DONE,
                             request);
                     mPhone.getNeighboringCids(onCompleted);
@@ -134,16 +133,12 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
                 case EVENT_NEIGHBORING_CELL_DONE:
                     ar = (AsyncResult) msg.obj;
-                    request = (MainThreadRequest) ar.userObj;
+                    request = (MainThreadRequestEngine.Request) ar.userObj;
                     if (ar.exception == null && ar.result != null) {
-                        request.result = ar.result;
+                        request.complete(ar.result);
                     } else {
-                        // create an empty list to notify the waiting thread
-                        request.result = new ArrayList<NeighboringCellInfo>();
-                    }
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
+                        // return an empty list to the waiting threads
+                        request.complete(NO_NEIGHBORING_CELLS);
                     }
                     break;
 
@@ -156,7 +151,10 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                     break;
 
                 case CMD_END_CALL:
-                    request = (MainThreadRequest) msg.obj;
+                    request = MainThreadRequestEngine.begin(msg);
+                    if (request == null) {
+                        break;
+                    }
                     boolean hungUp = false;
                     int phoneType = mPhone.getPhoneType();
                     if (phoneType == PhoneConstants.PHONE_TYPE_CDMA) {
@@ -171,11 +169,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
                         throw new IllegalStateException("Unexpected phone type: " + phoneType);
                     }
                     if (DBG) log("CMD_END_CALL: " + (hungUp ? "hung up!" : "no call to hang up"));
-                    request.result = hungUp;
-                    // Wake up the requesting thread
-                    synchronized (request) {
-                        request.notifyAll();
-                    }
+                    request.complete(hungUp);
                     break;
 
                 default:
@@ -187,29 +181,12 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
     /**
      * Posts the specified command to be executed on the main thread,
-     * waits for the request to complete, and returns the result.
+     * waits for the request to complete, and returns the result. Returns the
+     * command's timeout result if the main thread doesn't answer in time.
      * @see #sendRequestAsync
      */
     private Object sendRequest(int command, Object argument) {
-        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
-            throw new RuntimeException("This method will deadlock if called from the main thread.");
-        }
-
-        MainThreadRequest request = new MainThreadRequest(argument);
-        Message msg = mMainThreadHandler.obtainMessage(command, request);
-        msg.sendToTarget();
-
-        // Wait for the request to complete
-        synchronized (request) {
-            while (request.result == null) {
-                try {
-                    request.wait();
-                } catch (InterruptedException e) {
-                    // Do nothing, go back and wait until the request is complete
-                }
-            }
-        }
-        return request.result;
+        return mRequestEngine.send(command, argument, null);
     }
 
     /**
@@ -244,6 +221,17 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         mCM = PhoneGlobals.getInstance().mCM;
         mAppOps = (AppOpsManager)app.getSystemService(Context.APP_OPS_SERVICE);
         mMainThreadHandler = new MainThreadHandler();
+        mRequestEngine = new MainThreadRequestEngine(mMainThreadHandler);
+        mRequestEngine.registerCommand(CMD_HANDLE_PIN_MMI, "handlePinMmi",
+                HANDLE_PIN_MMI_TIMEOUT, false, true, Boolean.FALSE);
+        mRequestEngine.registerCommand(CMD_HANDLE_NEIGHBORING_CELL, "getNeighboringCellInfo",
+                NEIGHBORING_CELL_TIMEOUT, true, false, NO_NEIGHBORING_CELLS);
+        mRequestEngine.registerCommand(CMD_END_CALL, "endCall",
+                END_CALL_TIMEOUT, false, true, Boolean.FALSE);
+        mCellInfoCache = new CellInfoCache();
+        ((TelephonyManager) app.getSystemService(Context.TELEPHONY_SERVICE)).listen(
+                mCellInfoCache.newInvalidationListener(mPhone.getSubscription()),
+                PhoneStateListener.LISTEN_SERVICE_STATE | PhoneStateListener.LISTEN_CELL_LOCATION);
         publish();
     }
 
@@ -688,9 +676,15 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
         if (checkIfCallerIsSelfOrForegoundUser()) {
             if (DBG_LOC) log("getCellLocation: is active user");
-            Bundle data = new Bundle();
-            mPhone.getCellLocation().fillInNotifierBundle(data);
-            return data;
+            return mCellInfoCache.getCellLocation(mPhone.getSubscription(),
+                    new CellInfoCache.Loader<Bundle>() {
+                @Override
+                public Bundle load() {
+                    Bundle data = new Bundle();
+                    mPhone.getCellLocation().fillInNotifierBundle(data);
+                    return data;
+                }
+            });
         } else {
             if (DBG_LOC) log("getCellLocation: suppress non-active user");
             return null;
@@ -711,8 +705,35 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         mPhone.disableLocationUpdates();
     }
 
+    /**
+     * Queries the radio on behalf of the cell info cache; failures and timeouts are not cached.
+     */
+    private final CellInfoCache.Loader<List<NeighboringCellInfo>> mNeighboringCellLoader =
+            new CellInfoCache.Loader<List<NeighboringCellInfo>>() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public List<NeighboringCellInfo> load() {
+            try {
+                Object cells = sendRequest(CMD_HANDLE_NEIGHBORING_CELL, null);
+                if (cells != NO_NEIGHBORING_CELLS) {
+                    return (List<NeighboringCellInfo>) cells;
+                }
+            } catch (RuntimeException e) {
+                Log.e(LOG_TAG, "getNeighboringCellInfo " + e);
+            }
+            return null;
+        }
+    };
+
+    private final CellInfoCache.Loader<List<CellInfo>> mAllCellInfoLoader =
+            new CellInfoCache.Loader<List<CellInfo>>() {
+        @Override
+        public List<CellInfo> load() {
+            return mPhone.getAllCellInfo();
+        }
+    };
+
     @Override
-    @SuppressWarnings("unchecked")
     public List<NeighboringCellInfo> getNeighboringCellInfo(String callingPackage) {
         try {
             mApp.enforceCallingOrSelfPermission(
@@ -733,15 +754,9 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
         if (checkIfCallerIsSelfOrForegoundUser()) {
             if (DBG_LOC) log("getNeighboringCellInfo: is active user");
 
-            ArrayList<NeighboringCellInfo> cells = null;
-
-            try {
-                cells = (ArrayList<NeighboringCellInfo>) sendRequest(
-                        CMD_HANDLE_NEIGHBORING_CELL, null);
-            } catch (RuntimeException e) {
-                Log.e(LOG_TAG, "getNeighboringCellInfo " + e);
-            }
-            return cells;
+            List<NeighboringCellInfo> cells = mCellInfoCache.getNeighboringCellInfo(
+                    mPhone.getSubscription(), mNeighboringCellLoader);
+            return cells != null ? cells : new ArrayList<NeighboringCellInfo>();
         } else {
             if (DBG_LOC) log("getNeighboringCellInfo: suppress non-active user");
             return null;
@@ -764,7 +779,7 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
 
         if (checkIfCallerIsSelfOrForegoundUser()) {
             if (DBG_LOC) log("getAllCellInfo: is active user");
-            return mPhone.getAllCellInfo();
+            return mCellInfoCache.getAllCellInfo(mPhone.getSubscription(), mAllCellInfoLoader);
         } else {
             if (DBG_LOC) log("getAllCellInfo: suppress non-active user");
             return null;
@@ -955,4 +970,50 @@ public class PhoneInterfaceManager extends ITelephony.Stub {
     public void setPhone(Phone phone) {
         mPhone = phone;
     }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (mApp.checkCallingOrSelfPermission(android.Manifest.permission.DUMP)
+                != PackageManager.PERMISSION_GRANTED) {
+            pw.println("Permission Denial: can't dump phone from pid="
+                    + Binder.getCallingPid() + ", uid=" + Binder.getCallingUid());
+            return;
+        }
+        mApp.startupTrace.dump(pw);
+        if (mApp.callerInfoCache != null) {
+            mApp.callerInfoCache.dump(pw);
+        }
+        if (mApp.notifier != null) {
+            mApp.notifier.dump(pw);
+        }
+        if (mApp.callLogWriter != null) {
+            mApp.callLogWriter.dump(pw);
+        }
+        if (mApp.vibrationScheduler != null) {
+            mApp.vibrationScheduler.dump(pw);
+        }
+        if (mApp.blacklistEngine != null) {
+            mApp.blacklistEngine.dump(pw);
+        }
+        if (mApp.emergencyNumberClassifier != null) {
+            mApp.emergencyNumberClassifier.dump(pw);
+        }
+        if (mApp.suppServiceCache != null) {
+            mApp.suppServiceCache.dump(pw);
+        }
+        ContactsAsyncHelper.dump(pw);
+        CallTracer.dump(pw);
+        DtmfSender.dump(pw);
+        PreviewFramePool.dump(pw);
+        pw.println("Main thread requests:");
+        mRequestEngine.dump(pw, "  ");
+        pw.println("Cell info cache:");
+        mCellInfoCache.dump(pw, "  ");
+        if (mApp instanceof MSimPhoneGlobals) {
+            final MSimPhoneInterfaceManager msimMgr = ((MSimPhoneGlobals) mApp).phoneMgrMSim;
+            if (msimMgr != null) {
+                msimMgr.dump(pw);
+            }
+        }
+    }
 }
@@ -31,6 +31,7 @@ import android.content.SharedPreferences;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
+import android.database.ContentObserver;
 import android.graphics.drawable.Drawable;
 import android.media.AudioManager;
 import android.net.Uri;
@@ -442,34 +443,88 @@ public class PhoneUtils {
         return call.getEarliestConnection();
     }
 
+    /**
+     * The phone's own preferences, as read on the call paths (ringing, dialing, disconnect).
+     *
+     * Values are read from an immutable {@link Snapshot} instead of going through
+     * SharedPreferences and parsing on every call. The snapshot is built on first use and
+     * replaced as a whole when a preference or the system "vibrate when ringing" setting
+     * changes, so readers never see a half-updated set of values.
+     */
     static class PhoneSettings {
+        /** Immutable copy of the settings at one point in time. */
+        static final class Snapshot {
+            final boolean vibOn45Secs;
+            final boolean vibHangup;
+            final boolean vibOutgoing;
+            final boolean vibCallWaiting;
+            final boolean showInCallEvents;
+            final boolean showCallLogAfterCall;
+            final boolean markRejectedCallsAsMissed;
+            final int flipAction;
+            final String voiceQualityValue;
+            final boolean vibrateWhenRinging;
+
+            Snapshot(SharedPreferences prefs, boolean vibrateWhenRinging) {
+                vibOn45Secs = prefs.getBoolean("button_vibrate_45", false);
+                vibHangup = prefs.getBoolean("button_vibrate_hangup", true);
+                vibOutgoing = prefs.getBoolean("button_vibrate_outgoing", true);
+                vibCallWaiting = prefs.getBoolean("button_vibrate_call_waiting", false);
+                showInCallEvents = prefs.getBoolean("button_show_ssn_key", false);
+                showCallLogAfterCall = prefs.getBoolean("button_calllog_after_call", false);
+                markRejectedCallsAsMissed = prefs.getBoolean("button_rejected_as_missed", false);
+                flipAction = parseInt(prefs.getString("flip_action", "0"));
+                voiceQualityValue =
+                        prefs.getString(CallFeaturesSetting.BUTTON_VOICE_QUALITY_KEY, null);
+                this.vibrateWhenRinging = vibrateWhenRinging;
+            }
+
+            private static int parseInt(String s) {
+                try {
+                    return Integer.parseInt(s);
+                } catch (NumberFormatException e) {
+                    Log.w(LOG_TAG, "Bad flip_action " + s);
+                    return 0;
+                }
+            }
+        }
+
+        private static volatile Snapshot sSnapshot;
+
+        // SharedPreferences only keeps weak references to its listeners.
+        private static SharedPreferences.OnSharedPreferenceChangeListener sPrefsListener;
+        private static ContentObserver sVibrateWhenRingingObserver;
+
         /* vibration preferences */
         static boolean vibOn45Secs(Context context) {
-            return getPrefs(context).getBoolean("button_vibrate_45", false);
+            return getSnapshot(context).vibOn45Secs;
         }
         static boolean vibHangup(Context context) {
-            return getPrefs(context).getBoolean("button_vibrate_hangup", true);
+            return getSnapshot(context).vibHangup;
         }
         static boolean vibOutgoing(Context context) {
-            return getPrefs(context).getBoolean("button_vibrate_outgoing", true);
+            return getSnapshot(context).vibOutgoing;
         }
         static boolean vibCallWaiting(Context context) {
-            return getPrefs(context).getBoolean("button_vibrate_call_waiting", false);
+            return getSnapshot(context).vibCallWaiting;
+        }
+        /** Same as {@link CallFeaturesSetting#getVibrateWhenRinging}. */
+        static boolean vibrateWhenRinging(Context context) {
+            return getSnapshot(context).vibrateWhenRinging;
         }
 
         /* misc. UI and behaviour preferences */
         static boolean showInCallEvents(Context context) {
-            return getPrefs(context).getBoolean("button_show_ssn_key", false);
+            return getSnapshot(context).showInCallEvents;
         }
         static boolean showCallLogAfterCall(Context context) {
-            return getPrefs(context).getBoolean("button_calllog_after_call", false);
+            return getSnapshot(context).showCallLogAfterCall;
         }
         static boolean markRejectedCallsAsMissed(Context context) {
-            return getPrefs(context).getBoolean("button_rejected_as_missed", false);
+            return getSnapshot(context).markRejectedCallsAsMissed;
         }
         static int flipAction(Context context) {
-            String s = getPrefs(context).getString("flip_action", "0");
-            return Integer.parseInt(s);
+            return getSnapshot(context).flipAction;
         }
 
         /* voice quality preferences */
@@ -485,8 +540,7 @@ public class PhoneUtils {
             return param + "=" + value;
         }
         static String getVoiceQualityValue(Context context) {
-            String value = getPrefs(context).getString(
-                    CallFeaturesSetting.BUTTON_VOICE_QUALITY_KEY, null);
+            String value = getSnapshot(context).voiceQualityValue;
             if (value != null) {
                 return value;
             }
@@ -498,6 +552,44 @@ public class PhoneUtils {
             return null;
         }
 
+        static Snapshot getSnapshot(Context context) {
+            Snapshot snapshot = sSnapshot;
+            if (snapshot == null) {
+                snapshot = startTracking(context.getApplicationContext());
+            }
+            return snapshot;
+        }
+
+        private static synchronized Snapshot startTracking(final Context context) {
+            if (sSnapshot != null) {
+                return sSnapshot;
+            }
+            final SharedPreferences prefs = getPrefs(context);
+            sPrefsListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    rebuild(context);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sPrefsListener);
+            sVibrateWhenRingingObserver = new ContentObserver(null) {
+                @Override
+                public void onChange(boolean selfChange) {
+                    rebuild(context);
+                }
+            };
+            context.getContentResolver().registerContentObserver(
+                    Settings.System.getUriFor(Settings.System.VIBRATE_WHEN_RINGING), false,
+                    sVibrateWhenRingingObserver);
+            return rebuild(context);
+        }
+
+        private static synchronized Snapshot rebuild(Context context) {
+            sSnapshot = new Snapshot(getPrefs(context),
+                    CallFeaturesSetting.getVibrateWhenRinging(context));
+            return sSnapshot;
+        }
+
         private static SharedPreferences getPrefs(Context context) {
             return PreferenceManager.getDefaultSharedPreferences(context);
         }
@@ -761,6 +853,7 @@ public class PhoneUtils {
     public static int placeCall(Context context, Phone phone,
             String number, Uri contactRef, boolean isEmergencyCall,
             Uri gatewayUri, int callType, String[] extras) {
+        CallTracer.event(CallTracer.MO_PHONE_UTILS_PLACE_CALL);
         if (DBG) {
             log("placeCall '" + number + "' GW:'" + gatewayUri + "'" + " CallType:" + callType);
         }
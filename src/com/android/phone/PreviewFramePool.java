@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemProperties;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of direct buffers for the camera preview frames {@link MediaHandler} hands to the VT
+ * encoder, plus the counters of that path.
+ *
+ * At most persist.phone.vt_preview_buffers buffers exist at a time. When they are all in use,
+ * e.g. because the encoder is slower than the camera, {@link #obtain} returns null and the
+ * frame is counted as dropped rather than allocating more. Buffers of a stale size (the
+ * negotiated resolution changed) are let go as they come back.
+ *
+ * Kept apart from MediaHandler so that "dumpsys phone" can print it without loading the VT
+ * library.
+ */
+/* package */ final class PreviewFramePool {
+    private static final int MAX_BUFFERS =
+            SystemProperties.getInt("persist.phone.vt_preview_buffers", 3);
+
+    private static PreviewFramePool sInstance;
+
+    private final ByteBuffer[] mFree = new ByteBuffer[MAX_BUFFERS];
+    private int mFreeCount;
+    private int mOutstanding;
+    private int mFrameSize;
+
+    private final LatencyHistogram mEncodeLatency = new LatencyHistogram("encode");
+    private int mAllocated;
+    private int mFrames;
+    private int mDropped;
+    private int mErrors;
+
+    /* package */ static synchronized PreviewFramePool getInstance() {
+        if (sInstance == null) {
+            sInstance = new PreviewFramePool();
+        }
+        return sInstance;
+    }
+
+    private PreviewFramePool() {
+    }
+
+    /**
+     * @return a cleared buffer of frameSize bytes, or null if all buffers are in use
+     */
+    /* package */ synchronized ByteBuffer obtain(int frameSize) {
+        if (frameSize != mFrameSize) {
+            // Resolution changed; the free buffers are useless now.
+            for (int i = 0; i < mFreeCount; i++) {
+                mFree[i] = null;
+            }
+            mFreeCount = 0;
+            mFrameSize = frameSize;
+        }
+        ByteBuffer buffer;
+        if (mFreeCount > 0) {
+            buffer = mFree[--mFreeCount];
+            mFree[mFreeCount] = null;
+        } else if (mOutstanding < MAX_BUFFERS) {
+            buffer = ByteBuffer.allocateDirect(frameSize);
+            mAllocated++;
+        } else {
+            mDropped++;
+            return null;
+        }
+        mOutstanding++;
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #obtain} to the pool.
+     */
+    /* package */ synchronized void recycle(ByteBuffer buffer) {
+        mOutstanding--;
+        if (buffer.capacity() == mFrameSize && mFreeCount < MAX_BUFFERS) {
+            mFree[mFreeCount++] = buffer;
+        }
+    }
+
+    /**
+     * Records a frame that went to the encoder.
+     *
+     * @param success false if the encoder refused it
+     */
+    /* package */ void onFrameEncoded(long latencyMillis, boolean success) {
+        synchronized (this) {
+            mFrames++;
+            if (!success) {
+                mErrors++;
+            }
+        }
+        mEncodeLatency.record(latencyMillis);
+    }
+
+    /* package */ static void dump(PrintWriter pw) {
+        final PreviewFramePool pool;
+        synchronized (PreviewFramePool.class) {
+            pool = sInstance;
+        }
+        if (pool == null) {
+            return;
+        }
+        synchronized (pool) {
+            pw.println("PreviewFramePool: frameSize=" + pool.mFrameSize
+                    + " buffers=" + MAX_BUFFERS + " allocated=" + pool.mAllocated
+                    + " inUse=" + pool.mOutstanding + " frames=" + pool.mFrames
+                    + " dropped=" + pool.mDropped + " errors=" + pool.mErrors);
+        }
+        pool.mEncodeLatency.dump(pw, "  ");
+    }
+}
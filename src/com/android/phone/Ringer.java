@@ -18,6 +18,7 @@ package com.android.phone;
 
 import android.content.ContentResolver;
 import android.content.Context;
+import android.database.ContentObserver;
 import android.media.AudioManager;
 import android.media.Ringtone;
 import android.media.RingtoneManager;
@@ -31,12 +32,15 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.os.SystemProperties;
-import android.os.SystemVibrator;
-import android.os.Vibrator;
 import android.provider.Settings;
 import android.util.Log;
 
 import com.android.internal.telephony.Phone;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 /**
  * Ringer manager for the Phone app.
  */
@@ -48,9 +52,17 @@ public class Ringer {
     private static final int PLAY_RING_ONCE = 1;
     private static final int STOP_RING = 3;
     private static final int INCREASE_RING_VOLUME = 4;
+    private static final int PREPARE_RINGTONE = 5;
+    private static final int INVALIDATE_RINGTONE = 6;
+
+    /**
+     * Keep one long-lived ring thread and a few prepared Ringtone objects around, instead of
+     * creating a thread and a Ringtone (with its MediaPlayer) when the call starts ringing.
+     */
+    private static final boolean PREWARM = true;
 
-    private static final int VIBRATE_LENGTH = 1000; // ms
-    private static final int PAUSE_LENGTH = 1000; // ms
+    /** Default ringtone plus the most recently used custom ones. */
+    private static final int MAX_PREPARED_RINGTONES = 3;
 
     /** The singleton instance. */
     private static Ringer sInstance;
@@ -59,11 +71,9 @@ public class Ringer {
     Uri mCustomRingtoneUri = Settings.System.DEFAULT_RINGTONE_URI;
 
     Ringtone mRingtone;
-    Vibrator mVibrator;
+    VibrationScheduler mVibrationScheduler;
     AudioManager mAudioManager;
     IPowerManager mPowerManager;
-    volatile boolean mContinueVibrating;
-    VibratorThread mVibratorThread;
     Context mContext;
     private Worker mRingThread;
     private Handler mHandler;
@@ -73,6 +83,18 @@ public class Ringer {
     private int mRingerVolumeSetting = -1;
     private int mRingIncreaseInterval;
 
+    // Time (elapsedRealtime) the incoming connection showed up, and the histogram the time
+    // until the first ringtone audio should go to. Both consumed by the first PLAY_RING_ONCE.
+    private long mIncomingConnectionTime = -1;
+    private LatencyHistogram mFirstAudioLatency;
+
+    // Prepared but never played Ringtones, keyed by Uri in MRU order, and the Uri of the one
+    // currently playing. Both only touched on the ring thread. A Ringtone releases its player
+    // when stopped, so a played one is dropped and prepared again afterwards.
+    private final LinkedHashMap<Uri, Ringtone> mPreparedRingtones =
+            new LinkedHashMap<Uri, Ringtone>(MAX_PREPARED_RINGTONES + 1, 0.75f, true);
+    private Uri mPlayingRingtoneUri;
+
     /**
      * Initialize the singleton Ringer instance.
      * This is only done once, at startup, from PhoneApp.onCreate().
@@ -93,9 +115,58 @@ public class Ringer {
         mContext = context;
         mAudioManager = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
         mPowerManager = IPowerManager.Stub.asInterface(ServiceManager.getService(Context.POWER_SERVICE));
-        // We don't rely on getSystemService(Context.VIBRATOR_SERVICE) to make sure this
-        // vibrator object will be isolated from others.
-        mVibrator = new SystemVibrator(context);
+        mVibrationScheduler = VibrationScheduler.getInstance();
+
+        if (PREWARM) {
+            synchronized (this) {
+                makeRingThread();
+            }
+            prepareRingtone(Settings.System.DEFAULT_RINGTONE_URI);
+            // DEFAULT_RINGTONE_URI is resolved when the Ringtone is created, so a prepared
+            // one goes stale when the user picks another default.
+            context.getContentResolver().registerContentObserver(
+                    Settings.System.getUriFor(Settings.System.RINGTONE), false,
+                    new ContentObserver(new Handler()) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidateRingtone(Settings.System.DEFAULT_RINGTONE_URI);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Prepares a Ringtone for the given Uri in the background so that a later ring() with
+     * that Uri starts playing sooner. No-op unless pre-warming is enabled.
+     */
+    void prepareRingtone(Uri uri) {
+        if (!PREWARM || uri == null) {
+            return;
+        }
+        synchronized (this) {
+            makeRingThread();
+            mRingHandler.obtainMessage(PREPARE_RINGTONE, uri).sendToTarget();
+        }
+    }
+
+    /**
+     * Prepares the given Uris, least important first, so that the first one ends up as the
+     * most recently used entry.
+     */
+    void prepareRingtones(List<Uri> uris) {
+        if (!PREWARM || uris == null) {
+            return;
+        }
+        for (int i = uris.size() - 1; i >= 0; i--) {
+            prepareRingtone(uris.get(i));
+        }
+    }
+
+    private void invalidateRingtone(Uri uri) {
+        synchronized (this) {
+            makeRingThread();
+            mRingHandler.obtainMessage(INVALIDATE_RINGTONE, uri).sendToTarget();
+        }
     }
 
     /**
@@ -145,7 +216,7 @@ public class Ringer {
      */
     private boolean isVibrating() {
         synchronized (this) {
-            return (mVibratorThread != null);
+            return mVibrationScheduler.isActive(VibrationScheduler.CHANNEL_RING);
         }
     }
 
@@ -166,11 +237,11 @@ public class Ringer {
                 // the other end of this binder call is in the system process.
             }
 
-            if (shouldVibrate() && mVibratorThread == null) {
-                mContinueVibrating = true;
-                mVibratorThread = new VibratorThread();
+            if (shouldVibrate() && !isVibrating()) {
                 if (DBG) log("- starting vibrator...");
-                mVibratorThread.start();
+                // One repeating waveform for the whole ring; the Vibrator service paces it.
+                mVibrationScheduler.startRepeating(VibrationScheduler.CHANNEL_RING,
+                        VibrationScheduler.RING_PATTERN, VibrationScheduler.RING_REPEAT);
             }
 
             int ringerVolume = mAudioManager.getStreamVolume(AudioManager.STREAM_RING);
@@ -235,13 +306,24 @@ public class Ringer {
 
     boolean shouldVibrate() {
         int ringerMode = mAudioManager.getRingerMode();
-        if (CallFeaturesSetting.getVibrateWhenRinging(mContext)) {
+        if (PhoneUtils.PhoneSettings.vibrateWhenRinging(mContext)) {
             return ringerMode != AudioManager.RINGER_MODE_SILENT;
         } else {
             return ringerMode == AudioManager.RINGER_MODE_VIBRATE;
         }
     }
 
+    /**
+     * Remembers when the incoming connection that is about to ring was created, so that
+     * the time until the first ringtone audio can be recorded into the given histogram.
+     */
+    void markIncomingConnection(long elapsedRealtime, LatencyHistogram histogram) {
+        synchronized (this) {
+            mIncomingConnectionTime = elapsedRealtime;
+            mFirstAudioLatency = histogram;
+        }
+    }
+
     /**
      * Stops the ringtone and/or vibrator if any of these are actually
      * ringing/vibrating.
@@ -266,39 +348,35 @@ public class Ringer {
                 mRingerVolumeSetting = -1;
             }
             if (mRingHandler != null) {
-                mRingHandler.removeCallbacksAndMessages(null);
+                if (PREWARM) {
+                    // Keep pending PREPARE_RINGTONE requests; the thread stays around.
+                    mRingHandler.removeMessages(PLAY_RING_ONCE);
+                } else {
+                    mRingHandler.removeCallbacksAndMessages(null);
+                }
                 Message msg = mRingHandler.obtainMessage(STOP_RING);
                 msg.obj = mRingtone;
                 mRingHandler.sendMessage(msg);
-                mRingThread = null;
-                mRingHandler = null;
+                if (!PREWARM) {
+                    mRingThread = null;
+                    mRingHandler = null;
+                }
                 mRingtone = null;
                 mFirstRingEventTime = -1;
                 mFirstRingStartTime = -1;
+                mIncomingConnectionTime = -1;
+                mFirstAudioLatency = null;
             } else {
                 if (DBG) log("- stopRing: null mRingHandler!");
             }
 
             PhoneUtils.setAudioMode();
 
-            if (mVibratorThread != null) {
-                if (DBG) log("- stopRing: cleaning up vibrator thread...");
-                mContinueVibrating = false;
-                mVibratorThread = null;
-            }
             // Also immediately cancel any vibration in progress.
-            mVibrator.cancel();
+            mVibrationScheduler.cancel(VibrationScheduler.CHANNEL_RING);
         }
     }
 
-    private class VibratorThread extends Thread {
-        public void run() {
-            while (mContinueVibrating) {
-                mVibrator.vibrate(VIBRATE_LENGTH);
-                SystemClock.sleep(VIBRATE_LENGTH + PAUSE_LENGTH);
-            }
-        }
-    }
     private class Worker implements Runnable {
         private final Object mLock = new Object();
         private Looper mLooper;
@@ -370,6 +448,13 @@ public class Ringer {
             };
         }
 
+        makeRingThread();
+    }
+
+    /**
+     * Creates the ring thread and its handler if needed. Must hold the Ringer lock.
+     */
+    private void makeRingThread() {
         if (mRingThread == null) {
             mRingThread = new Worker("ringer");
             mRingHandler = new Handler(mRingThread.getLooper()) {
@@ -380,12 +465,22 @@ public class Ringer {
                         case PLAY_RING_ONCE:
                             if (DBG) log("mRingHandler: PLAY_RING_ONCE...");
                             if (mRingtone == null && !hasMessages(STOP_RING)) {
-                                // create the ringtone with the uri
-                                if (DBG) log("creating ringtone: " + mCustomRingtoneUri);
-                                r = RingtoneManager.getRingtone(mContext, mCustomRingtoneUri);
+                                final Uri uri = mCustomRingtoneUri;
+                                r = PREWARM ? mPreparedRingtones.remove(uri) : null;
+                                if (r != null) {
+                                    if (DBG) log("using prepared ringtone: " + uri);
+                                } else {
+                                    // create the ringtone with the uri
+                                    if (DBG) log("creating ringtone: " + uri);
+                                    r = RingtoneManager.getRingtone(mContext, uri);
+                                }
                                 synchronized (Ringer.this) {
                                     if (!hasMessages(STOP_RING)) {
                                         mRingtone = r;
+                                        mPlayingRingtoneUri = uri;
+                                    } else if (PREWARM && r != null) {
+                                        // Stopped before it ever played; still good.
+                                        mPreparedRingtones.put(uri, r);
                                     }
                                 }
                             }
@@ -395,7 +490,15 @@ public class Ringer {
                                 r.play();
                                 synchronized (Ringer.this) {
                                     if (mFirstRingStartTime < 0) {
+                                        CallTracer.event(CallTracer.MT_FIRST_RING_AUDIO);
                                         mFirstRingStartTime = SystemClock.elapsedRealtime();
+                                        if (mFirstAudioLatency != null
+                                                && mIncomingConnectionTime > 0) {
+                                            mFirstAudioLatency.record(mFirstRingStartTime
+                                                    - mIncomingConnectionTime);
+                                        }
+                                        mIncomingConnectionTime = -1;
+                                        mFirstAudioLatency = null;
                                     }
                                 }
                             }
@@ -408,7 +511,26 @@ public class Ringer {
                             } else {
                                 if (DBG) log("- STOP_RING with null ringtone!  msg = " + msg);
                             }
-                            getLooper().quit();
+                            if (PREWARM) {
+                                // The stopped Ringtone released its player; get the same
+                                // tone ready for the next call.
+                                if (mPlayingRingtoneUri != null) {
+                                    prepareRingtoneOnRingThread(mPlayingRingtoneUri);
+                                    mPlayingRingtoneUri = null;
+                                }
+                            } else {
+                                getLooper().quit();
+                            }
+                            break;
+                        case PREPARE_RINGTONE:
+                            prepareRingtoneOnRingThread((Uri) msg.obj);
+                            break;
+                        case INVALIDATE_RINGTONE:
+                            r = mPreparedRingtones.remove((Uri) msg.obj);
+                            if (r != null) {
+                                r.stop();
+                                prepareRingtoneOnRingThread((Uri) msg.obj);
+                            }
                             break;
                     }
                 }
@@ -416,6 +538,29 @@ public class Ringer {
         }
     }
 
+    /**
+     * Creates (or just marks as most recently used) a prepared Ringtone for the Uri, evicting
+     * the least recently used one beyond {@link #MAX_PREPARED_RINGTONES}. Ring thread only.
+     */
+    private void prepareRingtoneOnRingThread(Uri uri) {
+        if (mPreparedRingtones.get(uri) != null) {
+            return;
+        }
+        if (DBG) log("preparing ringtone: " + uri);
+        final Ringtone r = RingtoneManager.getRingtone(mContext, uri);
+        if (r == null) {
+            return;
+        }
+        mPreparedRingtones.put(uri, r);
+        final Iterator<Ringtone> iterator = mPreparedRingtones.values().iterator();
+        while (mPreparedRingtones.size() > MAX_PREPARED_RINGTONES && iterator.hasNext()) {
+            final Ringtone eldest = iterator.next();
+            iterator.remove();
+            // Releases the player held by the prepared Ringtone.
+            eldest.stop();
+        }
+    }
+
     private static void log(String msg) {
         Log.d(LOG_TAG, msg);
     }
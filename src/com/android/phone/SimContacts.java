@@ -37,6 +37,7 @@ import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.ContactsContract;
 import android.provider.ContactsContract.CommonDataKinds.Email;
 import android.provider.ContactsContract.CommonDataKinds.GroupMembership;
@@ -83,6 +84,24 @@ public class SimContacts extends ADNList {
 
     private static final int EVENT_CONTACTS_DELETED = 9;
 
+    /**
+     * Number of SIM contacts written per applyBatch() transaction by "import all". 1 restores
+     * the old one-transaction-per-contact behavior.
+     */
+    private static final int IMPORT_BATCH_SIZE = 50;
+
+    /**
+     * Commit a chunk early once it holds this many operations (e.g. SIM rows with lots of
+     * emails), to stay well under the contacts provider's per-batch limit.
+     */
+    private static final int IMPORT_MAX_BATCH_OPERATIONS = 400;
+
+    /**
+     * Pause between chunks, so the UI thread and the provider's other clients get a turn
+     * during a long import.
+     */
+    private static final long IMPORT_CHUNK_PAUSE = 20; // msec
+
     private ProgressDialog mProgressDialog;
 
     private Account mAccount;
@@ -115,7 +134,8 @@ public class SimContacts extends ADNList {
     private class ImportAllSimContactsThread extends Thread
             implements OnCancelListener, OnClickListener {
 
-        boolean mCanceled = false;
+        // Set from the UI thread, checked by the import between chunks.
+        volatile boolean mCanceled = false;
 
         public ImportAllSimContactsThread() {
             super("ImportAllSimContactsThread");
@@ -123,21 +143,73 @@ public class SimContacts extends ADNList {
 
         @Override
         public void run() {
-            final ContentValues emptyContentValues = new ContentValues();
             final ContentResolver resolver = getContentResolver();
+            final ArrayList<ContentProviderOperation> operationList =
+                    new ArrayList<ContentProviderOperation>();
+            final long startTime = SystemClock.elapsedRealtime();
+            int chunkStart = 0;
+            int imported = 0;
 
             mCursor.moveToPosition(-1);
             while (!mCanceled && mCursor.moveToNext()) {
-                actuallyImportOneSimContact(mCursor, resolver, mAccount);
-                mProgressDialog.incrementProgressBy(1);
+                addSimContactOperations(mCursor, mAccount, operationList);
+                final int chunkSize = mCursor.getPosition() + 1 - chunkStart;
+                if (chunkSize >= IMPORT_BATCH_SIZE
+                        || operationList.size() >= IMPORT_MAX_BATCH_OPERATIONS
+                        || mCursor.isLast()) {
+                    // Cancellation takes effect here: a chunk is either fully written or
+                    // not at all.
+                    if (mCanceled) {
+                        break;
+                    }
+                    applyChunk(resolver, operationList, chunkStart, chunkSize);
+                    operationList.clear();
+                    imported += chunkSize;
+                    chunkStart += chunkSize;
+                    mProgressDialog.incrementProgressBy(chunkSize);
+                    if (!mCursor.isLast()) {
+                        // Let the UI thread and the provider's other clients in between
+                        // chunks; a cancel during the pause stops before the next one.
+                        SystemClock.sleep(IMPORT_CHUNK_PAUSE);
+                    }
+                }
             }
 
+            final long elapsed = Math.max(SystemClock.elapsedRealtime() - startTime, 1);
+            Log.i(LOG_TAG, "Imported " + imported + " SIM contacts in " + elapsed + " ms ("
+                    + (imported * 1000L / elapsed) + " contacts/s)"
+                    + (mCanceled ? ", canceled" : ""));
+
             if (mIsForeground) {
                 mProgressDialog.dismiss();
             }
             finish();
         }
 
+        /**
+         * Writes one chunk in a single transaction. If that fails nothing of the chunk was
+         * written, so its contacts are retried one by one and a single bad row doesn't drop its
+         * neighbours.
+         */
+        private void applyChunk(ContentResolver resolver,
+                ArrayList<ContentProviderOperation> operationList, int start, int count) {
+            try {
+                resolver.applyBatch(ContactsContract.AUTHORITY, operationList);
+                return;
+            } catch (RemoteException e) {
+                Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            } catch (OperationApplicationException e) {
+                Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+            }
+            final int position = mCursor.getPosition();
+            for (int i = start; i < start + count; i++) {
+                if (mCursor.moveToPosition(i)) {
+                    actuallyImportOneSimContact(mCursor, resolver, mAccount);
+                }
+            }
+            mCursor.moveToPosition(position);
+        }
+
         public void onCancel(DialogInterface dialog) {
             mCanceled = true;
         }
@@ -154,6 +226,26 @@ public class SimContacts extends ADNList {
 
     private static void actuallyImportOneSimContact(
             final Cursor cursor, final ContentResolver resolver, Account account) {
+        final ArrayList<ContentProviderOperation> operationList =
+            new ArrayList<ContentProviderOperation>();
+        addSimContactOperations(cursor, account, operationList);
+
+        try {
+            resolver.applyBatch(ContactsContract.AUTHORITY, operationList);
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        } catch (OperationApplicationException e) {
+            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
+        }
+    }
+
+    /**
+     * Appends the operations inserting the cursor's current SIM contact to operationList.
+     * Back-references point at this contact's raw contact insert, wherever it lands in the
+     * list, so several contacts can share one batch.
+     */
+    private static void addSimContactOperations(final Cursor cursor, Account account,
+            final ArrayList<ContentProviderOperation> operationList) {
         final NamePhoneTypePair namePhoneTypePair =
             new NamePhoneTypePair(cursor.getString(NAME_COLUMN));
         final String name = namePhoneTypePair.name;
@@ -167,8 +259,7 @@ public class SimContacts extends ADNList {
             emailAddressArray = null;
         }
 
-        final ArrayList<ContentProviderOperation> operationList =
-            new ArrayList<ContentProviderOperation>();
+        final int rawContactIndex = operationList.size();
         ContentProviderOperation.Builder builder =
             ContentProviderOperation.newInsert(RawContacts.CONTENT_URI);
         String myGroupsId = null;
@@ -178,16 +269,18 @@ public class SimContacts extends ADNList {
         } else {
             builder.withValues(sEmptyContentValues);
         }
+        // No yield points: a chunk must be one transaction, or a failure after a yield would
+        // leave contacts behind that applyChunk() then imports a second time.
         operationList.add(builder.build());
 
         builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-        builder.withValueBackReference(StructuredName.RAW_CONTACT_ID, 0);
+        builder.withValueBackReference(StructuredName.RAW_CONTACT_ID, rawContactIndex);
         builder.withValue(Data.MIMETYPE, StructuredName.CONTENT_ITEM_TYPE);
         builder.withValue(StructuredName.DISPLAY_NAME, name);
         operationList.add(builder.build());
 
         builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-        builder.withValueBackReference(Phone.RAW_CONTACT_ID, 0);
+        builder.withValueBackReference(Phone.RAW_CONTACT_ID, rawContactIndex);
         builder.withValue(Data.MIMETYPE, Phone.CONTENT_ITEM_TYPE);
         builder.withValue(Phone.TYPE, phoneType);
         builder.withValue(Phone.NUMBER, phoneNumber);
@@ -197,7 +290,7 @@ public class SimContacts extends ADNList {
         if (emailAddresses != null) {
             for (String emailAddress : emailAddressArray) {
                 builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-                builder.withValueBackReference(Email.RAW_CONTACT_ID, 0);
+                builder.withValueBackReference(Email.RAW_CONTACT_ID, rawContactIndex);
                 builder.withValue(Data.MIMETYPE, Email.CONTENT_ITEM_TYPE);
                 builder.withValue(Email.TYPE, Email.TYPE_MOBILE);
                 builder.withValue(Email.DATA, emailAddress);
@@ -207,19 +300,11 @@ public class SimContacts extends ADNList {
 
         if (myGroupsId != null) {
             builder = ContentProviderOperation.newInsert(Data.CONTENT_URI);
-            builder.withValueBackReference(GroupMembership.RAW_CONTACT_ID, 0);
+            builder.withValueBackReference(GroupMembership.RAW_CONTACT_ID, rawContactIndex);
             builder.withValue(Data.MIMETYPE, GroupMembership.CONTENT_ITEM_TYPE);
             builder.withValue(GroupMembership.GROUP_SOURCE_ID, myGroupsId);
             operationList.add(builder.build());
         }
-
-        try {
-            resolver.applyBatch(ContactsContract.AUTHORITY, operationList);
-        } catch (RemoteException e) {
-            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
-        } catch (OperationApplicationException e) {
-            Log.e(LOG_TAG, String.format("%s: %s", e.toString(), e.getMessage()));
-        }
     }
 
     private void importOneSimContact(int position) {
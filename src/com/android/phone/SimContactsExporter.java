@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.SystemClock;
+import android.provider.ContactsContract;
+import android.provider.ContactsContract.CommonDataKinds.Phone;
+import android.telephony.PhoneNumberUtils;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.internal.telephony.IIccPhoneBook;
+import com.android.internal.telephony.IccConstants;
+import com.android.internal.telephony.msim.IIccPhoneBookMSim;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Copies the phone's contacts with a number to a SIM's ADN phonebook, for
+ * {@link ExportContactsToSim}.
+ *
+ * Contacts already on the SIM (same number, and a tag the name starts with, since the SIM
+ * truncates names to the length of its alpha field) are skipped, and the number of free ADN
+ * records is read up front so the export stops before the SIM overflows instead of failing
+ * row by row. Rows are written through a single provider client in chunks; progress is
+ * reported and cancellation honored between chunks.
+ *
+ * {@link #run} blocks and must be called off the main thread.
+ */
+/* package */ final class SimContactsExporter {
+    private static final String LOG_TAG = "SimContactsExporter";
+
+    /** Rows written between progress reports and cancellation checks. */
+    private static final int EXPORT_CHUNK_SIZE = 20;
+
+    private static final String[] CONTACTS_PROJECTION = new String[] {
+        Phone.DISPLAY_NAME,
+        Phone.NUMBER,
+    };
+    private static final int CONTACTS_NAME_COLUMN = 0;
+    private static final int CONTACTS_NUMBER_COLUMN = 1;
+
+    private static final String[] ADN_PROJECTION = new String[] {
+        "name",
+        "number",
+    };
+    private static final int ADN_NAME_COLUMN = 0;
+    private static final int ADN_NUMBER_COLUMN = 1;
+
+    /* package */ interface Listener {
+        /** Called from the exporting thread after each chunk. */
+        void onProgress(int done, int total);
+    }
+
+    /* package */ static final class Result {
+        public int exported;
+        /** Contacts that were already on the SIM, or appeared twice in the phone's contacts. */
+        public int skippedDuplicate;
+        /** Contacts that didn't fit in the SIM's free records. */
+        public int skippedNoSpace;
+        public int failed;
+        public boolean canceled;
+        public long elapsedMillis;
+
+        public long getContactsPerSecond() {
+            return exported * 1000L / Math.max(elapsedMillis, 1);
+        }
+
+        @Override
+        public String toString() {
+            return "exported=" + exported + " duplicates=" + skippedDuplicate
+                    + " noSpace=" + skippedNoSpace + " failed=" + failed
+                    + " canceled=" + canceled + " elapsed=" + elapsedMillis + "ms ("
+                    + getContactsPerSecond() + " contacts/s)";
+        }
+    }
+
+    private static final class Contact {
+        final String name;
+        final String number;
+
+        Contact(String name, String number) {
+            this.name = name;
+            this.number = number;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Uri mAdnUri;
+    private final boolean mMultiSim;
+    private final int mSubscription;
+    private final Listener mListener;
+    private volatile boolean mCanceled;
+
+    /* package */ SimContactsExporter(ContentResolver resolver, Uri adnUri, boolean multiSim,
+            int subscription, Listener listener) {
+        mResolver = resolver;
+        mAdnUri = adnUri;
+        mMultiSim = multiSim;
+        mSubscription = subscription;
+        mListener = listener;
+    }
+
+    /**
+     * Stops the export at the next chunk boundary.
+     */
+    /* package */ void cancel() {
+        mCanceled = true;
+    }
+
+    /* package */ Result run() {
+        final long startTime = SystemClock.elapsedRealtime();
+        final Result result = new Result();
+
+        final HashMap<String, ArrayList<String>> onSim = new HashMap<String, ArrayList<String>>();
+        final int existing = loadSimContacts(onSim);
+        final ArrayList<Contact> contacts = loadPhoneContacts(onSim, result);
+        final int free = getFreeRecords(existing);
+        Log.i(LOG_TAG, "Exporting " + contacts.size() + " contacts; SIM has " + existing
+                + " contacts and " + (free < 0 ? "unknown" : String.valueOf(free))
+                + " free records");
+
+        final int total = contacts.size();
+        final int toWrite = free < 0 ? total : Math.min(total, free);
+        result.skippedNoSpace = total - toWrite;
+
+        final ContentProviderClient client = mResolver.acquireContentProviderClient(mAdnUri);
+        if (client == null) {
+            Log.e(LOG_TAG, "No provider for " + mAdnUri);
+            result.failed = toWrite;
+        } else {
+            try {
+                final ContentValues values = new ContentValues();
+                for (int i = 0; i < toWrite; i++) {
+                    if (i % EXPORT_CHUNK_SIZE == 0) {
+                        if (mCanceled) {
+                            break;
+                        }
+                        mListener.onProgress(i, toWrite);
+                    }
+                    final Contact contact = contacts.get(i);
+                    values.put("tag", contact.name);
+                    values.put("number", contact.number);
+                    if (insert(client, values)) {
+                        result.exported++;
+                    } else {
+                        Log.e(LOG_TAG, "Failed to export contact to SIM for name : "
+                                + contact.name + " number : " + contact.number);
+                        result.failed++;
+                    }
+                }
+            } finally {
+                client.release();
+            }
+        }
+
+        result.canceled = mCanceled;
+        if (!result.canceled) {
+            mListener.onProgress(toWrite, toWrite);
+        }
+        result.elapsedMillis = SystemClock.elapsedRealtime() - startTime;
+        Log.i(LOG_TAG, "Export done: " + result);
+        return result;
+    }
+
+    private boolean insert(ContentProviderClient client, ContentValues values) {
+        try {
+            return client.insert(mAdnUri, values) != null;
+        } catch (RemoteException e) {
+            Log.e(LOG_TAG, "insert: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * Fills tags with the tags of the SIM's current contacts, by normalized number.
+     * @return the number of contacts on the SIM
+     */
+    private int loadSimContacts(HashMap<String, ArrayList<String>> tags) {
+        final Cursor cursor = mResolver.query(mAdnUri, ADN_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final String number = normalize(cursor.getString(ADN_NUMBER_COLUMN));
+                ArrayList<String> numberTags = tags.get(number);
+                if (numberTags == null) {
+                    numberTags = new ArrayList<String>(1);
+                    tags.put(number, numberTags);
+                }
+                final String tag = cursor.getString(ADN_NAME_COLUMN);
+                numberTags.add(tag != null ? tag : "");
+            }
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the phone contacts that aren't on the SIM yet; contacts listed twice on the
+     * phone are exported once.
+     */
+    private ArrayList<Contact> loadPhoneContacts(HashMap<String, ArrayList<String>> onSim,
+            Result result) {
+        final ArrayList<Contact> contacts = new ArrayList<Contact>();
+        final HashSet<String> seen = new HashSet<String>();
+        final String selection = ContactsContract.Contacts.HAS_PHONE_NUMBER
+                + "='1' AND (account_type is NULL OR account_type !=?)";
+        final Cursor cursor = mResolver.query(Phone.CONTENT_URI, CONTACTS_PROJECTION,
+                selection, new String[] { "SIM" }, null);
+        if (cursor == null) {
+            return contacts;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                final String name = cursor.getString(CONTACTS_NAME_COLUMN);
+                final String number = normalize(cursor.getString(CONTACTS_NUMBER_COLUMN));
+                if (!isOnSim(onSim.get(number), name)
+                        && seen.add((name != null ? name : "") + '\n' + number)) {
+                    contacts.add(new Contact(name, number));
+                } else {
+                    result.skippedDuplicate++;
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return contacts;
+    }
+
+    /**
+     * @return whether one of the SIM tags of the contact's number is the name, possibly cut
+     * short by the SIM
+     */
+    private static boolean isOnSim(ArrayList<String> tags, String name) {
+        if (tags == null) {
+            return false;
+        }
+        if (name == null) {
+            name = "";
+        }
+        for (String tag : tags) {
+            if (tag.length() == 0 ? name.length() == 0 : name.startsWith(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String normalize(String number) {
+        return TextUtils.isEmpty(number) ? "" : PhoneNumberUtils.normalizeNumber(number);
+    }
+
+    /**
+     * @return the number of free ADN records, or -1 if the SIM doesn't tell
+     */
+    private int getFreeRecords(int existing) {
+        int[] sizes = null;
+        try {
+            if (mMultiSim) {
+                final IIccPhoneBookMSim phoneBook = IIccPhoneBookMSim.Stub.asInterface(
+                        ServiceManager.getService("simphonebook_msim"));
+                if (phoneBook != null) {
+                    sizes = phoneBook.getAdnRecordsSize(IccConstants.EF_ADN, mSubscription);
+                }
+            } else {
+                final IIccPhoneBook phoneBook = IIccPhoneBook.Stub.asInterface(
+                        ServiceManager.getService("simphonebook"));
+                if (phoneBook != null) {
+                    sizes = phoneBook.getAdnRecordsSize(IccConstants.EF_ADN);
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(LOG_TAG, "getAdnRecordsSize: " + e);
+        } catch (SecurityException e) {
+            Log.w(LOG_TAG, "getAdnRecordsSize: " + e);
+        }
+        // sizes = { record size, total size, number of records }
+        if (sizes == null || sizes.length < 3 || sizes[2] <= 0) {
+            return -1;
+        }
+        return Math.max(sizes[2] - existing, 0);
+    }
+}
@@ -506,10 +506,9 @@ public class SipCallOptionHandler extends Activity implements
     }
 
     private void getPrimarySipPhone() {
-        String primarySipUri = mSipSharedPreferences.getPrimaryAccount();
-
-        mOutgoingSipProfile = getPrimaryFromExistingProfiles(primarySipUri);
+        mOutgoingSipProfile = mSipProfileDb.retrievePrimarySipProfile();
         if (mOutgoingSipProfile == null) {
+            mProfileList = mSipProfileDb.retrieveSipProfileList();
             if ((mProfileList != null) && (mProfileList.size() > 0)) {
                 runOnUiThread(new Runnable() {
                     public void run() {
@@ -521,13 +520,4 @@ public class SipCallOptionHandler extends Activity implements
         }
         setResultAndFinish();
     }
-
-    private SipProfile getPrimaryFromExistingProfiles(String primarySipUri) {
-        mProfileList = mSipProfileDb.retrieveSipProfileList();
-        if (mProfileList == null) return null;
-        for (SipProfile p : mProfileList) {
-            if (p.getUriString().equals(primarySipUri)) return p;
-        }
-        return null;
-    }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Named timing spans for the phone process startup, shown by "dumpsys phone". Times are
+ * relative to the creation of the trace, i.e. roughly to the creation of the Application.
+ */
+/* package */ final class StartupTrace {
+    private static final String LOG_TAG = "StartupTrace";
+
+    /** Milestone marking the end of the stage needed to take an incoming call. */
+    public static final String READY_FOR_MT_CALL = "ready for MT call";
+
+    private final long mBaseTime = SystemClock.elapsedRealtime();
+    private final ArrayList<Span> mSpans = new ArrayList<Span>();
+
+    /* package */ final class Span {
+        private final String mName;
+        private final String mThread;
+        private final long mStart;
+        private long mEnd = -1;
+
+        private Span(String name, long start) {
+            mName = name;
+            mThread = Thread.currentThread().getName();
+            mStart = start;
+        }
+
+        public void end() {
+            final long end = SystemClock.elapsedRealtime();
+            synchronized (StartupTrace.this) {
+                mEnd = end;
+            }
+            Log.i(LOG_TAG, mName + ": " + (end - mStart) + " ms");
+        }
+    }
+
+    public synchronized Span begin(String name) {
+        final Span span = new Span(name, SystemClock.elapsedRealtime());
+        mSpans.add(span);
+        return span;
+    }
+
+    /**
+     * Records a zero-length span; used for milestones like {@link #READY_FOR_MT_CALL}.
+     */
+    public void mark(String name) {
+        begin(name).end();
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("Startup:");
+        for (Span span : mSpans) {
+            pw.print("  " + span.mName + " [" + span.mThread + "]: +" + (span.mStart - mBaseTime)
+                    + "ms");
+            if (span.mEnd < 0) {
+                pw.println(" (running)");
+            } else if (span.mEnd > span.mStart) {
+                pw.println(" took " + (span.mEnd - span.mStart) + "ms");
+            } else {
+                pw.println();
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Message;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.telephony.CallForwardInfo;
+import com.android.internal.telephony.Phone;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Front end for the call forwarding and call waiting supplementary service queries of the
+ * settings screens ({@link CallFeaturesSetting}, {@link MSimCallFeaturesSubSetting},
+ * {@link CallForwardEditPreference}, {@link CallWaitingCheckBoxPreference},
+ * {@link XDivertCheckBoxPreference}).
+ *
+ * Results are cached per subscription and reason for persist.phone.ss_cache_ttl ms, so a
+ * screen opened right after another one that read the same settings doesn't go back to the
+ * network. Queries for a subscription and reason already on their way to the network are
+ * shared. Every write through this class drops the subscription's results, both when it is
+ * sent and when it completes, as do changes of the call forwarding indicator and completed
+ * MMI codes (which may have been SS commands).
+ *
+ * Used from the main thread, except for {@link #dump}, which runs on a binder thread; the
+ * cache state is guarded by the instance lock for that. Calls into the phone and replies to
+ * callers are made outside the lock.
+ */
+/* package */ final class SuppServiceCache {
+    private static final String LOG_TAG = "SuppServiceCache";
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    private static final long TTL = SystemProperties.getLong("persist.phone.ss_cache_ttl", 60000);
+
+    /** Key of call waiting, next to the CF_REASON_* keys of call forwarding. */
+    private static final int CALL_WAITING = 15;
+    private static final int KEYS_PER_SUBSCRIPTION = 16;
+
+    private static final int EVENT_GET_DONE = 1;
+    private static final int EVENT_SET_DONE = 2;
+
+    private static final class Query {
+        final int subscription;
+        final int key;
+        final ArrayList<Message> waiters = new ArrayList<Message>();
+        final LatencyHistogram latency;
+        boolean running;
+        long startTime;
+        int generation;
+        Object result;
+        long time;
+        boolean valid;
+
+        int networkQueries;
+        int hits;
+        int shared;
+
+        Query(int subscription, int key) {
+            this.subscription = subscription;
+            this.key = key;
+            latency = new LatencyHistogram("sub" + subscription + " "
+                    + (key == CALL_WAITING ? "call waiting" : "cf reason " + key));
+        }
+    }
+
+    /** The singleton instance. */
+    private static SuppServiceCache sInstance;
+
+    // Guarded by this.
+    private final SparseArray<Query> mQueries = new SparseArray<Query>();
+    private int mWrites;
+    private int mInvalidations;
+
+    private final Handler mHandler = new Handler() {
+        @Override
+        public void handleMessage(Message msg) {
+            final AsyncResult ar = (AsyncResult) msg.obj;
+            switch (msg.what) {
+                case EVENT_GET_DONE:
+                    onQueryDone((Query) ar.userObj, msg.arg1, ar);
+                    break;
+                case EVENT_SET_DONE:
+                    invalidate(msg.arg1);
+                    complete((Message) ar.userObj, ar.result, ar.exception);
+                    break;
+            }
+        }
+    };
+
+    /* package */ static SuppServiceCache init() {
+        synchronized (SuppServiceCache.class) {
+            if (sInstance == null) {
+                sInstance = new SuppServiceCache();
+            } else {
+                Log.wtf(LOG_TAG, "init() called multiple times!  sInstance = " + sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    /* package */ static SuppServiceCache getInstance() {
+        return sInstance;
+    }
+
+    private SuppServiceCache() {
+    }
+
+    /**
+     * Same as {@link Phone#getCallForwardingOption}, possibly answered from the cache.
+     */
+    public void getCallForwardingOption(Phone phone, int reason, Message onComplete) {
+        get(phone, reason, onComplete);
+    }
+
+    /**
+     * Same as {@link Phone#getCallWaiting}, possibly answered from the cache.
+     */
+    public void getCallWaiting(Phone phone, Message onComplete) {
+        get(phone, CALL_WAITING, onComplete);
+    }
+
+    /**
+     * Same as {@link Phone#setCallForwardingOption}; drops the cached results of the phone's
+     * subscription.
+     */
+    public void setCallForwardingOption(Phone phone, int action, int reason, String number,
+            int timerSeconds, Message onComplete) {
+        final int subscription = phone.getSubscription();
+        onWrite(subscription);
+        phone.setCallForwardingOption(action, reason, number, timerSeconds,
+                mHandler.obtainMessage(EVENT_SET_DONE, subscription, 0, onComplete));
+    }
+
+    /**
+     * Same as {@link Phone#setCallWaiting}; drops the cached results of the phone's
+     * subscription.
+     */
+    public void setCallWaiting(Phone phone, boolean enable, Message onComplete) {
+        final int subscription = phone.getSubscription();
+        onWrite(subscription);
+        phone.setCallWaiting(enable,
+                mHandler.obtainMessage(EVENT_SET_DONE, subscription, 0, onComplete));
+    }
+
+    /**
+     * Drops the cached results of a subscription. Queries in flight still answer their
+     * callers, but their results aren't kept.
+     */
+    public synchronized void invalidate(int subscription) {
+        for (int i = 0; i < mQueries.size(); i++) {
+            final Query query = mQueries.valueAt(i);
+            if (query.subscription == subscription) {
+                query.valid = false;
+                query.generation++;
+            }
+        }
+        mInvalidations++;
+        if (DBG) log("invalidate: sub=" + subscription);
+    }
+
+    /**
+     * Drops all cached results.
+     */
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < mQueries.size(); i++) {
+            final Query query = mQueries.valueAt(i);
+            query.valid = false;
+            query.generation++;
+        }
+        mInvalidations++;
+        if (DBG) log("invalidateAll");
+    }
+
+    private synchronized void onWrite(int subscription) {
+        mWrites++;
+        invalidate(subscription);
+    }
+
+    private void get(Phone phone, int key, Message onComplete) {
+        final Object cached;
+        final Message msg;
+        synchronized (this) {
+            final Query query = getQuery(phone.getSubscription(), key);
+            if (query.valid && SystemClock.elapsedRealtime() - query.time < TTL) {
+                query.hits++;
+                if (DBG) log("cache hit: sub=" + query.subscription + " key=" + query.key);
+                cached = query.result;
+                msg = null;
+            } else {
+                cached = null;
+                query.waiters.add(onComplete);
+                if (query.running) {
+                    query.shared++;
+                    return;
+                }
+                query.running = true;
+                query.startTime = SystemClock.elapsedRealtime();
+                query.networkQueries++;
+                msg = mHandler.obtainMessage(EVENT_GET_DONE, query.generation, 0, query);
+            }
+        }
+        if (msg == null) {
+            complete(onComplete, copy(cached), null);
+        } else if (key == CALL_WAITING) {
+            phone.getCallWaiting(msg);
+        } else {
+            phone.getCallForwardingOption(key, msg);
+        }
+    }
+
+    private void onQueryDone(Query query, int generation, AsyncResult ar) {
+        final Message[] waiters;
+        synchronized (this) {
+            query.running = false;
+            query.latency.record(SystemClock.elapsedRealtime() - query.startTime);
+            if (ar.exception == null && ar.result != null && generation == query.generation) {
+                query.result = ar.result;
+                query.time = SystemClock.elapsedRealtime();
+                query.valid = true;
+            }
+            waiters = query.waiters.toArray(new Message[query.waiters.size()]);
+            query.waiters.clear();
+        }
+        // Every waiter gets its own copy; the screens keep and modify what they get.
+        for (Message waiter : waiters) {
+            complete(waiter, ar.exception == null ? copy(ar.result) : ar.result, ar.exception);
+        }
+    }
+
+    private static void complete(Message onComplete, Object result, Throwable exception) {
+        if (onComplete != null) {
+            AsyncResult.forMessage(onComplete, result, exception);
+            onComplete.sendToTarget();
+        }
+    }
+
+    private static Object copy(Object result) {
+        if (result instanceof CallForwardInfo[]) {
+            final CallForwardInfo[] infos = (CallForwardInfo[]) result;
+            final CallForwardInfo[] copies = new CallForwardInfo[infos.length];
+            for (int i = 0; i < infos.length; i++) {
+                final CallForwardInfo info = infos[i];
+                copies[i] = new CallForwardInfo();
+                copies[i].status = info.status;
+                copies[i].reason = info.reason;
+                copies[i].serviceClass = info.serviceClass;
+                copies[i].toa = info.toa;
+                copies[i].number = info.number;
+                copies[i].timeSeconds = info.timeSeconds;
+            }
+            return copies;
+        } else if (result instanceof int[]) {
+            return ((int[]) result).clone();
+        }
+        return result;
+    }
+
+    private Query getQuery(int subscription, int key) {
+        final int index = subscription * KEYS_PER_SUBSCRIPTION + key;
+        Query query = mQueries.get(index);
+        if (query == null) {
+            query = new Query(subscription, key);
+            mQueries.put(index, query);
+        }
+        return query;
+    }
+
+    /* package */ synchronized void dump(PrintWriter pw) {
+        pw.println("SuppServiceCache: ttl=" + TTL + "ms writes=" + mWrites
+                + " invalidations=" + mInvalidations);
+        for (int i = 0; i < mQueries.size(); i++) {
+            final Query query = mQueries.valueAt(i);
+            pw.println("  sub" + query.subscription + " "
+                    + (query.key == CALL_WAITING ? "callWaiting" : "cfReason" + query.key)
+                    + ": networkQueries=" + query.networkQueries + " hits=" + query.hits
+                    + " shared=" + query.shared + " cached=" + query.valid);
+            query.latency.dump(pw, "    ");
+        }
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.phone;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.os.SystemVibrator;
+import android.os.Vibrator;
+import android.util.Log;
+
+import java.io.PrintWriter;
+
+/**
+ * Single place for all the vibrations the phone app plays: the incoming call ring, the
+ * emergency call vibration and short feedback pulses (call waiting, outgoing call connected,
+ * 45-second reminder, hangup).
+ *
+ * Every vibration is handed to the Vibrator service as one waveform pattern, repeating ones
+ * included, so no app thread has to stay awake to pace it. Each channel has its own
+ * {@link SystemVibrator}, so cancelling one channel never cuts off another.
+ */
+/* package */ final class VibrationScheduler {
+    private static final String LOG_TAG = VibrationScheduler.class.getSimpleName();
+    private static final boolean DBG =
+            (PhoneGlobals.DBG_LEVEL >= 1) && (SystemProperties.getInt("ro.debuggable", 0) == 1);
+
+    public static final int CHANNEL_RING = 0;
+    public static final int CHANNEL_EMERGENCY = 1;
+    public static final int CHANNEL_FEEDBACK = 2;
+    private static final int NUM_CHANNELS = 3;
+
+    private static final String[] CHANNEL_NAMES = { "ring", "emergency", "feedback" };
+
+    private static final int RING_VIBRATE_LENGTH = 1000; // ms
+    private static final int RING_PAUSE_LENGTH = 1000; // ms
+
+    /** Incoming call: 1s on, 1s off, until cancelled. */
+    public static final long[] RING_PATTERN =
+            new long[] { 0, RING_VIBRATE_LENGTH, RING_PAUSE_LENGTH };
+    public static final int RING_REPEAT = 1;
+
+    /** Emergency call (CDMA emergency tone setting): 1s on, 1s off, until cancelled. */
+    public static final long[] EMERGENCY_PATTERN = new long[] { 1000, 1000 };
+    public static final int EMERGENCY_REPEAT = 0;
+
+    /** The singleton instance. */
+    private static VibrationScheduler sInstance;
+
+    private final Vibrator[] mVibrators = new Vibrator[NUM_CHANNELS];
+    private final boolean[] mActive = new boolean[NUM_CHANNELS];
+
+    // Calls into the Vibrator service, and startRepeating() requests (including the ones
+    // ignored because the channel was already running), per channel.
+    private final int[] mCalls = new int[NUM_CHANNELS];
+    private final int[] mStartRequests = new int[NUM_CHANNELS];
+
+    // A ring cycle runs from startRepeating(CHANNEL_RING) to cancel(CHANNEL_RING). The ring
+    // pulses played are derived from the measured cycle durations; the old per-pulse vibrator
+    // thread woke up and called the Vibrator service once for each of them, so they compare
+    // with the ring channel's vibratorCalls.
+    private long mRingCycleStart;
+    private int mRingCycles;
+    private long mRingTime;
+    private long mRingPulses;
+
+    /* package */ static VibrationScheduler init() {
+        synchronized (VibrationScheduler.class) {
+            if (sInstance == null) {
+                sInstance = new VibrationScheduler();
+            } else {
+                Log.wtf(LOG_TAG, "init() called multiple times!  sInstance = " + sInstance);
+            }
+            return sInstance;
+        }
+    }
+
+    /* package */ static VibrationScheduler getInstance() {
+        return sInstance;
+    }
+
+    private VibrationScheduler() {
+        // We don't rely on getSystemService(Context.VIBRATOR_SERVICE) to make sure each
+        // channel's vibrator object will be isolated from the others.
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            mVibrators[i] = new SystemVibrator();
+        }
+    }
+
+    /**
+     * Starts a repeating pattern on the channel, replacing whatever the channel was playing.
+     * No-op if the channel is already running a repeating pattern.
+     *
+     * @see Vibrator#vibrate(long[], int)
+     */
+    public synchronized void startRepeating(int channel, long[] pattern, int repeat) {
+        mStartRequests[channel]++;
+        if (mActive[channel]) {
+            return;
+        }
+        if (DBG) log("startRepeating: " + CHANNEL_NAMES[channel]);
+        mActive[channel] = true;
+        if (channel == CHANNEL_RING) {
+            mRingCycleStart = SystemClock.elapsedRealtime();
+        }
+        vibrate(channel, pattern, repeat);
+    }
+
+    /**
+     * Plays a one-shot pattern of "v1 ms on, p1 ms off, v2 ms on" on the feedback channel.
+     */
+    public synchronized void pulse(int v1, int p1, int v2) {
+        if (DBG) log("pulse: " + v1 + "/" + p1 + "/" + v2);
+        vibrate(CHANNEL_FEEDBACK, new long[] { 0, v1, p1, v2 }, -1);
+    }
+
+    /**
+     * Stops the channel's vibration, if any.
+     */
+    public synchronized void cancel(int channel) {
+        mVibrators[channel].cancel();
+        mCalls[channel]++;
+        if (channel == CHANNEL_RING && mActive[channel]) {
+            final long duration = SystemClock.elapsedRealtime() - mRingCycleStart;
+            final int period = RING_VIBRATE_LENGTH + RING_PAUSE_LENGTH;
+            final long pulses = (duration + period - 1) / period;
+            mRingCycles++;
+            mRingTime += duration;
+            mRingPulses += pulses;
+            if (DBG) log("ring cycle done: " + duration + "ms, " + pulses + " pulses");
+        }
+        mActive[channel] = false;
+    }
+
+    public synchronized boolean isActive(int channel) {
+        return mActive[channel];
+    }
+
+    private void vibrate(int channel, long[] pattern, int repeat) {
+        mVibrators[channel].vibrate(pattern, repeat);
+        mCalls[channel]++;
+    }
+
+    /* package */ synchronized void dump(PrintWriter pw) {
+        pw.println("VibrationScheduler:");
+        for (int i = 0; i < NUM_CHANNELS; i++) {
+            pw.println("  " + CHANNEL_NAMES[i] + ": active=" + mActive[i]
+                    + " vibratorCalls=" + mCalls[i] + " startRequests=" + mStartRequests[i]);
+        }
+        pw.println("  ringCycles=" + mRingCycles + " ringTime=" + mRingTime
+                + "ms ringPulses=" + mRingPulses);
+    }
+
+    private static void log(String msg) {
+        Log.d(LOG_TAG, msg);
+    }
+}
@@ -60,6 +60,7 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
     int mAction; // Holds the CFNRc value.i.e.Registration/Disable
     int mReason; // Holds Call Forward reason.i.e.CF_REASON_NOT_REACHABLE
     Phone[] mPhoneObj; // Holds the phone objects for both the subs
+    private SuppServiceCache mSuppServiceCache;
     String[] mLine1Number; // Holds the line numbers for both the subs
     String[] mCFLine1Number;// Holds the CFNRc number for both the subs
 
@@ -119,9 +120,11 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
                 mPhoneObj[i] = MSimPhoneGlobals.getInstance().getPhone(i);
                 mLine1Number[i] = line1Number[i];
             }
+            mSuppServiceCache = MSimPhoneGlobals.getInstance().suppServiceCache;
 
             //Query for CFNRc for SUB1.
-            mPhoneObj[SUB1].getCallForwardingOption(CommandsInterface.CF_REASON_NOT_REACHABLE,
+            mSuppServiceCache.getCallForwardingOption(mPhoneObj[SUB1],
+                    CommandsInterface.CF_REASON_NOT_REACHABLE,
                     mGetOptionComplete.obtainMessage(MESSAGE_GET_CFNRC, SUB1, 0));
         }
     }
@@ -156,14 +159,14 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
         if ((requestForSub1) && (requestForSub1 == mSub1CallWaiting)
                 && (mAction == CommandsInterface.CF_ACTION_REGISTRATION)) {
             //Set CFNRc for SUB2.
-            mPhoneObj[SUB2].setCallForwardingOption(mAction,
+            mSuppServiceCache.setCallForwardingOption(mPhoneObj[SUB2], mAction,
                     mReason,
                     mLine1Number[SUB1],
                     time,
                     mSetOptionComplete.obtainMessage(MESSAGE_SET_CFNRC, SUB2, 0));
         } else {
             //Set CFNRc for SUB1.
-            mPhoneObj[SUB1].setCallForwardingOption(mAction,
+            mSuppServiceCache.setCallForwardingOption(mPhoneObj[SUB1], mAction,
                     mReason,
                     mLine1Number[SUB2],
                     time,
@@ -173,7 +176,8 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
 
     void queryCallWaiting(int arg) {
         //Get Call Waiting for "arg" subscription
-        mPhoneObj[arg].getCallWaiting(mGetOptionComplete.obtainMessage(MESSAGE_GET_CALL_WAITING,
+        mSuppServiceCache.getCallWaiting(mPhoneObj[arg],
+                mGetOptionComplete.obtainMessage(MESSAGE_GET_CALL_WAITING,
                 arg, MESSAGE_GET_CALL_WAITING));
     }
 
@@ -376,7 +380,7 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
             }
 
             //Set Call Waiting for the "arg" subscription
-            mPhoneObj[arg].setCallWaiting(true,
+            mSuppServiceCache.setCallWaiting(mPhoneObj[arg], true,
                    mSetOptionComplete.obtainMessage(MESSAGE_SET_CALL_WAITING, arg, 0));
         }
     }
@@ -414,7 +418,8 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
                 }
 
                 //Query Call Forward for SUB2
-                mPhoneObj[SUB2].getCallForwardingOption(CommandsInterface.CF_REASON_NOT_REACHABLE,
+                mSuppServiceCache.getCallForwardingOption(mPhoneObj[SUB2],
+                CommandsInterface.CF_REASON_NOT_REACHABLE,
                 mGetOptionComplete.obtainMessage(MESSAGE_GET_CFNRC, SUB2, 0));
             } else if (arg1 == SUB2) {
                 mSub2CallWaiting = ((cwArray[0] == 1) && ((cwArray[1] & 0x01) == 0x01));
@@ -452,7 +457,7 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
 
                 mSub1CallWaiting = (!mSub1CallWaiting);
                 //Set Call Forward for SUB2
-                mPhoneObj[SUB2].setCallForwardingOption(mAction,
+                mSuppServiceCache.setCallForwardingOption(mPhoneObj[SUB2], mAction,
                         mReason,
                         mLine1Number[SUB1],
                         time,
@@ -516,14 +521,14 @@ public class XDivertCheckBoxPreference extends CheckBoxPreference {
 
         Log.d(LOG_TAG,"revertCFNRc arg = " + arg);
         if (arg == SUB1) {
-            mPhoneObj[SUB1].setCallForwardingOption(action,
+            mSuppServiceCache.setCallForwardingOption(mPhoneObj[SUB1], action,
                     reason,
                     mLine1Number[SUB2],
                     time,
                     mRevertOptionComplete.obtainMessage(REVERT_SET_CFNRC,
                             action, SUB1));
         } else if (arg == SUB2) {
-            mPhoneObj[SUB2].setCallForwardingOption(action,
+            mSuppServiceCache.setCallForwardingOption(mPhoneObj[SUB2], action,
                     reason,
                     mLine1Number[SUB1],
                     time,
@@ -20,124 +20,343 @@ import com.android.internal.os.AtomicFile;
 
 import android.content.Context;
 import android.net.sip.SipProfile;
+import android.os.Parcel;
 import android.util.Log;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 /**
  * Utility class that helps perform operations on the SipProfile database.
+ *
+ * All profiles live in one versioned file, as serialized SipProfiles indexed by profile name
+ * and URI. The file is read once per process and kept in memory; each profile is deserialized
+ * the first time it is asked for, so looking up the primary account by its URI doesn't touch
+ * the other profiles. Callers always get their own copy of a profile.
+ *
+ * The per-profile directories used by earlier versions are migrated into the file the first
+ * time it is missing. A file which can't be read is moved aside, keeping the profiles read
+ * before the error, so the next write doesn't silently replace it; if it can't be moved, the
+ * store stays read-only for the rest of the process.
  */
 public class SipProfileDb {
     private static final String TAG = SipProfileDb.class.getSimpleName();
 
     private static final String PROFILES_DIR = "/profiles/";
     private static final String PROFILE_OBJ_FILE = ".pobj";
+    private static final String PROFILES_FILE = "sip_profiles.dat";
+    private static final String BAD_PROFILES_FILE = "sip_profiles.dat.bad";
+
+    private static final int FILE_MAGIC = 0x53495044; // "SIPD"
+    private static final int FILE_VERSION = 1;
+
+    private static final class Entry {
+        final String name;
+        final String uri;
+        final byte[] data;
+        SipProfile profile;
+
+        Entry(String name, String uri, byte[] data) {
+            this.name = name;
+            this.uri = uri;
+            this.data = data;
+        }
+    }
+
+    // The store of this process, by profile name and by URI; null until loaded. Guarded by
+    // SipProfileDb.class.
+    private static LinkedHashMap<String, Entry> sEntries;
+    private static HashMap<String, Entry> sEntriesByUri;
+    // Set when the file couldn't be read nor moved aside; writing would lose its profiles.
+    private static boolean sReadOnly;
 
     private String mProfilesDirectory;
+    private File mProfilesFile;
     private SipSharedPreferences mSipSharedPreferences;
-    private int mProfilesCount = -1;
 
     public SipProfileDb(Context context) {
         mProfilesDirectory = context.getFilesDir().getAbsolutePath()
                 + PROFILES_DIR;
+        mProfilesFile = new File(context.getFilesDir(), PROFILES_FILE);
         mSipSharedPreferences = new SipSharedPreferences(context);
     }
 
     public void deleteProfile(SipProfile p) {
         synchronized(SipProfileDb.class) {
-            deleteProfile(new File(mProfilesDirectory + p.getProfileName()));
-            if (mProfilesCount < 0) retrieveSipProfileListInternal();
-            mSipSharedPreferences.setProfilesCount(--mProfilesCount);
-        }
-    }
-
-    private void deleteProfile(File file) {
-        if (file.isDirectory()) {
-            for (File child : file.listFiles()) deleteProfile(child);
+            load();
+            if (sReadOnly) {
+                Log.e(TAG, "deleteProfile(): profile file unreadable, not overwriting it");
+                return;
+            }
+            final Entry entry = sEntries.remove(nameOf(p));
+            if (entry == null) return;
+            sEntriesByUri.remove(entry.uri);
+            try {
+                write();
+            } catch (IOException e) {
+                // Still on storage, so keep it in memory too. The order of sEntries only
+                // matters for listing, where the profile now comes last.
+                sEntries.put(entry.name, entry);
+                sEntriesByUri.put(entry.uri, entry);
+                Log.e(TAG, "deleteProfile()", e);
+                return;
+            }
+            mSipSharedPreferences.setProfilesCount(sEntries.size());
         }
-        file.delete();
     }
 
     public void saveProfile(SipProfile p) throws IOException {
         synchronized(SipProfileDb.class) {
-            if (mProfilesCount < 0) retrieveSipProfileListInternal();
-            File f = new File(mProfilesDirectory + p.getProfileName());
-            if (!f.exists()) f.mkdirs();
-            AtomicFile atomicFile =
-                    new AtomicFile(new File(f, PROFILE_OBJ_FILE));
-            FileOutputStream fos = null;
-            ObjectOutputStream oos = null;
+            load();
+            if (sReadOnly) {
+                throw new IOException("Profile file unreadable, not overwriting it");
+            }
+            final Entry entry = new Entry(nameOf(p), p.getUriString(), serialize(p));
+            final Entry old = sEntries.put(entry.name, entry);
+            if (old != null) sEntriesByUri.remove(old.uri);
+            sEntriesByUri.put(entry.uri, entry);
             try {
-                fos = atomicFile.startWrite();
-                oos = new ObjectOutputStream(fos);
-                oos.writeObject(p);
-                oos.flush();
-                mSipSharedPreferences.setProfilesCount(++mProfilesCount);
-                atomicFile.finishWrite(fos);
+                write();
             } catch (IOException e) {
-                atomicFile.failWrite(fos);
+                // Keep memory in line with what's on storage.
+                sEntries.remove(entry.name);
+                sEntriesByUri.remove(entry.uri);
+                if (old != null) {
+                    sEntries.put(old.name, old);
+                    sEntriesByUri.put(old.uri, old);
+                }
                 throw e;
-            } finally {
-                if (oos != null) oos.close();
             }
+            mSipSharedPreferences.setProfilesCount(sEntries.size());
         }
     }
 
     public int getProfilesCount() {
-        return (mProfilesCount < 0) ?
-                mSipSharedPreferences.getProfilesCount() : mProfilesCount;
+        synchronized(SipProfileDb.class) {
+            return (sEntries == null) ?
+                    mSipSharedPreferences.getProfilesCount() : sEntries.size();
+        }
     }
 
     public List<SipProfile> retrieveSipProfileList() {
         synchronized(SipProfileDb.class) {
-            return retrieveSipProfileListInternal();
+            load();
+            List<SipProfile> sipProfileList = Collections.synchronizedList(
+                    new ArrayList<SipProfile>(sEntries.size()));
+            for (Entry entry : sEntries.values()) {
+                SipProfile p = getProfile(entry);
+                if (p != null) sipProfileList.add(p);
+            }
+            return sipProfileList;
+        }
+    }
+
+    /**
+     * Returns the profile with the given URI, e.g. the primary account, or null if there is
+     * none. Only that profile is deserialized.
+     */
+    public SipProfile retrieveSipProfile(String uri) {
+        synchronized(SipProfileDb.class) {
+            load();
+            Entry entry = sEntriesByUri.get(uri);
+            return (entry == null) ? null : getProfile(entry);
+        }
+    }
+
+    /**
+     * Returns the primary account's profile, or null if there is none.
+     */
+    public SipProfile retrievePrimarySipProfile() {
+        String primaryUri = mSipSharedPreferences.getPrimaryAccount();
+        return (primaryUri == null) ? null : retrieveSipProfile(primaryUri);
+    }
+
+    private static String nameOf(SipProfile p) {
+        String name = p.getProfileName();
+        return (name == null) ? "" : name;
+    }
+
+    /** Returns a copy of the entry's profile, so callers can't change the cached one. */
+    private SipProfile getProfile(Entry entry) {
+        if (entry.profile == null) {
+            try {
+                entry.profile = deserialize(new ByteArrayInputStream(entry.data));
+            } catch (IOException e) {
+                Log.e(TAG, "getProfile(" + entry.name + ")", e);
+            }
+            if (entry.profile == null) return null;
+        }
+        Parcel parcel = Parcel.obtain();
+        try {
+            entry.profile.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            return SipProfile.CREATOR.createFromParcel(parcel);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private void load() {
+        if (sEntries != null) return;
+        sEntries = new LinkedHashMap<String, Entry>();
+        sEntriesByUri = new HashMap<String, Entry>();
+        try {
+            read();
+        } catch (FileNotFoundException e) {
+            migrate();
+        } catch (IOException e) {
+            Log.e(TAG, "load(): read " + sEntries.size() + " profiles", e);
+            moveAside();
+        }
+        mSipSharedPreferences.setProfilesCount(sEntries.size());
+    }
+
+    private void read() throws IOException {
+        AtomicFile atomicFile = new AtomicFile(mProfilesFile);
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(atomicFile.openRead()));
+            if (in.readInt() != FILE_MAGIC) throw new IOException("Not a profile file");
+            int version = in.readInt();
+            if (version != FILE_VERSION) throw new IOException("Unknown version " + version);
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                String uri = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                Entry entry = new Entry(name, uri, data);
+                sEntries.put(name, entry);
+                sEntriesByUri.put(uri, entry);
+            }
+        } finally {
+            if (in != null) in.close();
+        }
+    }
+
+    /**
+     * Moves the unreadable profile file out of the way, replacing an older one, so that it can
+     * still be looked at and won't be overwritten by the next write.
+     */
+    private void moveAside() {
+        // AtomicFile.openRead() has already restored a leftover backup, if any, so what was
+        // read is mProfilesFile.
+        File bad = new File(mProfilesFile.getParentFile(), BAD_PROFILES_FILE);
+        bad.delete();
+        if (mProfilesFile.renameTo(bad)) {
+            Log.w(TAG, "Moved unreadable profile file to " + bad);
+        } else {
+            Log.e(TAG, "Failed to move unreadable profile file; profiles are read-only");
+            sReadOnly = true;
         }
     }
 
-    private List<SipProfile> retrieveSipProfileListInternal() {
-        List<SipProfile> sipProfileList = Collections.synchronizedList(
-                new ArrayList<SipProfile>());
+    private void write() throws IOException {
+        AtomicFile atomicFile = new AtomicFile(mProfilesFile);
+        FileOutputStream fos = null;
+        try {
+            fos = atomicFile.startWrite();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeInt(sEntries.size());
+            for (Entry entry : sEntries.values()) {
+                out.writeUTF(entry.name);
+                out.writeUTF(entry.uri);
+                out.writeInt(entry.data.length);
+                out.write(entry.data);
+            }
+            out.flush();
+            atomicFile.finishWrite(fos);
+        } catch (IOException e) {
+            atomicFile.failWrite(fos);
+            throw e;
+        }
+    }
 
+    /**
+     * Moves the profiles of the old one-directory-per-profile layout into the file.
+     */
+    private void migrate() {
         File root = new File(mProfilesDirectory);
         String[] dirs = root.list();
-        if (dirs == null) return sipProfileList;
+        if (dirs == null) return;
         for (String dir : dirs) {
             File f = new File(new File(root, dir), PROFILE_OBJ_FILE);
             if (!f.exists()) continue;
             try {
-                SipProfile p = deserialize(f);
+                SipProfile p = deserialize(new AtomicFile(f).openRead());
                 if (p == null) continue;
                 if (!dir.equals(p.getProfileName())) continue;
 
-                sipProfileList.add(p);
+                Entry entry = new Entry(dir, p.getUriString(), serialize(p));
+                entry.profile = p;
+                sEntries.put(entry.name, entry);
+                sEntriesByUri.put(entry.uri, entry);
             } catch (IOException e) {
-                Log.e(TAG, "retrieveProfileListFromStorage()", e);
+                Log.e(TAG, "migrate()", e);
             }
         }
-        mProfilesCount = sipProfileList.size();
-        mSipSharedPreferences.setProfilesCount(mProfilesCount);
-        return sipProfileList;
+        try {
+            write();
+        } catch (IOException e) {
+            // Leave the old files alone; we'll try again next time.
+            Log.e(TAG, "migrate()", e);
+            return;
+        }
+        Log.i(TAG, "Migrated " + sEntries.size() + " profiles");
+        deleteRecursively(root);
     }
 
-    private SipProfile deserialize(File profileObjectFile) throws IOException {
-        AtomicFile atomicFile = new AtomicFile(profileObjectFile);
+    private void deleteRecursively(File file) {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    private byte[] serialize(SipProfile p) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bos);
+        try {
+            oos.writeObject(p);
+            oos.flush();
+            return bos.toByteArray();
+        } finally {
+            oos.close();
+        }
+    }
+
+    private SipProfile deserialize(InputStream in) throws IOException {
         ObjectInputStream ois = null;
         try {
-            ois = new ObjectInputStream(atomicFile.openRead());
+            ois = new ObjectInputStream(in);
             SipProfile p = (SipProfile) ois.readObject();
             return p;
         } catch (ClassNotFoundException e) {
             Log.w(TAG, "deserialize a profile: " + e);
         } finally {
-            if (ois!= null) ois.close();
+            if (ois != null) {
+                ois.close();
+            } else {
+                in.close();
+            }
         }
         return null;
     }
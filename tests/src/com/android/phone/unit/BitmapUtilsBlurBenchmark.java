@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+// Compares the original blur path (gaussianBlurFilter with fresh buffers per call) with
+// BitmapUtils.createBlurredBitmap(Bitmap, Object, boolean), serial and parallel.
+// Results are written to logcat with the "BitmapUtilsBlurBenchmark" tag.
+// See AndroidManifest.xml how to run these tests.
+public class BitmapUtilsBlurBenchmark extends AndroidTestCase {
+    private static final String TAG = "BitmapUtilsBlurBenchmark";
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 200;
+
+    private Bitmap mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mSource = Bitmap.createBitmap(96, 96, Bitmap.Config.ARGB_8888);
+        for (int y = 0; y < 96; y++) {
+            for (int x = 0; x < 96; x++) {
+                mSource.setPixel(x, y, 0xff000000 | (x * 2 << 16) | (y * 2 << 8) | (x ^ y));
+            }
+        }
+    }
+
+    @LargeTest
+    public void testBlurThroughputAndAllocation() throws Exception {
+        run("original", new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap scaled = Bitmap.createScaledBitmap(mSource, 128, 128, true);
+                final int[] in = new int[128 * 128];
+                final int[] tmp = new int[128 * 128];
+                scaled.getPixels(in, 0, 128, 0, 0, 128, 128);
+                BitmapUtils.gaussianBlurFilter(in, tmp, 128, 128);
+                BitmapUtils.gaussianBlurFilter(tmp, in, 128, 128);
+                Bitmap.createBitmap(in, 128, 128, Bitmap.Config.ARGB_8888).recycle();
+                scaled.recycle();
+            }
+        });
+        run("reused buffers", new Runnable() {
+            @Override
+            public void run() {
+                BitmapUtils.createBlurredBitmap(mSource, null, false).recycle();
+            }
+        });
+        run("reused buffers, parallel", new Runnable() {
+            @Override
+            public void run() {
+                BitmapUtils.createBlurredBitmap(mSource, null, true).recycle();
+            }
+        });
+        BitmapUtils.clearBlurCache();
+        run("cached", new Runnable() {
+            @Override
+            public void run() {
+                BitmapUtils.createBlurredBitmap(mSource, TAG, false);
+            }
+        });
+        BitmapUtils.clearBlurCache();
+    }
+
+    private void run(String name, Runnable blur) {
+        for (int i = 0; i < WARMUP; i++) {
+            blur.run();
+        }
+        Debug.resetThreadAllocSize();
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        final long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            blur.run();
+        }
+        final long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        Log.i(TAG, name + ": " + (ITERATIONS * 1000000000L / Math.max(elapsed, 1)) + " blurs/s, "
+                + (Debug.getThreadAllocSize() / ITERATIONS) + " bytes and "
+                + (Debug.getThreadAllocCount() / ITERATIONS) + " objects allocated per blur");
+    }
+}
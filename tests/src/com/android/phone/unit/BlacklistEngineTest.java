@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import com.android.internal.telephony.util.BlacklistUtils;
+
+// Matching of compiled blacklist snapshots.
+// See AndroidManifest.xml how to run these tests.
+public class BlacklistEngineTest extends AndroidTestCase {
+    private static final BlacklistEngine.Snapshot SNAPSHOT = BlacklistEngine.compile(
+            new String[] { "+16505551234", "5550000" },
+            new String[] { "1900*", "555_111" });
+
+    @SmallTest
+    public void testListAndPatterns() throws Exception {
+        assertEquals(BlacklistUtils.MATCH_LIST, BlacklistEngine.match(SNAPSHOT,
+                "+1 (650) 555-1234", null, BlacklistUtils.BLOCK_CALLS, true, false));
+        assertEquals(BlacklistUtils.MATCH_REGEX, BlacklistEngine.match(SNAPSHOT,
+                "19001234", null, BlacklistUtils.BLOCK_CALLS, true, false));
+        assertEquals(BlacklistUtils.MATCH_NONE, BlacklistEngine.match(SNAPSHOT,
+                "19001234", null, BlacklistUtils.BLOCK_CALLS, false, false));
+        assertEquals(BlacklistUtils.MATCH_NONE, BlacklistEngine.match(SNAPSHOT,
+                "6505559999", null, BlacklistUtils.BLOCK_CALLS, true, false));
+    }
+
+    @SmallTest
+    public void testUnknownNumberBlockingNeedsLookup() throws Exception {
+        // Numbers in the table don't need a contact lookup...
+        assertEquals(BlacklistUtils.MATCH_LIST, BlacklistEngine.match(SNAPSHOT,
+                "5550000", null, BlacklistUtils.BLOCK_CALLS, true, true));
+        assertEquals(BlacklistUtils.MATCH_REGEX, BlacklistEngine.match(SNAPSHOT,
+                "5559111", null, BlacklistUtils.BLOCK_CALLS, true, true));
+        // ...but any other number may still be blocked for not being a contact.
+        assertEquals(BlacklistEngine.MATCH_NEEDS_LOOKUP, BlacklistEngine.match(SNAPSHOT,
+                "6505559999", null, BlacklistUtils.BLOCK_CALLS, true, true));
+        assertEquals(BlacklistEngine.MATCH_NEEDS_LOOKUP, BlacklistEngine.match(SNAPSHOT,
+                "19001234", null, BlacklistUtils.BLOCK_MESSAGES, false, true));
+    }
+
+    @SmallTest
+    public void testNationalNumberMatchesInternationalEntry() throws Exception {
+        final String caller = "(650) 555-1234";
+        assertEquals(BlacklistUtils.MATCH_NONE, BlacklistEngine.match(SNAPSHOT,
+                caller, null, BlacklistUtils.BLOCK_CALLS, true, false));
+        assertEquals(BlacklistUtils.MATCH_LIST, BlacklistEngine.match(SNAPSHOT,
+                caller, BlacklistEngine.normalize(caller, "us"),
+                BlacklistUtils.BLOCK_CALLS, true, false));
+        assertNull(BlacklistEngine.normalize(caller, null));
+    }
+}
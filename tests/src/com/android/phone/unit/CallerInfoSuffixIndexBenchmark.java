@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.telephony.PhoneNumberUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Random;
+
+// Compares the String-keyed HashMap used by CallerInfoCache with CallerInfoSuffixIndex.
+// Results are written to logcat with the "CallerInfoSuffixIndexBenchmark" tag.
+// See AndroidManifest.xml how to run these tests.
+public class CallerInfoSuffixIndexBenchmark extends AndroidTestCase {
+    private static final String TAG = "CallerInfoSuffixIndexBenchmark";
+    private static final int LOOKUPS = 200000;
+    private static final String[] RINGTONES = {
+        "content://media/internal/audio/media/10",
+        "content://media/internal/audio/media/11",
+        "content://media/external/audio/media/42",
+        null
+    };
+
+    @SmallTest
+    public void testPackSuffixMatchesNormalizedSuffix() throws Exception {
+        assertEquals(CallerInfoSuffixIndex.packSuffix("4567890"),
+                CallerInfoSuffixIndex.packSuffix("+1 (650) 456-7890"));
+        assertEquals(CallerInfoSuffixIndex.packSuffix("4567890"),
+                CallerInfoSuffixIndex.packSuffix("1-800-456-7890"));
+        assertEquals(CallerInfoSuffixIndex.packSuffix("2227890"),
+                CallerInfoSuffixIndex.packSuffix("ABC-7890"));
+        assertFalse(CallerInfoSuffixIndex.packSuffix("0012")
+                == CallerInfoSuffixIndex.packSuffix("12"));
+        assertEquals(CallerInfoSuffixIndex.NO_KEY, CallerInfoSuffixIndex.packSuffix("+12"));
+        assertEquals(CallerInfoSuffixIndex.NO_KEY, CallerInfoSuffixIndex.packSuffix("---"));
+        assertEquals(CallerInfoSuffixIndex.NO_KEY,
+                CallerInfoSuffixIndex.packSuffix("alice@sip.org"));
+        assertEquals(CallerInfoSuffixIndex.NO_KEY,
+                CallerInfoSuffixIndex.packSuffix("sip:alice@sip.org"));
+    }
+
+    @SmallTest
+    public void testSipEntryDoesNotShadowPstnNumber() throws Exception {
+        // "alice@sip.org" would read as 374-7674 on the keypad.
+        final HashMap<String, CallerInfoCache.CacheEntry> map =
+                new HashMap<String, CallerInfoCache.CacheEntry>();
+        map.put("alice@sip.org", new CallerInfoCache.CacheEntry(RINGTONES[0], true));
+        final CallerInfoSuffixIndex sipOnly = CallerInfoSuffixIndex.build(map);
+        assertEquals(0, sipOnly.size());
+        assertNull(sipOnly.get(CallerInfoSuffixIndex.packSuffix("+1 650 374-7674")));
+
+        map.put("3747674", new CallerInfoCache.CacheEntry(RINGTONES[1], false));
+        final CallerInfoSuffixIndex index = CallerInfoSuffixIndex.build(map);
+        assertEquals(1, index.size());
+        final CallerInfoCache.CacheEntry entry =
+                index.get(CallerInfoSuffixIndex.packSuffix("+1 650 374-7674"));
+        assertNotNull(entry);
+        assertEquals(RINGTONES[1], entry.customRingtone);
+        assertFalse(entry.sendToVoicemail);
+    }
+
+    @LargeTest
+    public void testFootprintAndLookupLatency() throws Exception {
+        for (int size : new int[] { 1000, 10000, 100000 }) {
+            runOnce(size);
+        }
+    }
+
+    private void runOnce(int size) {
+        final Random random = new Random(size);
+        final String[] numbers = new String[size];
+        for (int i = 0; i < size; i++) {
+            numbers[i] = String.format("+1650%07d", random.nextInt(10000000));
+        }
+
+        final long before = usedHeap();
+        final HashMap<String, CallerInfoCache.CacheEntry> map =
+                new HashMap<String, CallerInfoCache.CacheEntry>(size);
+        for (int i = 0; i < size; i++) {
+            final String normalized = PhoneNumberUtils.normalizeNumber(numbers[i]);
+            map.put(normalized.substring(normalized.length() - 7),
+                    new CallerInfoCache.CacheEntry(RINGTONES[i % RINGTONES.length], i % 5 == 0));
+        }
+        final long mapBytes = usedHeap() - before;
+
+        final CallerInfoSuffixIndex index = CallerInfoSuffixIndex.build(map);
+        final long indexBytes = usedHeap() - before - mapBytes;
+
+        int hits = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            final String normalized =
+                    PhoneNumberUtils.normalizeNumber(numbers[i % size]);
+            final int length = normalized.length();
+            if (map.get(normalized.substring(length - 7, length)) != null) {
+                hits++;
+            }
+        }
+        final long mapNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (index.get(CallerInfoSuffixIndex.packSuffix(numbers[i % size])) != null) {
+                hits--;
+            }
+        }
+        final long indexNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        assertEquals(0, hits);
+        Log.i(TAG, "size=" + size
+                + " mapBytes=" + mapBytes + " indexBytes=" + indexBytes
+                + " mapLookupNs=" + mapNanos + " indexLookupNs=" + indexNanos);
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.os.SystemProperties;
+import android.telephony.MSimTelephonyManager;
+import android.telephony.PhoneNumberUtils;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+// Compares EmergencyNumberClassifier's compiled ECC lists with the list scan done by
+// PhoneNumberUtils. Results are written to logcat with the
+// "EmergencyNumberClassifierBenchmark" tag.
+// See AndroidManifest.xml how to run these tests.
+public class EmergencyNumberClassifierBenchmark extends AndroidTestCase {
+    private static final String TAG = "EmergencyNumberClassifierBenchmark";
+    private static final String ECC_LIST = "112,911,000,08,110,118,119,999,*911,#911";
+    private static final int LOOKUPS = 20000;
+    private static final String[] NUMBERS = {
+        "112", "911", "9111234", "91", "", "08", "0800123456", "+112", "*911", "#9115",
+        "16505551234", "999", "99", "1-1-2", "112,1", "N112", "110", "1190", "*9115",
+    };
+
+    @SmallTest
+    public void testMatchesListScan() throws Exception {
+        final EmergencyNumberClassifier.Table table =
+                EmergencyNumberClassifier.Table.compile(ECC_LIST);
+        assertEquals(10, table.size());
+        for (String number : NUMBERS) {
+            final String network = PhoneNumberUtils.extractNetworkPortionAlt(number);
+            assertEquals(number, scan(network, false), table.classify(network, false));
+            assertEquals(number, scan(network, true), table.classify(network, true));
+        }
+    }
+
+    @SmallTest
+    public void testEmptyEntryMatchesEverything() throws Exception {
+        final EmergencyNumberClassifier.Table table =
+                EmergencyNumberClassifier.Table.compile("112,,911");
+        assertEquals(EmergencyNumberClassifier.POTENTIAL, table.classify("5551234", false));
+        assertEquals(EmergencyNumberClassifier.EXACT, table.classify("", false));
+    }
+
+    // Runs in the phone process, which may set the RIL's ECC list properties.
+    @SmallTest
+    public void testMatchesFrameworkForEccListSetups() throws Exception {
+        final EmergencyNumberClassifier classifier = EmergencyNumberClassifier.getInstance();
+        assertNotNull(classifier);
+        final int phones = Math.max(MSimTelephonyManager.getDefault().getPhoneCount(), 1);
+        final String[] saved = new String[phones];
+        for (int i = 0; i < phones; i++) {
+            saved[i] = SystemProperties.get(eccListProperty(i));
+        }
+        try {
+            checkSetup(classifier, phones, "112,911", "");
+            checkSetup(classifier, phones, "112,911,000,08,110,118,119,999", "");
+            // A number only on the second slot's list is still an emergency number.
+            checkSetup(classifier, phones, "", "110,119");
+            checkSetup(classifier, phones, "112,911", "110,*911");
+            // No list at all: ro.ril.ecclist or the country's numbers.
+            checkSetup(classifier, phones, "", "");
+        } finally {
+            for (int i = 0; i < phones; i++) {
+                SystemProperties.set(eccListProperty(i), saved[i]);
+            }
+            classifier.invalidate();
+        }
+    }
+
+    private void checkSetup(EmergencyNumberClassifier classifier, int phones,
+            String first, String second) {
+        SystemProperties.set(eccListProperty(0), first);
+        if (phones > 1) {
+            SystemProperties.set(eccListProperty(1), second);
+        } else if (second.length() > 0) {
+            return;
+        }
+        // The RIL's list updates come with SIM or service state changes, which invalidate.
+        classifier.invalidate();
+        final String setup = "[" + first + "][" + second + "] ";
+        for (String number : NUMBERS) {
+            final boolean exact = PhoneNumberUtils.isLocalEmergencyNumber(number, getContext());
+            final boolean potential =
+                    PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, getContext());
+            final int expected = exact ? EmergencyNumberClassifier.EXACT
+                    : potential ? EmergencyNumberClassifier.POTENTIAL
+                    : EmergencyNumberClassifier.NOT_EMERGENCY;
+            assertEquals(setup + number, expected, classifier.classify(number));
+        }
+    }
+
+    private static String eccListProperty(int phone) {
+        return phone == 0 ? "ril.ecclist" : ("ril.ecclist" + phone);
+    }
+
+    @LargeTest
+    public void testLookupLatency() throws Exception {
+        final EmergencyNumberClassifier.Table table =
+                EmergencyNumberClassifier.Table.compile(ECC_LIST);
+        int matches = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            final String network =
+                    PhoneNumberUtils.extractNetworkPortionAlt(NUMBERS[i % NUMBERS.length]);
+            if (scan(network, false) != EmergencyNumberClassifier.NOT_EMERGENCY) {
+                matches++;
+            }
+        }
+        final long scanNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            final String network =
+                    PhoneNumberUtils.extractNetworkPortionAlt(NUMBERS[i % NUMBERS.length]);
+            if (table.classify(network, false) != EmergencyNumberClassifier.NOT_EMERGENCY) {
+                matches--;
+            }
+        }
+        final long tableNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            final String number = NUMBERS[i % NUMBERS.length];
+            PhoneNumberUtils.isLocalEmergencyNumber(number, getContext());
+            PhoneNumberUtils.isPotentialLocalEmergencyNumber(number, getContext());
+        }
+        final long frameworkNanos = (System.nanoTime() - start) / LOOKUPS;
+
+        assertEquals(0, matches);
+        Log.i(TAG, "scanNs=" + scanNanos + " tableNs=" + tableNanos
+                + " frameworkExactAndPotentialNs=" + frameworkNanos);
+    }
+
+    // What PhoneNumberUtils does with an ECC list: split it and compare every entry.
+    private static int scan(String number, boolean exactOnly) {
+        int result = EmergencyNumberClassifier.NOT_EMERGENCY;
+        for (String emergencyNum : ECC_LIST.split(",")) {
+            if (number.equals(emergencyNum)) {
+                return EmergencyNumberClassifier.EXACT;
+            }
+            if (!exactOnly && number.startsWith(emergencyNum)) {
+                result = EmergencyNumberClassifier.POTENTIAL;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Need to be in this package to access package methods.
+package com.android.phone;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.test.suitebuilder.annotation.SmallTest;
+import android.util.Log;
+
+// Compares reading the phone settings through SharedPreferences, as PhoneUtils.PhoneSettings
+// used to, with reading them from the settings snapshot. Results are written to logcat with
+// the "PhoneSettingsBenchmark" tag.
+// See AndroidManifest.xml how to run these tests.
+public class PhoneSettingsBenchmark extends AndroidTestCase {
+    private static final String TAG = "PhoneSettingsBenchmark";
+    private static final String PREFS_NAME = "phone_settings_benchmark";
+    private static final int READS = 20000;
+    private static final long LISTENER_TIMEOUT = 5000; // ms
+
+    @SmallTest
+    public void testSnapshotMatchesPreferences() throws Exception {
+        final SharedPreferences prefs =
+                getContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().clear()
+                .putBoolean("button_vibrate_45", true)
+                .putBoolean("button_vibrate_hangup", false)
+                .putBoolean("button_rejected_as_missed", true)
+                .putString("flip_action", "2")
+                .putString(CallFeaturesSetting.BUTTON_VOICE_QUALITY_KEY, "wide")
+                .commit();
+
+        PhoneUtils.PhoneSettings.Snapshot snapshot =
+                new PhoneUtils.PhoneSettings.Snapshot(prefs, true);
+        assertTrue(snapshot.vibOn45Secs);
+        assertFalse(snapshot.vibHangup);
+        assertTrue(snapshot.vibOutgoing);
+        assertFalse(snapshot.vibCallWaiting);
+        assertFalse(snapshot.showInCallEvents);
+        assertFalse(snapshot.showCallLogAfterCall);
+        assertTrue(snapshot.markRejectedCallsAsMissed);
+        assertEquals(2, snapshot.flipAction);
+        assertEquals("wide", snapshot.voiceQualityValue);
+        assertTrue(snapshot.vibrateWhenRinging);
+
+        prefs.edit().putString("flip_action", "bogus").commit();
+        snapshot = new PhoneUtils.PhoneSettings.Snapshot(prefs, false);
+        assertEquals(0, snapshot.flipAction);
+        assertFalse(snapshot.vibrateWhenRinging);
+
+        prefs.edit().clear().commit();
+    }
+
+    // Runs in the phone process, so this changes the phone's own preferences; they are
+    // restored afterwards.
+    @SmallTest
+    public void testSnapshotFollowsPreferenceChanges() throws Exception {
+        final Context context = getContext();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final boolean hadVibCallWaiting = prefs.contains("button_vibrate_call_waiting");
+        final boolean vibCallWaiting = prefs.getBoolean("button_vibrate_call_waiting", false);
+        final String flipAction = prefs.getString("flip_action", null);
+
+        // Make sure the snapshot and its listener exist before changing anything.
+        PhoneUtils.PhoneSettings.getSnapshot(context);
+        final int newFlipAction = PhoneUtils.PhoneSettings.flipAction(context) == 2 ? 1 : 2;
+        try {
+            prefs.edit()
+                    .putBoolean("button_vibrate_call_waiting", !vibCallWaiting)
+                    .putString("flip_action", String.valueOf(newFlipAction))
+                    .commit();
+            // The listener runs on the main thread.
+            final long deadline = SystemClock.elapsedRealtime() + LISTENER_TIMEOUT;
+            while ((PhoneUtils.PhoneSettings.vibCallWaiting(context) == vibCallWaiting
+                    || PhoneUtils.PhoneSettings.flipAction(context) != newFlipAction)
+                    && SystemClock.elapsedRealtime() < deadline) {
+                SystemClock.sleep(10);
+            }
+            assertEquals(!vibCallWaiting, PhoneUtils.PhoneSettings.vibCallWaiting(context));
+            assertEquals(newFlipAction, PhoneUtils.PhoneSettings.flipAction(context));
+        } finally {
+            final SharedPreferences.Editor editor = prefs.edit();
+            if (hadVibCallWaiting) {
+                editor.putBoolean("button_vibrate_call_waiting", vibCallWaiting);
+            } else {
+                editor.remove("button_vibrate_call_waiting");
+            }
+            if (flipAction != null) {
+                editor.putString("flip_action", flipAction);
+            } else {
+                editor.remove("flip_action");
+            }
+            editor.commit();
+        }
+    }
+
+    @LargeTest
+    public void testReadLatency() throws Exception {
+        final Context context = getContext();
+        int count = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            if (prefs.getBoolean("button_vibrate_call_waiting", false)) count++;
+            count += Integer.parseInt(prefs.getString("flip_action", "0"));
+        }
+        final long prefsNanos = (System.nanoTime() - start) / READS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            if (CallFeaturesSetting.getVibrateWhenRinging(context)) count++;
+        }
+        final long vibrateSettingNanos = (System.nanoTime() - start) / READS;
+
+        // First read builds the snapshot; keep it out of the measurement.
+        PhoneUtils.PhoneSettings.getSnapshot(context);
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            if (PhoneUtils.PhoneSettings.vibCallWaiting(context)) count--;
+            count -= PhoneUtils.PhoneSettings.flipAction(context);
+        }
+        final long snapshotNanos = (System.nanoTime() - start) / READS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            if (PhoneUtils.PhoneSettings.vibrateWhenRinging(context)) count--;
+        }
+        final long snapshotVibrateNanos = (System.nanoTime() - start) / READS;
+
+        assertEquals(0, count);
+        Log.i(TAG, "prefsNs=" + prefsNanos + " snapshotNs=" + snapshotNanos
+                + " vibrateSettingNs=" + vibrateSettingNanos
+                + " snapshotVibrateNs=" + snapshotVibrateNanos);
+    }
+}
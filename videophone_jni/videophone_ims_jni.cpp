@@ -75,6 +75,27 @@ static jint dpl_handleRawFrame(JNIEnv *e, jobject o, jbyteArray frame) {
     return ret;
 }
 
+/*
+ * Same as dpl_handleRawFrame for a direct ByteBuffer: the encoder reads the frame in place,
+ * so nothing is copied or pinned per frame.
+ */
+static jint dpl_handleDirectFrame(JNIEnv *e, jobject o, jobject frame, jint size) {
+    if (!vt_apis || !vt_apis->frameToEncode) return 0;
+    if (frame == NULL) {
+        ALOGD("%s: Received a null frame", __func__);
+        return -1;
+    }
+    void *bytes = e->GetDirectBufferAddress(frame);
+    jlong capacity = e->GetDirectBufferCapacity(frame);
+    if (bytes == NULL || size <= 0 || size > capacity) {
+        ALOGE("%s: Invalid frame buffer %p, size %d, capacity %lld", __func__, bytes, size,
+                (long long) capacity);
+        return -1;
+    }
+    vt_apis->frameToEncode((unsigned short *)bytes, (int)size);
+    return 0;
+}
+
 static int dpl_setSurface(JNIEnv *e, jobject o, jobject osurface) {
     ALOGD("%s", __func__);
     if (vt_apis && vt_apis->setFarEndSurface) {
@@ -178,6 +199,7 @@ static JNINativeMethod sMethods[] =
     {"nativeInit", "()I", (void *)dpl_init},
     {"nativeDeInit", "()V", (void *)dpl_deinit},
     {"nativeHandleRawFrame", "([B)V", (void *)dpl_handleRawFrame},
+    {"nativeHandleDirectFrame", "(Ljava/nio/ByteBuffer;I)I", (void *)dpl_handleDirectFrame},
     {"nativeSetSurface", "(Landroid/graphics/SurfaceTexture;)I", (void *)dpl_setSurface},
     {"nativeSetDeviceOrientation", "(I)V", (void *)dpl_setDeviceOrientation},
     {"nativeGetNegotiatedFPS", "()S", (void *)dpl_getNegotiatedFPS},